@@ -1,11 +1,14 @@
 package com.shun.gateway;
 
+import com.shun.gateway.config.GatewayRuntimeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
 @EnableDiscoveryClient
+@ImportRuntimeHints(GatewayRuntimeHints.class)
 public class GatewayApplication {
 
 	public static void main(String[] args) {
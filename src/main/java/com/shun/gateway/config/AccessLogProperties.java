@@ -0,0 +1,53 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * The access log of {@link com.shun.gateway.filter.AccessLogFilter}: one JSON line per request,
+ * written in batches by a background thread.
+ */
+@ConfigurationProperties("access-log")
+@Configuration
+@Data
+public class AccessLogProperties {
+
+    private boolean enabled = false;
+
+    /**
+     * The file written to, rolled over to {@code <path>.1} ... {@code <path>.<max-history>}.
+     */
+    private String path = "logs/access.log";
+
+    private DataSize maxFileSize = DataSize.ofMegabytes(100);
+
+    private int maxHistory = 10;
+
+    /**
+     * Records waiting for the writer, rounded up to a power of two; records that find it full are
+     * dropped and counted.
+     */
+    private int bufferSize = 16384;
+
+    /**
+     * Records written with one system call at most.
+     */
+    private int batchSize = 512;
+
+    /**
+     * How long the writer sleeps when it has nothing to write.
+     */
+    private Duration flushInterval = Duration.ofMillis(100);
+
+    /**
+     * Share of the requests logged, decided by trace id so every replica logs the same traces.
+     * Requests answered with an error status or slower than {@code slow-threshold} are always logged.
+     */
+    private double sampleRate = 1.0;
+
+    private Duration slowThreshold = Duration.ofSeconds(1);
+}
@@ -0,0 +1,46 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Generation layout of {@link com.shun.gateway.util.GenerationalVerdictFilter}.
+ */
+@ConfigurationProperties("bloom-filter")
+@Configuration
+@Data
+public class BloomFilterProperties {
+
+    /**
+     * Number of generations kept, an entry is remembered for about generations * window.
+     */
+    private int generations = 5;
+
+    /**
+     * How long a generation takes inserts before a new one is started.
+     */
+    private Duration window = Duration.ofMinutes(1);
+
+    /**
+     * Smallest capacity of a generation, also the capacity of the first one.
+     */
+    private long minInsertions = 100_000;
+
+    /**
+     * Largest capacity of a generation, whatever the observed insert rate.
+     */
+    private long maxInsertions = 10_000_000;
+
+    /**
+     * Target false positive probability of each generation.
+     */
+    private double fpp = 0.000001;
+
+    /**
+     * Spare capacity over the previous window's insert count when sizing the next generation.
+     */
+    private double headroom = 1.5;
+}
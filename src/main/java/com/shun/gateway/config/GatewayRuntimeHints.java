@@ -0,0 +1,62 @@
+package com.shun.gateway.config;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+/**
+ * What AOT processing cannot see from the bean definitions: the classes jjwt and the JCA load by
+ * name while a token is verified. Only native images need them, an AOT-processed JVM ignores them.
+ */
+public class GatewayRuntimeHints implements RuntimeHintsRegistrar {
+
+    // jjwt-api reaches its implementation and algorithm registries through Classes.newInstance
+    private static final String[] JJWT_TYPES = {
+            "io.jsonwebtoken.impl.DefaultJwtParserBuilder",
+            "io.jsonwebtoken.impl.DefaultJwtBuilder",
+            "io.jsonwebtoken.impl.DefaultJwtHeaderBuilder",
+            "io.jsonwebtoken.impl.DefaultClaimsBuilder",
+            "io.jsonwebtoken.impl.io.StandardCompressionAlgorithms",
+            "io.jsonwebtoken.impl.security.StandardSecureDigestAlgorithms",
+            "io.jsonwebtoken.impl.security.StandardKeyAlgorithms",
+            "io.jsonwebtoken.impl.security.StandardEncryptionAlgorithms",
+            "io.jsonwebtoken.impl.security.StandardHashAlgorithms",
+            "io.jsonwebtoken.impl.security.StandardKeyOperations",
+            "io.jsonwebtoken.impl.security.StandardCurves",
+            "io.jsonwebtoken.impl.security.KeysBridge",
+            "io.jsonwebtoken.impl.compression.DeflateCompressionAlgorithm",
+            "io.jsonwebtoken.impl.compression.GzipCompressionAlgorithm",
+            // found through META-INF/services, they read the claims JSON into plain maps and lists
+            "io.jsonwebtoken.jackson.io.JacksonDeserializer",
+            "io.jsonwebtoken.jackson.io.JacksonSerializer",
+    };
+
+    // claims maps as Jackson builds them for jjwt
+    private static final String[] CLAIMS_TYPES = {
+            "java.util.LinkedHashMap",
+            "java.util.ArrayList",
+    };
+
+    // the PEM key from BouncyCastle is turned into a JDK key, then verified, by JCA providers instantiated by name
+    private static final String[] JCA_TYPES = {
+            "sun.security.ec.ECKeyFactory",
+            "sun.security.ec.ECDSASignature$SHA256",
+    };
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (String type : JJWT_TYPES) {
+            hints.reflection().registerType(TypeReference.of(type),
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+        }
+        for (String type : CLAIMS_TYPES) {
+            hints.reflection().registerType(TypeReference.of(type), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+        for (String type : JCA_TYPES) {
+            hints.reflection().registerType(TypeReference.of(type),
+                    MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+        }
+        hints.resources().registerPattern("META-INF/services/io.jsonwebtoken.*");
+    }
+}
@@ -0,0 +1,31 @@
+package com.shun.gateway.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token verification keys by {@code kid}. Tokens whose kid is not listed are verified with
+ * {@code publicKeyPem}. Refreshed from Nacos like {@link MyFilterConfiguration}.
+ */
+@ConfigurationProperties("jwt")
+@Configuration
+@RefreshScope
+public class JwtKeyProperties {
+
+    /**
+     * kid to public key in PEM format.
+     */
+    private Map<String, String> keys = new LinkedHashMap<>();
+
+    public Map<String, String> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(Map<String, String> keys) {
+        this.keys = keys;
+    }
+}
@@ -4,11 +4,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.util.pattern.PathPattern;
-import org.springframework.web.util.pattern.PathPatternParser;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Created by chenwenshun on 2022/7/2
@@ -17,12 +14,9 @@ import java.util.stream.Collectors;
 @Configuration
 @RefreshScope
 public class MyFilterConfiguration {
-    private List<PathPattern> whitePatterns = List.of();
-
-    public List<PathPattern> getWhitePatterns() {
-        return whitePatterns;
-    }
-
+    /**
+     * Paths served without a token, compiled by {@link com.shun.gateway.util.WhitePathIndex}.
+     */
     private List<String> whiteList;
 
     public List<String> getWhiteList() {
@@ -31,13 +25,5 @@ public class MyFilterConfiguration {
 
     public void setWhiteList(List<String> whiteList) {
         this.whiteList = whiteList;
-        PathPatternParser parser = new PathPatternParser();
-        if (whiteList != null && !whiteList.isEmpty()) {
-            this.whitePatterns = whiteList.stream()
-                    .map(parser::parse)
-                    .collect(Collectors.toList());
-        } else {
-            this.whitePatterns = List.of();
-        }
     }
 }
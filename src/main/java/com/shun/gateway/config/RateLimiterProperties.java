@@ -0,0 +1,41 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Redis leasing used by {@link com.shun.gateway.util.LeasedRateLimiter}, the rates themselves
+ * come from the {@code leased-rate-limiter.*} filter args of each route.
+ */
+@ConfigurationProperties("rate-limiter")
+@Configuration
+@Data
+public class RateLimiterProperties {
+
+    /**
+     * Without Redis every replica enforces the full limit on its own.
+     */
+    private boolean redisEnabled = true;
+
+    private String keyPrefix = "gateway:rate:";
+
+    /**
+     * Permits taken from Redis at a time, 0 picks a tenth of the burst capacity.
+     */
+    private int leaseSize = 0;
+
+    /**
+     * A lease slower than this is abandoned and Redis is left alone for {@link #backoff}.
+     */
+    private Duration timeout = Duration.ofMillis(100);
+
+    private Duration backoff = Duration.ofSeconds(5);
+
+    /**
+     * Upper bound on rate-limited keys tracked in memory, idle ones are dropped first.
+     */
+    private long maximumKeys = 200_000;
+}
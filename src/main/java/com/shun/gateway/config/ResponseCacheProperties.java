@@ -0,0 +1,39 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Sizing of the response cache shared by every route with the {@code ResponseCache} filter of
+ * {@link com.shun.gateway.filter.ResponseCacheGatewayFilterFactory}.
+ */
+@ConfigurationProperties("response-cache")
+@Configuration
+@Data
+public class ResponseCacheProperties {
+
+    /**
+     * Upper bound on the cached bodies and headers together.
+     */
+    private DataSize maximumSize = DataSize.ofMegabytes(64);
+
+    /**
+     * Larger responses are passed through without being kept.
+     */
+    private DataSize maximumEntrySize = DataSize.ofKilobytes(256);
+
+    /**
+     * How long a response is kept when neither the upstream's {@code Cache-Control} nor the
+     * route's {@code ttl} says otherwise.
+     */
+    private Duration defaultTtl = Duration.ofSeconds(5);
+
+    /**
+     * Cap on any freshness lifetime, a long {@code max-age} included.
+     */
+    private Duration maximumTtl = Duration.ofMinutes(5);
+}
@@ -0,0 +1,67 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * The set of revoked token ids ({@code jti}) kept by {@link com.shun.gateway.util.RevocationSet}
+ * and the Redis stream it follows. Revocations listed in Nacos are bound separately, by
+ * {@link RevokedTokensProperties}.
+ */
+@ConfigurationProperties("token-revocation")
+@Configuration
+@Data
+public class RevocationProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Revocations beyond this many live ones are dropped with a warning.
+     */
+    private int maximumSize = 1_000_000;
+
+    /**
+     * How long a revocation without an {@code exp} is kept.
+     */
+    private Duration defaultRetention = Duration.ofDays(1);
+
+    /**
+     * How often revocations past their token's {@code exp} are dropped.
+     */
+    private Duration sweepInterval = Duration.ofMinutes(1);
+
+    private Stream stream = new Stream();
+
+    @Data
+    public static class Stream {
+
+        /**
+         * Follow a Redis stream of revocations, each entry with a {@code jti} field and an
+         * {@code exp} field in epoch seconds.
+         */
+        private boolean enabled = false;
+
+        private String key = "gateway:token:revoked";
+
+        /**
+         * How often the stream is read past the last entry seen.
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+
+        /**
+         * Entries read per command, a full batch is followed by another read right away.
+         */
+        private int batchSize = 1000;
+
+        private Duration timeout = Duration.ofMillis(500);
+
+        /**
+         * How long to stop reading after a Redis error, the next read resumes where the last
+         * one stopped.
+         */
+        private Duration backoff = Duration.ofSeconds(30);
+    }
+}
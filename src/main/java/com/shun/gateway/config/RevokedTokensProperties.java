@@ -0,0 +1,33 @@
+package com.shun.gateway.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Revoked token ids listed in the config, refreshed from Nacos like {@link MyFilterConfiguration}.
+ * Every refresh adds the listed ids to {@link com.shun.gateway.util.RevocationSet}; removing one
+ * from the list does not reinstate the token, a revocation only ends at its {@code exp}.
+ */
+@ConfigurationProperties("revoked-tokens")
+@Configuration
+@RefreshScope
+public class RevokedTokensProperties {
+
+    /**
+     * jti to the token's {@code exp} in epoch seconds. An id with characters other than letters,
+     * digits and {@code -} needs brackets, e.g. {@code "[a.b]": 1735689600}.
+     */
+    private Map<String, Long> jti = new LinkedHashMap<>();
+
+    public Map<String, Long> getJti() {
+        return jti;
+    }
+
+    public void setJti(Map<String, Long> jti) {
+        this.jti = jti;
+    }
+}
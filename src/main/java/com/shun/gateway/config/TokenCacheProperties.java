@@ -0,0 +1,89 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Sizing of the token verdict cache used by {@link com.shun.gateway.filter.CheckTokenFilter}.
+ */
+@ConfigurationProperties("token-cache")
+@Configuration
+@Data
+public class TokenCacheProperties {
+
+    /**
+     * Upper bound on cached passed tokens; rejected ones go to the verdict filter and do not count.
+     */
+    private long maximumSize = 200_000;
+
+    /**
+     * How long a verdict is trusted after it was written, the token's own exp still applies.
+     */
+    private Duration expireAfterWrite = Duration.ofMinutes(5);
+
+    private Snapshot snapshot = new Snapshot();
+
+    private Redis redis = new Redis();
+
+    /**
+     * Warm-restart file holding the cache and the verdict filter generations.
+     */
+    @Data
+    public static class Snapshot {
+
+        private boolean enabled = false;
+
+        /**
+         * Should live on a volume that survives a restart of the pod.
+         */
+        private String path = "data/token-verdicts.snapshot";
+
+        /**
+         * How often the file is rewritten while running, it is also written on shutdown.
+         */
+        private Duration interval = Duration.ofMinutes(1);
+    }
+
+    /**
+     * Cluster-wide second tier shared by all gateway replicas.
+     */
+    @Data
+    public static class Redis {
+
+        private boolean enabled = false;
+
+        private String keyPrefix = "gateway:token:";
+
+        /**
+         * Pub/sub channel on which STOPPED verdicts are pushed to the other replicas.
+         */
+        private String channel = "gateway:token:stopped";
+
+        /**
+         * A lookup slower than this is abandoned and the token is verified locally.
+         */
+        private Duration timeout = Duration.ofMillis(20);
+
+        /**
+         * How long Redis is left alone after a timeout or error.
+         */
+        private Duration backoff = Duration.ofSeconds(5);
+
+        /**
+         * How long EXPIRED and STOPPED verdicts are kept.
+         */
+        private Duration rejectedTtl = Duration.ofMinutes(5);
+
+        private Duration flushInterval = Duration.ofMillis(50);
+
+        private int batchSize = 256;
+
+        /**
+         * Verdicts waiting for the next flush, further ones are dropped.
+         */
+        private int maxPending = 8192;
+    }
+}
@@ -0,0 +1,66 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Checks {@link com.shun.gateway.filter.CheckTokenFilter} makes before paying for a signature
+ * verification: the shape of the token, and how often its client sent bad ones lately.
+ */
+@ConfigurationProperties("token-precheck")
+@Configuration
+@Data
+public class TokenPrecheckProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Longer tokens are rejected unread.
+     */
+    private int maxLength = 4096;
+
+    /**
+     * Signature algorithms a token header may name, {@code none} and the HMAC ones are never
+     * accepted since every key is public.
+     */
+    private List<String> algorithms = List.of("ES256", "ES384", "ES512", "RS256", "RS384", "RS512",
+            "PS256", "PS384", "PS512", "EdDSA");
+
+    private Throttle throttle = new Throttle();
+
+    @Data
+    public static class Throttle {
+
+        /**
+         * Off by default: without {@link #trustedProxies} the client is the address of the
+         * connection, and behind an ingress or load balancer that is one address for everyone, so
+         * a few bad tokens from anyone would refuse every uncached token. Enable it with
+         * {@code trusted-proxies} set to the proxies in front of the gateway, or when clients
+         * connect directly.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Rejected tokens a client IP may send within {@link #window} before its uncached tokens
+         * are answered with 401 unverified.
+         */
+        private int maxFailures = 20;
+
+        private Duration window = Duration.ofMinutes(1);
+
+        /**
+         * Proxies in front of the gateway whose {@code X-Forwarded-For} entries are trusted, 0 uses
+         * the address of the connection.
+         */
+        private int trustedProxies = 0;
+
+        /**
+         * Upper bound on client IPs tracked in memory, idle ones are dropped first.
+         */
+        private long maximumClients = 100_000;
+    }
+}
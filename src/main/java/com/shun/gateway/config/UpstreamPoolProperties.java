@@ -0,0 +1,51 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import reactor.netty.http.HttpProtocol;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection pools of their own for the routes of {@link com.shun.gateway.filter.RouteScopedRoutingFilter},
+ * every other route shares the {@code spring.cloud.gateway.httpclient} pool. Read once at startup.
+ */
+@ConfigurationProperties("upstream-pools")
+@Configuration
+@Data
+public class UpstreamPoolProperties {
+
+    /**
+     * Pools by route id or, for {@code lb://} routes, by service id; the route id wins.
+     */
+    private Map<String, Pool> routes = new LinkedHashMap<>();
+
+    @Data
+    public static class Pool {
+
+        /**
+         * {@code H2C} multiplexes requests over HTTP/2 with prior knowledge, {@code HTTP11, H2C}
+         * upgrades from HTTP/1.1; the upstream must accept cleartext HTTP/2.
+         */
+        private List<HttpProtocol> protocols = List.of(HttpProtocol.HTTP11);
+
+        /**
+         * Connections to each upstream address. Over HTTP/2 each one carries as many concurrent
+         * streams as the upstream allows, so a handful is usually enough.
+         */
+        private int maxConnections = 100;
+
+        /**
+         * Requests waiting for a connection (or a stream) beyond which new ones fail at once.
+         */
+        private int pendingAcquireMaxCount = 1000;
+
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(3);
+
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+    }
+}
@@ -0,0 +1,94 @@
+package com.shun.gateway.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * How {@link com.shun.gateway.filter.CheckTokenFilter} runs signature verification on cache misses.
+ */
+@ConfigurationProperties("token-verification")
+@Configuration
+@Data
+public class VerificationProperties {
+
+    /**
+     * Distinct tokens whose verification can be shared by concurrent requests, further tokens
+     * are verified without coalescing.
+     */
+    private int maxInFlight = 10_000;
+
+    /**
+     * Where the signature check of a cache miss runs.
+     */
+    private ExecutionMode mode = ExecutionMode.BOUNDED;
+
+    /**
+     * Worker threads of the BOUNDED mode, defaults to the number of CPUs.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Verifications waiting for a BOUNDED worker, further ones are answered with 503.
+     */
+    private int queueCapacity = 1024;
+
+    /**
+     * Sent as {@code Retry-After} with the 503 of a verification that had no capacity left.
+     */
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+    /**
+     * Adaptive bound on the verifications in progress, see {@link com.shun.gateway.util.VerificationLimiter}.
+     */
+    private Limit limit = new Limit();
+
+    public enum ExecutionMode {
+        /**
+         * Dedicated, CPU-sized pool with a bounded queue.
+         */
+        BOUNDED,
+        /**
+         * A virtual thread per verification, needs JDK 21 and falls back to BOUNDED before that.
+         */
+        VIRTUAL,
+        /**
+         * On the event loop itself, only for algorithms cheap enough not to stall it.
+         */
+        INLINE,
+        /**
+         * Reactor's shared boundedElastic scheduler.
+         */
+        ELASTIC
+    }
+
+    @Data
+    public static class Limit {
+
+        /**
+         * Off unless enabled. It pays off where clients time out: without it a crowd of new sessions
+         * queues past their timeout and the verifications are wasted. Where clients wait however
+         * long it takes, it only trades the queue for 503s.
+         */
+        private boolean enabled = false;
+
+        private int initialLimit = 64;
+
+        private int minLimit = 8;
+
+        private int maxLimit = 1024;
+
+        /**
+         * How many times its own verification time a verification may wait for a thread, on recent
+         * average, before the limit is cut.
+         */
+        private double tolerance = 2.0;
+
+        /**
+         * Factor the limit is multiplied by when it is cut.
+         */
+        private double backoffRatio = 0.9;
+    }
+}
@@ -0,0 +1,88 @@
+package com.shun.gateway.filter;
+
+import com.shun.gateway.util.AccessLog;
+import com.shun.gateway.util.TokenIdentity;
+import com.shun.gateway.util.TokenVerdict;
+import com.shun.gateway.util.TraceIds;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.ErrorResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * Hands every finished request to the {@link AccessLog}: trace id, method, path, route, status,
+ * how it ended, time taken, user and token verdict, the last two as {@link CheckTokenFilter}
+ * left them in the exchange attributes.
+ * <p>
+ * A {@link WebFilter} rather than a global filter, so requests that match no route or are
+ * answered before the gateway's filters run are logged too.
+ */
+@Component
+@RequiredArgsConstructor
+public class AccessLogFilter implements WebFilter, Ordered {
+
+    private static final String ERROR_ATTR = AccessLogFilter.class.getName() + ".error";
+
+    private final AccessLog accessLog;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!accessLog.isEnabled()) {
+            return chain.filter(exchange);
+        }
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        return chain.filter(exchange)
+                .doOnError(error -> exchange.getAttributes().put(ERROR_ATTR, error))
+                .doFinally(signal -> record(exchange, startedAt, System.nanoTime() - start, signal));
+    }
+
+    private void record(ServerWebExchange exchange, long startedAt, long elapsedNanos, SignalType signal) {
+        String traceId = exchange.getAttribute(CheckTokenFilter.TRACE_ID_ATTR);
+        if (traceId == null) {
+            // CheckTokenFilter did not run: no route matched, or an OPTIONS request
+            HttpHeaders headers = exchange.getRequest().getHeaders();
+            traceId = headers.getFirst(CheckTokenFilter.TRACE_ID);
+            if (traceId == null) {
+                traceId = TraceIds.fromTraceparent(headers.getFirst(TraceIds.TRACEPARENT));
+            }
+        }
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        HttpStatusCode status = exchange.getResponse().getStatusCode();
+        TokenIdentity identity = exchange.getAttribute(CheckTokenFilter.IDENTITY_ATTR);
+        TokenVerdict verdict = exchange.getAttribute(CheckTokenFilter.VERDICT_ATTR);
+        accessLog.record(startedAt, elapsedNanos, traceId, exchange.getRequest().getMethod(),
+                exchange.getRequest().getPath().value(), route == null ? null : route.getId(),
+                signal == SignalType.ON_ERROR ? errorStatus(exchange.getAttribute(ERROR_ATTR))
+                        : status == null ? 0 : status.value(), outcome(signal),
+                identity == null ? null : identity.uid(), verdict);
+    }
+
+    // the status the error handler answers with after this filter, a missing route included
+    private static int errorStatus(Throwable error) {
+        return error instanceof ErrorResponse response ? response.getStatusCode().value() : 500;
+    }
+
+    private static AccessLog.Outcome outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_ERROR -> AccessLog.Outcome.ERROR;
+            case CANCEL -> AccessLog.Outcome.CANCELLED;
+            default -> AccessLog.Outcome.COMPLETED;
+        };
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
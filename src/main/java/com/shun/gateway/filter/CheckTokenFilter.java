@@ -1,9 +1,21 @@
 package com.shun.gateway.filter;
 
-import com.shun.gateway.config.MyFilterConfiguration;
 import com.shun.gateway.util.CheckTokenUtil;
-import com.shun.gateway.util.CircleBloomFilter;
-import com.shun.gateway.util.TokenParse;
+import com.shun.gateway.util.FailureThrottle;
+import com.shun.gateway.util.GenerationalVerdictFilter;
+import com.shun.gateway.util.RedisVerdictStore;
+import com.shun.gateway.util.RevocationSet;
+import com.shun.gateway.util.TokenDigest;
+import com.shun.gateway.util.TokenIdentity;
+import com.shun.gateway.util.TokenMetrics;
+import com.shun.gateway.util.TokenPrecheck;
+import com.shun.gateway.util.TokenVerdict;
+import com.shun.gateway.util.TokenVerdictCache;
+import com.shun.gateway.util.TraceIds;
+import com.shun.gateway.util.VerificationCoalescer;
+import com.shun.gateway.util.VerificationLimiter;
+import com.shun.gateway.util.VerificationScheduler;
+import com.shun.gateway.util.WhitePathIndex;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import lombok.RequiredArgsConstructor;
@@ -15,19 +27,19 @@ import org.springframework.http.HttpCookie;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Created by chenwenshun on 2022/6/14
@@ -41,6 +53,14 @@ public class CheckTokenFilter implements GlobalFilter, Ordered {
     public static final String USER_NAME_KEY = "userName";
     public static final String TRACE_ID = "traceId";
 
+    /**
+     * Exchange attributes for the access log: the trace id, the verdict on the token (absent without
+     * one) and the {@link TokenIdentity} of a passed token.
+     */
+    public static final String TRACE_ID_ATTR = CheckTokenFilter.class.getName() + ".traceId";
+    public static final String VERDICT_ATTR = CheckTokenFilter.class.getName() + ".verdict";
+    public static final String IDENTITY_ATTR = CheckTokenFilter.class.getName() + ".identity";
+
     static final String BODY_401 = " {\n" +
             "  \"code\": 401,\n" +
             "  \"message\": \"Unauthorized\"\n" +
@@ -51,14 +71,30 @@ public class CheckTokenFilter implements GlobalFilter, Ordered {
             "  \"message\": \"token expired\"\n" +
             "}";
 
-    private final CheckTokenUtil checkTokenUtil;
-    private final TokenParse tokenParse;
-    private final CircleBloomFilter circleBloomFilter;
-    public static final String PASSED_PREFIX = "passed";
-    public static final String STOPPED_PREFIX = "stopped";
-    public static final String EXPIRED_PREFIX = "expired";
+    static final String BODY_503 = " {\n" +
+            "  \"code\": 503,\n" +
+            "  \"message\": \"Service Unavailable\"\n" +
+            "}";
 
-    private final MyFilterConfiguration myFilterConfiguration;
+    // encoded once and shared read-only, each response writes a duplicate view of them
+    private static final ByteBuffer BODY_401_BYTES = encode(BODY_401);
+    private static final ByteBuffer BODY_403_BYTES = encode(BODY_403);
+    private static final ByteBuffer BODY_503_BYTES = encode(BODY_503);
+
+    private static final MediaType APPLICATION_JSON_UTF8 = MediaType.parseMediaType("application/json;charset=UTF-8");
+
+    private final CheckTokenUtil checkTokenUtil;
+    private final TokenVerdictCache tokenVerdictCache;
+    private final GenerationalVerdictFilter verdictFilter;
+    private final RedisVerdictStore redisVerdictStore;
+    private final VerificationCoalescer verificationCoalescer;
+    private final VerificationScheduler verificationScheduler;
+    private final VerificationLimiter verificationLimiter;
+    private final TokenPrecheck tokenPrecheck;
+    private final FailureThrottle failureThrottle;
+    private final RevocationSet revocationSet;
+    private final WhitePathIndex whitePathIndex;
+    private final TokenMetrics tokenMetrics;
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
@@ -67,10 +103,9 @@ public class CheckTokenFilter implements GlobalFilter, Ordered {
         if (request.getMethod() == HttpMethod.OPTIONS){
             return chain.filter(exchange);
         }
-        String traceId = Optional.ofNullable(request.getHeaders().getFirst(TRACE_ID)).orElseGet(this::generateTraceId);
-        request.mutate().header(TRACE_ID, traceId);
-        //请求路径白名单 判断
-        boolean isWhite = checkWhitePath(request);
+        String traceId = request.getHeaders().getFirst(TRACE_ID);
+        String newTraceId = traceId == null ? newTraceId(request) : null;
+        exchange.getAttributes().put(TRACE_ID_ATTR, traceId != null ? traceId : newTraceId);
 
         String authHeader = request.getHeaders().getFirst(AUTHHEADER);
         String token = null;
@@ -83,68 +118,154 @@ public class CheckTokenFilter implements GlobalFilter, Ordered {
         }
 
         if(token == null){
-            if (isWhite){
-                return chain.filter(exchange);
+            tokenMetrics.missing();
+            //请求路径白名单 判断
+            if (checkWhitePath(request)){
+                tokenMetrics.bypass(TokenMetrics.Bypass.MISSING_TOKEN);
+                return forward(exchange, chain, newTraceId, null, null);
             }else {
-                return getVoidMono(response, request, HttpStatus.UNAUTHORIZED, BODY_401);
+                return getVoidMono(response, HttpStatus.UNAUTHORIZED, BODY_401_BYTES);
             }
         }
 
-        if (circleBloomFilter.exists(STOPPED_PREFIX.concat(token))){
-            if (isWhite){
-                return chain.filter(exchange);
-            }else {
-                return getVoidMono(response, request, HttpStatus.UNAUTHORIZED, BODY_401);
-            }
+        TokenDigest digest = TokenDigest.of(token);
+        TokenVerdictCache.Entry cached = tokenVerdictCache.get(digest);
+        if (cached != null) {
+            tokenMetrics.verdict(TokenMetrics.Tier.CACHE, cached.verdict());
+            return onVerdict(exchange, chain, newTraceId, token, cached);
         }
-
-        if (circleBloomFilter.exists(EXPIRED_PREFIX.concat(token))){
-            if (isWhite){
-                return chain.filter(exchange);
-            }else {
-                return getVoidMono(response, request, HttpStatus.FORBIDDEN, BODY_403);
-            }
+        // malformed tokens are neither verified nor remembered, they would only crowd the Bloom filter
+        if (tokenPrecheck.check(token) != null) {
+            return onRejected(exchange, chain, newTraceId, TokenMetrics.Tier.PRECHECK, TokenVerdict.STOPPED);
         }
-        Claims claims = null;
-        if (circleBloomFilter.exists(PASSED_PREFIX.concat(token))){
-            claims = tokenParse.parseToken(token);
-           setHeaders(claims, request.mutate());
-            request.mutate().header(AUTHHEADER, token);
-            return chain.filter(exchange);
+        TokenVerdict rejected = verdictFilter.lookup(digest);
+        if (rejected == TokenVerdict.STOPPED || rejected == TokenVerdict.EXPIRED) {
+            return onRejected(exchange, chain, newTraceId, TokenMetrics.Tier.BLOOM, rejected);
+        }
+        if (failureThrottle.isThrottled(exchange)) {
+            tokenMetrics.verdict(TokenMetrics.Tier.THROTTLE, TokenVerdict.STOPPED);
+            return onVerdict(exchange, chain, newTraceId, null, TokenVerdictCache.Entry.rejected(TokenVerdict.STOPPED));
         }
 
         String finalToken = token;
-        return verifyTokenReactive( token)
-                .flatMap(claims2 -> {
-                    circleBloomFilter.put(PASSED_PREFIX.concat(finalToken));
-                    setHeaders(claims2, request.mutate());
-                    request.mutate().header(AUTHHEADER, finalToken);
-                    return chain.filter(exchange);
-                }).onErrorResume(e -> {
-                    if (e instanceof ExpiredJwtException){
-                        circleBloomFilter.put(EXPIRED_PREFIX.concat(finalToken));
-                        if (!isWhite) {return getVoidMono(response, request, HttpStatus.FORBIDDEN, BODY_403);}
-                    }else{
-                        circleBloomFilter.put(STOPPED_PREFIX.concat(finalToken));
-                        if (!isWhite) {
-                            return getVoidMono(response, request, HttpStatus.UNAUTHORIZED, BODY_401);
-                        }
+        return verificationCoalescer.resolve(digest, () -> redisVerdictStore.lookup(digest)
+                        .doOnNext(entry -> tokenMetrics.verdict(TokenMetrics.Tier.REDIS, entry.verdict()))
+                        .switchIfEmpty(Mono.defer(() -> verify(finalToken, digest))))
+                // no capacity left to verify: answer 503 without remembering anything
+                .onErrorReturn(RejectedExecutionException.class, TokenVerdictCache.Entry.UNKNOWN)
+                .doOnNext(entry -> {
+                    if (entry.verdict() == TokenVerdict.STOPPED) {
+                        failureThrottle.failed(exchange);
                     }
-                    return chain.filter(exchange); // fallback to white path
-                });
+                })
+                .flatMap(entry -> onVerdict(exchange, chain, newTraceId, finalToken, entry));
+
+    }
 
+    private Mono<TokenVerdictCache.Entry> verify(String token, TokenDigest digest) {
+        // only verification is limited, everything answered from memory or Redis stays unaffected
+        return verificationLimiter.run(() -> verifyTokenReactive(token))
+                .map(claims -> tokenVerdictCache.putPassed(digest, TokenIdentity.from(claims)))
+                // jjwt checks exp only once the signature holds, a forged token is STOPPED whatever its exp
+                .onErrorResume(e -> !(e instanceof RejectedExecutionException), e -> Mono.just(rejected(digest,
+                        e instanceof ExpiredJwtException ? TokenVerdict.EXPIRED : TokenVerdict.STOPPED)))
+                .doOnNext(entry -> {
+                    tokenMetrics.verdict(TokenMetrics.Tier.VERIFY, entry.verdict());
+                    redisVerdictStore.offer(digest, entry);
+                })
+                .doOnError(RejectedExecutionException.class,
+                        e -> tokenMetrics.verdict(TokenMetrics.Tier.VERIFY, TokenVerdict.UNKNOWN));
     }
 
-    private Mono<Void> getVoidMono(ServerHttpResponse serverHttpResponse, ServerHttpRequest httpRequest, HttpStatus status, String body) {
-        HttpHeaders headers = serverHttpResponse.getHeaders();
-        headers.add("Content-Type", "application/json;charset=UTF-8");
+    private TokenVerdictCache.Entry rejected(TokenDigest digest, TokenVerdict verdict) {
+        verdictFilter.put(digest, verdict);
+        return TokenVerdictCache.Entry.rejected(verdict);
+    }
 
+    private Mono<Void> onRejected(ServerWebExchange exchange, GatewayFilterChain chain, String newTraceId,
+                                  TokenMetrics.Tier tier, TokenVerdict verdict) {
+        tokenMetrics.verdict(tier, verdict);
+        if (verdict == TokenVerdict.STOPPED) {
+            failureThrottle.failed(exchange);
+        }
+        return onVerdict(exchange, chain, newTraceId, null, TokenVerdictCache.Entry.rejected(verdict));
+    }
+
+    private Mono<Void> onVerdict(ServerWebExchange exchange, GatewayFilterChain chain, String newTraceId,
+                                 String token, TokenVerdictCache.Entry entry) {
+        TokenVerdict verdict = entry.verdict();
+        if (verdict == TokenVerdict.PASSED) {
+            // checked on every request, a cached verdict stays valid until its TTL while a revocation is immediate
+            if (!revocationSet.isRevoked(entry.identity())) {
+                exchange.getAttributes().put(VERDICT_ATTR, verdict);
+                return forward(exchange, chain, newTraceId, token, entry.identity());
+            }
+            verdict = TokenVerdict.STOPPED;
+        }
+        exchange.getAttributes().put(VERDICT_ATTR, verdict);
+        // the whitelist is only consulted for requests that would otherwise be refused
+        if (checkWhitePath(exchange.getRequest())) {
+            tokenMetrics.bypass(TokenMetrics.Bypass.REJECTED_TOKEN);
+            return forward(exchange, chain, newTraceId, null, null);
+        }
+        return switch (verdict) {
+            case EXPIRED -> getVoidMono(exchange.getResponse(), HttpStatus.FORBIDDEN, BODY_403_BYTES);
+            case UNKNOWN -> {
+                exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, verificationLimiter.getRetryAfter());
+                yield getVoidMono(exchange.getResponse(), HttpStatus.SERVICE_UNAVAILABLE, BODY_503_BYTES);
+            }
+            default -> getVoidMono(exchange.getResponse(), HttpStatus.UNAUTHORIZED, BODY_401_BYTES);
+        };
+    }
+
+    /**
+     * Adds a new trace id and, for a passed token, the identity headers in a single mutation.
+     * Only the headers change, so the request is wrapped rather than rebuilt with
+     * {@code request.mutate().build()}, which would parse its URI and path again.
+     *
+     * @param newTraceId the trace id when the request came without one, otherwise {@code null}
+     */
+    private Mono<Void> forward(ServerWebExchange exchange, GatewayFilterChain chain, String newTraceId,
+                               String token, TokenIdentity identity) {
+        if (newTraceId == null && identity == null) {
+            return chain.filter(exchange);
+        }
+        if (identity != null) {
+            exchange.getAttributes().put(IDENTITY_ATTR, identity);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        // the same view of the headers request.mutate() would have written to
+        HttpHeaders headers = HttpHeaders.writableHttpHeaders(request.getHeaders());
+        if (newTraceId != null) {
+            headers.set(TRACE_ID, newTraceId);
+            if (!headers.containsKey(TraceIds.TRACEPARENT)) {
+                headers.set(TraceIds.TRACEPARENT, TraceIds.traceparent(newTraceId));
+            }
+        }
+        if (identity != null) {
+            setHeaders(identity, headers);
+            headers.set(AUTHHEADER, token);
+        }
+        return chain.filter(exchange.mutate().request(new ForwardedRequest(request, headers)).build());
+    }
+
+    // a request without a traceId continues the W3C trace it is part of, or starts one
+    private static String newTraceId(ServerHttpRequest request) {
+        String parentTraceId = TraceIds.fromTraceparent(request.getHeaders().getFirst(TraceIds.TRACEPARENT));
+        return parentTraceId != null ? parentTraceId : TraceIds.newTraceId();
+    }
+
+    private Mono<Void> getVoidMono(ServerHttpResponse serverHttpResponse, HttpStatus status, ByteBuffer body) {
         serverHttpResponse.setStatusCode(status);
-        
-        DataBuffer dataBuffer = serverHttpResponse.bufferFactory().wrap(body.getBytes());
+        serverHttpResponse.getHeaders().setContentType(APPLICATION_JSON_UTF8);
+        DataBuffer dataBuffer = serverHttpResponse.bufferFactory().wrap(body.duplicate());
         return serverHttpResponse.writeWith(Flux.just(dataBuffer));
     }
 
+    private static ByteBuffer encode(String body) {
+        return ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
     @Override
     public int getOrder() {
         return -100;
@@ -152,45 +273,34 @@ public class CheckTokenFilter implements GlobalFilter, Ordered {
 
 
     private boolean checkWhitePath(ServerHttpRequest request){
-        return myFilterConfiguration.getWhitePatterns().stream()
-                .anyMatch(pattern -> pattern.matches(request.getPath()));
+        return whitePathIndex.matches(request.getPath());
     }
 
-    private void setHeaders(Claims claims, ServerHttpRequest.Builder builder){
-        builder.header(USER_ID_KEY, claims.get("uid").toString());
-        String username = Optional.ofNullable(claims.getSubject()).orElse("");
-        try {
-            builder.header(USER_NAME_KEY, URLEncoder.encode(username, "utf-8"));
-        } catch (UnsupportedEncodingException e) {
-            builder.header(USER_NAME_KEY, username);
-        }
-        Set<String> claimsAudience = claims.getAudience();
-        if (claimsAudience != null && claimsAudience.size() > 0) {
-            builder.header(Claims.AUDIENCE, (String) claimsAudience.toArray()[0]);
+    private void setHeaders(TokenIdentity identity, HttpHeaders headers){
+        headers.set(USER_ID_KEY, identity.uid());
+        headers.set(USER_NAME_KEY, identity.userName());
+        if (identity.audience() != null) {
+            headers.set(Claims.AUDIENCE, identity.audience());
         }
     }
 
-//    public static void main(String[] args) {
-//        AntPathMatcher pathMatcher = new AntPathMatcher();
-//        System.out.println(pathMatcher.match("/*", "/testing"));
-//        System.out.println(pathMatcher.match("/*/**", "/testing/testing"));
-//        System.out.println(pathMatcher.match("/ms-user/shop/*", "/ms-user/shop/employee/switchToken?shopId=5"));
-//        System.out.println(pathMatcher.match("/foo/*","/foo/bar"));
-//        PathPatternParser parser = new PathPatternParser();
-//        PathPattern pattern = parser.parse("/ms-user/shop/**");
-//        boolean matches = pattern.matches(PathContainer.parsePath("/ms-user/shop/employee/switchToken?shopId=5"));
-//        System.out.println(matches);
-//    }
-
     private Mono<Claims> verifyTokenReactive(String token) {
-        return Mono.fromCallable(() -> checkTokenUtil.check(token)) // 同步逻辑放到 Callable
-                .subscribeOn(Schedulers.boundedElastic());       // 放阻塞线程池执行
+        return verificationScheduler.run(() -> checkTokenUtil.check(token));
     }
 
-    // 使用时间戳 + ThreadLocalRandom 生成唯一ID
-    private String generateTraceId() {
-        return System.currentTimeMillis() + "-" +
-                ThreadLocalRandom.current().nextLong(100000, 999999);
+    private static final class ForwardedRequest extends ServerHttpRequestDecorator {
+
+        private final HttpHeaders headers;
+
+        ForwardedRequest(ServerHttpRequest request, HttpHeaders headers) {
+            super(request);
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
     }
 
 }
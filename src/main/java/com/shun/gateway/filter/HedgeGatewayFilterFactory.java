@@ -0,0 +1,345 @@
+package com.shun.gateway.filter;
+
+import com.shun.gateway.util.Hedging;
+import lombok.Data;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.GatewayToStringStyler;
+import org.springframework.cloud.gateway.support.HasRouteId;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.Connection;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * {@code Hedge} route filter: when the upstream has not answered a request without a body in an
+ * idempotent method within the route's hedge delay, sends the same request to another instance
+ * and keeps whichever answers first, cancelling the other. A first request that fails is sent
+ * to another instance right away. Both kinds of second request are paid for by the route's
+ * budget, see {@link Hedging}.
+ * <p>
+ * The delay is the {@code percentile} of the route's recent response times, kept between
+ * {@code min-delay} and {@code max-delay}, so only the slowest requests are hedged. For an
+ * {@code lb://} route the filter picks the instances itself, round robin over the discovered
+ * ones, the second request going to the instance after the first one's; a service with a single
+ * instance is not hedged. Both still go through the service's own upstream pool, if it has one,
+ * see {@link RouteScopedRoutingFilter}. Any other route sends both requests to its URI.
+ * <p>
+ * "Answered" means the response headers arrived: each request runs the rest of the chain on an
+ * exchange of its own, and the winner's status, headers and attributes are copied back before
+ * its body is streamed to the client.
+ */
+@Component
+public class HedgeGatewayFilterFactory extends AbstractGatewayFilterFactory<HedgeGatewayFilterFactory.Config> {
+
+    private final Hedging hedging;
+    private final ObjectProvider<ReactiveDiscoveryClient> discoveryClient;
+
+    public HedgeGatewayFilterFactory(Hedging hedging, ObjectProvider<ReactiveDiscoveryClient> discoveryClient) {
+        super(Config.class);
+        this.hedging = hedging;
+        this.discoveryClient = discoveryClient;
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return List.of("percentile", "budget");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        Set<String> methods = config.getMethods().stream()
+                .map(method -> method.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        double budget = config.getBudget();
+        Hedging.RouteStats stats = hedging.forRoute(config.getRouteId() == null ? "" : config.getRouteId(),
+                config.getPercentile(), config.getMinDelay(), config.getMaxDelay());
+        return new GatewayFilter() {
+            @Override
+            public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+                ServerHttpRequest request = exchange.getRequest();
+                Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+                if (route == null || !methods.contains(request.getMethod().name()) || hasBody(request.getHeaders())) {
+                    return chain.filter(exchange);
+                }
+                stats.onRequest(budget);
+                if (!"lb".equalsIgnoreCase(route.getUri().getScheme())) {
+                    return hedge(exchange, chain, stats, route, null, null);
+                }
+                return instances(stats, route.getUri().getHost()).flatMap(instances -> {
+                    if (instances.isEmpty()) {
+                        // left to the chain, which answers as it would without the filter
+                        return chain.filter(exchange);
+                    }
+                    int first = Math.floorMod(stats.nextIndex(), instances.size());
+                    ServiceInstance second = instances.size() > 1 ? instances.get((first + 1) % instances.size()) : null;
+                    return hedge(exchange, chain, stats, route, instances.get(first), second);
+                });
+            }
+
+            @Override
+            public String toString() {
+                return GatewayToStringStyler.filterToStringCreator(HedgeGatewayFilterFactory.this)
+                        .append("percentile", config.getPercentile())
+                        .append("budget", budget)
+                        .append("methods", methods)
+                        .toString();
+            }
+        };
+    }
+
+    /**
+     * @param first  the instance of the first request, {@code null} to use the route's URI
+     * @param second the instance of a second request, {@code null} to use the route's URI or,
+     *               when the first request has an instance, to send no second request
+     */
+    private Mono<Void> hedge(ServerWebExchange exchange, GatewayFilterChain chain, Hedging.RouteStats stats,
+                             Route route, ServiceInstance first, ServiceInstance second) {
+        boolean canHedge = first == null || second != null;
+        long startedAt = hedging.nanoTime();
+        AtomicBoolean decided = new AtomicBoolean();
+        AtomicBoolean secondSent = new AtomicBoolean();
+        Sinks.Empty<Void> firstDone = Sinks.empty();
+
+        // a second request that fails is dropped, the first one answers the client
+        Function<Hedging.Reason, Mono<Attempt>> secondRequest = reason -> Mono.defer(() -> {
+            if (!canHedge || decided.get() || !secondSent.compareAndSet(false, true) || !stats.trySend(reason)) {
+                return Mono.empty();
+            }
+            return run(new Attempt(exchange, route, second), chain, decided)
+                    .doOnNext(attempt -> stats.onWon())
+                    .onErrorResume(e -> Mono.empty());
+        });
+        Mono<Attempt> firstRequest = run(new Attempt(exchange, route, first), chain, decided)
+                .doOnSuccess(attempt -> stats.record(hedging.nanoTime() - startedAt))
+                .doOnCancel(() -> stats.record(hedging.nanoTime() - startedAt))
+                .doFinally(signal -> firstDone.tryEmitEmpty())
+                .onErrorResume(e -> secondRequest.apply(Hedging.Reason.ERROR).switchIfEmpty(Mono.error(e)));
+        Mono<Attempt> delayed = Mono.delay(stats.getDelay())
+                .takeUntilOther(firstDone.asMono())
+                .flatMap(tick -> secondRequest.apply(Hedging.Reason.DELAY));
+        return Flux.mergeDelayError(2, firstRequest, delayed)
+                .next()
+                .flatMap(winner -> winner.commitTo(exchange));
+    }
+
+    private Mono<List<ServiceInstance>> instances(Hedging.RouteStats stats, String serviceId) {
+        List<ServiceInstance> cached = stats.getInstances();
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        ReactiveDiscoveryClient client = discoveryClient.getIfAvailable();
+        if (client == null || serviceId == null) {
+            return Mono.just(List.of());
+        }
+        return client.getInstances(serviceId)
+                .collectList()
+                .doOnNext(stats::setInstances);
+    }
+
+    /**
+     * @return the attempt once the chain got its response headers and it was the first one,
+     * empty when the other request had already won
+     */
+    private static Mono<Attempt> run(Attempt attempt, GatewayFilterChain chain, AtomicBoolean decided) {
+        return chain.filter(attempt)
+                .then(Mono.fromSupplier(() -> decided.compareAndSet(false, true) ? attempt : attempt.release()));
+    }
+
+    private static boolean hasBody(HttpHeaders headers) {
+        return headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING)
+                || headers.containsKey(HttpHeaders.UPGRADE);
+    }
+
+    /**
+     * One request upstream: the rest of the chain runs on a copy of the attributes and a response
+     * that keeps what it is given until the attempt has won.
+     */
+    private static final class Attempt extends ServerWebExchangeDecorator {
+
+        private final Map<String, Object> attributes;
+        private final ServerHttpRequest request;
+        private final AttemptResponse response;
+
+        Attempt(ServerWebExchange exchange, Route route, ServiceInstance instance) {
+            super(exchange);
+            this.attributes = new ConcurrentHashMap<>(exchange.getAttributes());
+            if (instance != null) {
+                // the pool is picked by the route id or the lb:// service, not by the instance
+                attributes.putIfAbsent(RouteScopedRoutingFilter.POOL_ROUTE_ATTR, route);
+                attributes.put(GATEWAY_ROUTE_ATTR, Route.async()
+                        .id(route.getId())
+                        .uri(instance.getUri())
+                        .order(route.getOrder())
+                        .asyncPredicate(route.getPredicate())
+                        .replaceFilters(route.getFilters())
+                        .metadata(route.getMetadata())
+                        .build());
+            }
+            // the request has no body, and the one of the client's connection can only be read once
+            this.request = new ServerHttpRequestDecorator(exchange.getRequest()) {
+                @Override
+                public Flux<DataBuffer> getBody() {
+                    return Flux.empty();
+                }
+            };
+            this.response = new AttemptResponse(exchange.getResponse());
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public ServerHttpRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public ServerHttpResponse getResponse() {
+            return response;
+        }
+
+        Mono<Void> commitTo(ServerWebExchange exchange) {
+            attributes.forEach((name, value) -> {
+                if (!name.equals(GATEWAY_ROUTE_ATTR) && !name.equals(RouteScopedRoutingFilter.POOL_ROUTE_ATTR)) {
+                    exchange.getAttributes().put(name, value);
+                }
+            });
+            return response.commit();
+        }
+
+        Attempt release() {
+            Connection connection = (Connection) attributes.get(CLIENT_RESPONSE_CONN_ATTR);
+            if (connection != null) {
+                connection.dispose();
+            }
+            return null;
+        }
+    }
+
+    private static final class AttemptResponse extends ServerHttpResponseDecorator {
+
+        private final HttpHeaders headers = new HttpHeaders();
+        private HttpStatusCode status;
+        private Publisher<? extends DataBuffer> body;
+        private boolean complete;
+
+        AttemptResponse(ServerHttpResponse response) {
+            super(response);
+            response.getHeaders().forEach((name, values) -> headers.put(name, new ArrayList<>(values)));
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public boolean setStatusCode(HttpStatusCode status) {
+            this.status = status;
+            return true;
+        }
+
+        @Override
+        @Deprecated
+        public boolean setRawStatusCode(Integer value) {
+            return setStatusCode(value == null ? null : HttpStatusCode.valueOf(value));
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return status != null ? status : super.getStatusCode();
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            this.body = body;
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+            this.body = Flux.from(body).concatMap(Flux::from);
+            return Mono.empty();
+        }
+
+        @Override
+        public Mono<Void> setComplete() {
+            this.complete = true;
+            return Mono.empty();
+        }
+
+        Mono<Void> commit() {
+            ServerHttpResponse target = getDelegate();
+            if (status != null) {
+                target.setStatusCode(status);
+            }
+            target.getHeaders().clear();
+            target.getHeaders().putAll(headers);
+            if (body != null) {
+                return target.writeWith(body);
+            }
+            return complete ? target.setComplete() : Mono.empty();
+        }
+    }
+
+    @Data
+    public static class Config implements HasRouteId {
+
+        private String routeId;
+
+        /**
+         * Methods that are hedged, only for requests without a body.
+         */
+        private List<String> methods = List.of("GET", "HEAD", "OPTIONS");
+
+        /**
+         * Percentile of the route's response times after which a request is hedged.
+         */
+        private double percentile = 95;
+
+        /**
+         * Second requests allowed per request, 0.05 caps the extra load at 5%.
+         */
+        private double budget = 0.05;
+
+        private Duration minDelay = Duration.ofMillis(5);
+
+        /**
+         * Also the delay until the route has enough response times for a percentile.
+         */
+        private Duration maxDelay = Duration.ofSeconds(1);
+    }
+}
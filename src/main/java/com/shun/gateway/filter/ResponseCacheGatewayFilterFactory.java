@@ -0,0 +1,205 @@
+package com.shun.gateway.filter;
+
+import com.shun.gateway.util.ResponseCache;
+import lombok.Data;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.GatewayToStringStyler;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * {@code ResponseCache} route filter: answers GET requests from the {@link ResponseCache} and
+ * fetches each missing key once, however many requests ask for it at the same time.
+ * <p>
+ * Meant for public, read-mostly routes such as the whitelisted config and catalog paths. The key
+ * is the route, the path and query, and the {@code key-headers} (e.g. {@code Accept-Language});
+ * a response that {@code Vary}s on any other header is never kept. {@code ttl} applies when the
+ * upstream sends no {@code max-age}. Filters placed after this one only run on a miss.
+ */
+@Component
+public class ResponseCacheGatewayFilterFactory extends AbstractGatewayFilterFactory<ResponseCacheGatewayFilterFactory.Config> {
+
+    private final ResponseCache responseCache;
+
+    public ResponseCacheGatewayFilterFactory(ResponseCache responseCache) {
+        super(Config.class);
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return List.of("ttl");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        List<String> keyHeaders = List.copyOf(config.getKeyHeaders());
+        Duration ttl = config.getTtl();
+        return new GatewayFilter() {
+            @Override
+            public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+                ServerHttpRequest request = exchange.getRequest();
+                if (request.getMethod() != HttpMethod.GET) {
+                    return chain.filter(exchange);
+                }
+                ResponseCache.Key key = key(exchange, keyHeaders);
+                ResponseCache.Entry cached = responseCache.get(key);
+                if (cached != null) {
+                    responseCache.record(ResponseCache.Result.HIT);
+                    return write(exchange.getResponse(), cached);
+                }
+                ResponseCache.Flight flight = responseCache.begin(key);
+                if (!flight.isLeader()) {
+                    responseCache.record(ResponseCache.Result.COALESCED);
+                    return flight.result()
+                            .map(Optional::of)
+                            .defaultIfEmpty(Optional.empty())
+                            .flatMap(entry -> entry.isPresent()
+                                    ? write(exchange.getResponse(), entry.get())
+                                    : chain.filter(exchange));
+                }
+                responseCache.record(ResponseCache.Result.MISS);
+                boolean authorized = request.getHeaders().containsKey(HttpHeaders.AUTHORIZATION)
+                        || request.getCookies().containsKey("jwt");
+                ServerHttpResponse response = new CapturingResponse(exchange, flight, keyHeaders, ttl, authorized);
+                return chain.filter(exchange.mutate().response(response).build())
+                        .doFinally(signal -> flight.abandon());
+            }
+
+            @Override
+            public String toString() {
+                return GatewayToStringStyler.filterToStringCreator(ResponseCacheGatewayFilterFactory.this)
+                        .append("keyHeaders", keyHeaders)
+                        .append("ttl", ttl)
+                        .toString();
+            }
+        };
+    }
+
+    private static ResponseCache.Key key(ServerWebExchange exchange, List<String> keyHeaders) {
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        ServerHttpRequest request = exchange.getRequest();
+        String query = request.getURI().getRawQuery();
+        String uri = query == null ? request.getURI().getRawPath() : request.getURI().getRawPath() + '?' + query;
+        String variant = "";
+        if (!keyHeaders.isEmpty()) {
+            StringBuilder builder = new StringBuilder();
+            for (String name : keyHeaders) {
+                List<String> values = request.getHeaders().get(name);
+                builder.append(values == null ? "" : String.join(",", values)).append('\n');
+            }
+            variant = builder.toString();
+        }
+        return new ResponseCache.Key(route == null ? "" : route.getId(), uri, variant);
+    }
+
+    private Mono<Void> write(ServerHttpResponse response, ResponseCache.Entry entry) {
+        response.setStatusCode(HttpStatusCode.valueOf(entry.status()));
+        HttpHeaders headers = response.getHeaders();
+        headers.putAll(entry.headers());
+        headers.setContentLength(entry.body().length);
+        headers.set(HttpHeaders.AGE, Long.toString(responseCache.ageSeconds(entry)));
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(entry.body())));
+    }
+
+    /**
+     * Copies the upstream body as it is written to the client, and keeps it once it is complete.
+     */
+    private class CapturingResponse extends ServerHttpResponseDecorator {
+
+        private final ServerWebExchange exchange;
+        private final ResponseCache.Flight flight;
+        private final List<String> keyHeaders;
+        private final Duration ttl;
+        private final boolean authorized;
+
+        CapturingResponse(ServerWebExchange exchange, ResponseCache.Flight flight, List<String> keyHeaders,
+                          Duration ttl, boolean authorized) {
+            super(exchange.getResponse());
+            this.exchange = exchange;
+            this.flight = flight;
+            this.keyHeaders = keyHeaders;
+            this.ttl = ttl;
+            this.authorized = authorized;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            // the upstream's own headers, the response also holds the ones the gateway added for this client
+            HttpClientResponse upstreamResponse = exchange.getAttribute(CLIENT_RESPONSE_ATTR);
+            if (upstreamResponse == null) {
+                flight.abandon();
+                return super.writeWith(body);
+            }
+            int status = upstreamResponse.status().code();
+            HttpHeaders upstream = new HttpHeaders();
+            upstreamResponse.responseHeaders().forEach(header -> upstream.add(header.getKey(), header.getValue()));
+            Duration freshness = responseCache.freshness(status, upstream, keyHeaders, ttl, authorized);
+            if (freshness == null) {
+                flight.abandon();
+                return super.writeWith(body);
+            }
+            long limit = responseCache.getMaximumEntrySize();
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            long[] written = new long[1];
+            return super.writeWith(Flux.from(body)
+                    .doOnNext(buffer -> {
+                        int length = buffer.readableByteCount();
+                        written[0] += length;
+                        if (written[0] > limit) {
+                            flight.abandon();
+                            return;
+                        }
+                        byte[] bytes = new byte[length];
+                        int position = buffer.readPosition();
+                        buffer.read(bytes);
+                        buffer.readPosition(position);
+                        copy.writeBytes(bytes);
+                    })
+                    .doOnComplete(() -> flight.complete(status, upstream, copy.toByteArray(), freshness)));
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+            // a streamed response is not kept
+            flight.abandon();
+            return super.writeAndFlushWith(body);
+        }
+    }
+
+    @Data
+    public static class Config {
+
+        /**
+         * Request headers whose values are part of the key.
+         */
+        private List<String> keyHeaders = List.of();
+
+        /**
+         * Freshness when the upstream sends no {@code max-age}, {@code response-cache.default-ttl} when unset.
+         */
+        private Duration ttl;
+    }
+}
@@ -0,0 +1,178 @@
+package com.shun.gateway.filter;
+
+import com.shun.gateway.config.UpstreamPoolProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.cloud.gateway.config.HttpClientCustomizer;
+import org.springframework.cloud.gateway.config.HttpClientFactory;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.config.HttpClientSslConfigurer;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.RouteMetadataUtils.CONNECT_TIMEOUT_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * Sends the routes named under {@code upstream-pools.routes} through connection pools of their
+ * own, optionally over cleartext HTTP/2, just before the gateway's {@link NettyRoutingFilter}
+ * would have sent them through the shared {@code spring.cloud.gateway.httpclient} pool.
+ * <p>
+ * A busy or slow service then only exhausts its own connections, and an h2c pool multiplexes
+ * its requests over a few connections instead of holding one per request in flight. Each pool
+ * publishes Reactor Netty's connection gauges ({@code reactor.netty.connection.provider.*},
+ * tagged with the pool name as {@code name}) and {@code gateway.upstream.acquire}, the time from
+ * sending a request until it got a connection or stream. Every other route is left to the
+ * gateway's filter. A filter that rewrites the route to one instance of its service, as
+ * {@link HedgeGatewayFilterFactory} does, keeps the original under {@link #POOL_ROUTE_ATTR} so the
+ * request still goes through the service's pool.
+ */
+@Slf4j
+@Component
+public class RouteScopedRoutingFilter extends NettyRoutingFilter implements DisposableBean {
+
+    /**
+     * The route whose pool serves the request, when it differs from {@code GATEWAY_ROUTE_ATTR}.
+     */
+    public static final String POOL_ROUTE_ATTR = RouteScopedRoutingFilter.class.getName() + ".poolRoute";
+
+    private static final String ACQUIRE_STARTED = RouteScopedRoutingFilter.class.getName() + ".acquireStarted";
+
+    private final Map<String, Pool> pools = new HashMap<>();
+
+    public RouteScopedRoutingFilter(HttpClient httpClient, ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider,
+                                    HttpClientProperties properties, ServerProperties serverProperties,
+                                    HttpClientSslConfigurer sslConfigurer, List<HttpClientCustomizer> customizers,
+                                    UpstreamPoolProperties poolProperties, MeterRegistry meterRegistry) {
+        super(httpClient, headersFiltersProvider, properties);
+        poolProperties.getRoutes().forEach((name, settings) -> {
+            Timer acquire = Timer.builder("gateway.upstream.acquire")
+                    .description("Time from sending an upstream request until it got a connection or stream")
+                    .tag("pool", name)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            PoolClientFactory factory = new PoolClientFactory(name, settings, properties, serverProperties,
+                    sslConfigurer, customizers);
+            HttpClient client = factory.build()
+                    .protocol(settings.getProtocols().toArray(new HttpProtocol[0]))
+                    .doOnRequest((request, connection) -> {
+                        Long started = request.currentContextView().getOrDefault(ACQUIRE_STARTED, null);
+                        if (started != null) {
+                            acquire.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                        }
+                    });
+            pools.put(name, new Pool(client, factory.provider));
+            log.info("Upstream pool {}: {}, {} connections", name, settings.getProtocols(), settings.getMaxConnections());
+        });
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        if (route == null || poolOf(exchange, route) == null
+                || "websocket".equalsIgnoreCase(exchange.getRequest().getHeaders().getUpgrade())) {
+            // WebsocketRoutingFilter shares this order, a websocket upgrade is left to it whichever runs first
+            return chain.filter(exchange);
+        }
+        // read back by the pool's doOnRequest, evaluated when the request is subscribed
+        return super.filter(exchange, chain).contextWrite(context -> context.put(ACQUIRE_STARTED, System.nanoTime()));
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER - 1;
+    }
+
+    /**
+     * Only called for routes with a pool, {@link #filter} passes the others on.
+     */
+    @Override
+    protected HttpClient getHttpClient(Route route, ServerWebExchange exchange) {
+        Pool pool = poolOf(exchange, route);
+        Object connectTimeout = route.getMetadata().get(CONNECT_TIMEOUT_ATTR);
+        if (connectTimeout != null) {
+            int millis = connectTimeout instanceof Number number ? number.intValue() : Integer.parseInt(connectTimeout.toString());
+            return pool.client.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, millis);
+        }
+        return pool.client;
+    }
+
+    private Pool poolOf(ServerWebExchange exchange, Route route) {
+        Route pooled = exchange.getAttribute(POOL_ROUTE_ATTR);
+        return poolOf(pooled != null ? pooled : route);
+    }
+
+    /**
+     * @return the pool named after the route, failing that after the service of an {@code lb://} route
+     */
+    Pool poolOf(Route route) {
+        if (pools.isEmpty()) {
+            return null;
+        }
+        Pool pool = pools.get(route.getId());
+        if (pool == null && "lb".equals(route.getUri().getScheme()) && route.getUri().getHost() != null) {
+            pool = pools.get(route.getUri().getHost());
+        }
+        return pool;
+    }
+
+    @Override
+    public void destroy() {
+        pools.values().forEach(pool -> pool.provider.dispose());
+    }
+
+    record Pool(HttpClient client, ConnectionProvider provider) {
+    }
+
+    /**
+     * Applies {@code spring.cloud.gateway.httpclient} like the shared client, except for the pool.
+     */
+    private static final class PoolClientFactory extends HttpClientFactory {
+
+        private final String name;
+        private final UpstreamPoolProperties.Pool settings;
+        private ConnectionProvider provider;
+
+        PoolClientFactory(String name, UpstreamPoolProperties.Pool settings, HttpClientProperties properties,
+                          ServerProperties serverProperties, HttpClientSslConfigurer sslConfigurer,
+                          List<HttpClientCustomizer> customizers) {
+            super(properties, serverProperties, sslConfigurer, customizers);
+            this.name = name;
+            this.settings = settings;
+        }
+
+        HttpClient build() {
+            return createInstance();
+        }
+
+        @Override
+        protected ConnectionProvider buildConnectionProvider(HttpClientProperties properties) {
+            provider = ConnectionProvider.builder(name)
+                    .maxConnections(settings.getMaxConnections())
+                    .pendingAcquireMaxCount(settings.getPendingAcquireMaxCount())
+                    .pendingAcquireTimeout(settings.getPendingAcquireTimeout())
+                    .maxIdleTime(settings.getMaxIdleTime())
+                    .metrics(true)
+                    .build();
+            return provider;
+        }
+    }
+}
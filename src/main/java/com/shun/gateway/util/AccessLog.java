@@ -0,0 +1,470 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.AccessLogProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log written off the event loop: the request's thread copies a few references and
+ * numbers into a preallocated slot of a bounded ring and returns, a single background thread
+ * turns the slots into JSON lines and appends them to the file a batch per system call.
+ * <p>
+ * The ring is a multi-producer, single-consumer array of slots, each with a sequence number
+ * that says whose turn it is (Vyukov's bounded queue): a producer claims a position with one
+ * CAS on the tail and publishes the filled slot by advancing its sequence, the writer reads
+ * slots in order until it meets one that is not published yet. Nothing locks and nothing is
+ * allocated per record. The writer sleeps {@code flush-interval} when it finds less than a batch
+ * and is woken early each time a quarter of the ring has been filled; when it falls behind all
+ * the same and the ring is full, the record is dropped and counted instead of making the
+ * request wait.
+ * <p>
+ * The file rolls over at {@code max-file-size} to {@code <path>.1}, the older ones shifting up
+ * to {@code <path>.<max-history>}. {@code gateway.access.log.written} and
+ * {@code gateway.access.log.dropped} count the records.
+ */
+@Slf4j
+@Component
+public class AccessLog {
+
+    /**
+     * How a request ended, as seen by the access log filter.
+     */
+    public enum Outcome {
+        COMPLETED,
+        ERROR,
+        CANCELLED
+    }
+
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(Slot.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final AccessLogProperties properties;
+    private final Counter written;
+    private final Counter dropped;
+    private final Path path;
+    private final Slot[] slots;
+    private final int mask;
+    private final int wakeMask;
+    private final AtomicLong tail = new AtomicLong();
+    private final long sampleThreshold;
+    private final long slowNanos;
+
+    // the writer's own, see drain()
+    private long head;
+    private final JsonLines out = new JsonLines();
+    private FileChannel channel;
+    private long fileSize;
+
+    private volatile boolean running;
+    private volatile Thread writer;
+
+    public AccessLog(AccessLogProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.path = Paths.get(properties.getPath());
+        int capacity = Integer.highestOneBit(Math.max(2, properties.getBufferSize() - 1)) << 1;
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = capacity - 1;
+        this.wakeMask = Math.max(1, capacity / 4) - 1;
+        double sampleRate = Math.min(1, Math.max(0, properties.getSampleRate()));
+        this.sampleThreshold = (long) (sampleRate * (1L << 32));
+        this.slowNanos = properties.getSlowThreshold().toNanos();
+        this.written = Counter.builder("gateway.access.log.written")
+                .description("Access log records appended to the file")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("gateway.access.log.dropped")
+                .description("Access log records lost because the buffer was full or the file could not be written")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes what is buffered and closes the file.
+     */
+    @PreDestroy
+    public void stop() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(properties.getFlushInterval().toMillis() + 5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Buffers a record of a finished request unless sampling leaves it out.
+     *
+     * @param status the response status, 0 when none was set
+     * @return whether the record was buffered
+     */
+    public boolean record(long startedAt, long elapsedNanos, String traceId, HttpMethod method, String path,
+                          String routeId, int status, Outcome outcome, String userId, TokenVerdict verdict) {
+        if (status < 400 && outcome == Outcome.COMPLETED && elapsedNanos < slowNanos && !sampled(traceId)) {
+            return false;
+        }
+        long position;
+        Slot slot;
+        while (true) {
+            position = tail.get();
+            slot = slots[(int) position & mask];
+            long sequence = (long) SEQUENCE.getAcquire(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                dropped.increment();
+                return false;
+            }
+        }
+        slot.startedAt = startedAt;
+        slot.elapsedNanos = elapsedNanos;
+        slot.traceId = traceId;
+        slot.method = method;
+        slot.path = path;
+        slot.routeId = routeId;
+        slot.status = status;
+        slot.outcome = outcome;
+        slot.userId = userId;
+        slot.verdict = verdict;
+        SEQUENCE.setRelease(slot, position + 1);
+        // every quarter of the ring, so a burst cannot fill it while the writer sleeps
+        if ((position & wakeMask) == wakeMask) {
+            Thread sleeping = writer;
+            if (sleeping != null) {
+                LockSupport.unpark(sleeping);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether {@code traceId} is among the sampled share of the traces
+     */
+    boolean sampled(String traceId) {
+        if (sampleThreshold >= 1L << 32) {
+            return true;
+        }
+        if (traceId == null) {
+            return false;
+        }
+        // murmur3's finalizer spreads the string hash over all 32 bits
+        int h = traceId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0xffffffffL) < sampleThreshold;
+    }
+
+    private void writeLoop() {
+        long idleNanos = properties.getFlushInterval().toNanos();
+        int batchSize = Math.max(1, properties.getBatchSize());
+        while (true) {
+            boolean stopping = !running;
+            int drained = drain(batchSize);
+            if (drained > 0) {
+                write(drained);
+            }
+            if (drained < batchSize) {
+                if (stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(this, idleNanos);
+            }
+        }
+        closeQuietly();
+    }
+
+    /**
+     * Encodes up to {@code max} published records, freeing their slots for the producers.
+     *
+     * @return the records drained
+     */
+    int drain(int max) {
+        out.reset();
+        int drained = 0;
+        while (drained < max) {
+            Slot slot = slots[(int) head & mask];
+            if ((long) SEQUENCE.getAcquire(slot) != head + 1) {
+                break;
+            }
+            out.append(slot);
+            slot.clear();
+            SEQUENCE.setRelease(slot, head + slots.length);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    private void write(int records) {
+        try {
+            if (channel == null) {
+                open();
+            } else if (fileSize > 0 && fileSize + out.size() > properties.getMaxFileSize().toBytes()) {
+                rollOver();
+            }
+            ByteBuffer buffer = out.buffer();
+            while (buffer.hasRemaining()) {
+                fileSize += channel.write(buffer);
+            }
+            written.increment(records);
+        } catch (IOException e) {
+            dropped.increment(records);
+            log.warn("Failed to write the access log {}: {}", path, e.toString());
+            closeQuietly();
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    private void rollOver() throws IOException {
+        closeQuietly();
+        int history = properties.getMaxHistory();
+        if (history <= 0) {
+            Files.deleteIfExists(path);
+        } else {
+            Files.deleteIfExists(rolled(history));
+            for (int i = history - 1; i >= 1; i--) {
+                Path older = rolled(i);
+                if (Files.exists(older)) {
+                    Files.move(older, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    private Path rolled(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private void closeQuietly() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the access log {}: {}", path, e.toString());
+            }
+            channel = null;
+        }
+    }
+
+    private static final class Slot {
+
+        @SuppressWarnings("unused") // through SEQUENCE
+        private volatile long sequence;
+
+        long startedAt;
+        long elapsedNanos;
+        String traceId;
+        HttpMethod method;
+        String path;
+        String routeId;
+        int status;
+        Outcome outcome;
+        String userId;
+        TokenVerdict verdict;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        void clear() {
+            traceId = null;
+            method = null;
+            path = null;
+            routeId = null;
+            userId = null;
+            verdict = null;
+        }
+    }
+
+    /**
+     * A batch of records as JSON lines in one growing array, reused for every batch.
+     */
+    private static final class JsonLines {
+
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private static final String[] OUTCOMES = Arrays.stream(Outcome.values())
+                .map(outcome -> outcome.name().toLowerCase(Locale.ROOT)).toArray(String[]::new);
+        private static final String[] VERDICTS = Arrays.stream(TokenVerdict.values())
+                .map(verdict -> verdict.name().toLowerCase(Locale.ROOT)).toArray(String[]::new);
+
+        private byte[] bytes = new byte[1 << 16];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+
+        void append(Slot slot) {
+            ascii("{\"time\":");
+            number(slot.startedAt);
+            field("traceId", slot.traceId);
+            field("method", slot.method == null ? null : slot.method.name());
+            field("path", slot.path);
+            field("route", slot.routeId);
+            if (slot.status > 0) {
+                ascii(",\"status\":");
+                number(slot.status);
+            }
+            field("outcome", OUTCOMES[slot.outcome.ordinal()]);
+            ascii(",\"micros\":");
+            number(slot.elapsedNanos / 1000);
+            field("user", slot.userId);
+            field("verdict", slot.verdict == null ? null : VERDICTS[slot.verdict.ordinal()]);
+            ascii("}\n");
+        }
+
+        // left out when null
+        private void field(String name, String value) {
+            if (value == null) {
+                return;
+            }
+            ensure(name.length() + 4);
+            bytes[size++] = ',';
+            bytes[size++] = '"';
+            ascii(name);
+            ensure(2);
+            bytes[size++] = '"';
+            bytes[size++] = ':';
+            string(value);
+        }
+
+        private void string(String value) {
+            ensure(value.length() * 6 + 2);
+            bytes[size++] = '"';
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    bytes[size++] = '\\';
+                    bytes[size++] = (byte) c;
+                } else if (c < 0x20) {
+                    bytes[size++] = '\\';
+                    bytes[size++] = 'u';
+                    bytes[size++] = '0';
+                    bytes[size++] = '0';
+                    bytes[size++] = HEX[c >> 4];
+                    bytes[size++] = HEX[c & 0xf];
+                } else if (c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[size++] = (byte) (0xc0 | c >> 6);
+                    bytes[size++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    bytes[size++] = (byte) (0xf0 | codePoint >> 18);
+                    bytes[size++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    bytes[size++] = (byte) (0x80 | codePoint & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    bytes[size++] = '?';
+                } else {
+                    bytes[size++] = (byte) (0xe0 | c >> 12);
+                    bytes[size++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    bytes[size++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+            bytes[size++] = '"';
+        }
+
+        private void ascii(String value) {
+            ensure(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                bytes[size++] = (byte) value.charAt(i);
+            }
+        }
+
+        private void number(long value) {
+            ensure(20);
+            if (value < 0) {
+                bytes[size++] = '-';
+                value = -value;
+            }
+            int start = size;
+            do {
+                bytes[size++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            for (int i = start, j = size - 1; i < j; i++, j--) {
+                byte digit = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = digit;
+            }
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+    }
+}
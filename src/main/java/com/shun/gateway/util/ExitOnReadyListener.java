@@ -0,0 +1,28 @@
+package com.shun.gateway.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exits as soon as the gateway is ready when {@code startup.exit-on-ready} is set, so a training
+ * run can leave a class data sharing archive behind ({@code -XX:ArchiveClassesAtExit}).
+ * <p>
+ * The property is read when the event arrives rather than through a condition, an AOT-processed
+ * build keeps the listener whatever the properties were at build time.
+ */
+@Slf4j
+@Component
+public class ExitOnReadyListener implements ApplicationListener<ApplicationReadyEvent> {
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!event.getApplicationContext().getEnvironment().getProperty("startup.exit-on-ready", Boolean.class, false)) {
+            return;
+        }
+        log.info("Ready in {} ms, exiting as asked by startup.exit-on-ready", event.getTimeTaken().toMillis());
+        System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+}
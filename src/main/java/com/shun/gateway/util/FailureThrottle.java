@@ -0,0 +1,131 @@
+package com.shun.gateway.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.shun.gateway.config.TokenPrecheckProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.support.ipresolver.RemoteAddressResolver;
+import org.springframework.cloud.gateway.support.ipresolver.XForwardedRemoteAddressResolver;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts rejected tokens per client IP over a sliding window, so a client that keeps sending
+ * bad tokens has its uncached ones answered with 401 instead of being verified. Tokens the
+ * verdict cache accepts still pass, a valid session behind the same address keeps working.
+ * <p>
+ * The window is approximated from two fixed buckets, the previous one weighted by how much of it
+ * the sliding window still covers. Clients are kept in memory up to
+ * {@code token-precheck.throttle.maximum-clients}; {@code gateway.token.throttled} counts the
+ * requests turned away.
+ */
+@Slf4j
+@Component
+public class FailureThrottle {
+
+    private final boolean enabled;
+    private final int maxFailures;
+    private final long windowNanos;
+    private final RemoteAddressResolver addressResolver;
+    private final LongSupplier nanoClock;
+    private final Cache<InetAddress, Window> clients;
+    private final Counter throttled;
+
+    @Autowired
+    public FailureThrottle(TokenPrecheckProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, System::nanoTime);
+    }
+
+    FailureThrottle(TokenPrecheckProperties properties, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        TokenPrecheckProperties.Throttle throttle = properties.getThrottle();
+        this.enabled = throttle.isEnabled();
+        this.maxFailures = throttle.getMaxFailures();
+        this.windowNanos = throttle.getWindow().toNanos();
+        this.addressResolver = throttle.getTrustedProxies() > 0
+                ? XForwardedRemoteAddressResolver.maxTrustedIndex(throttle.getTrustedProxies())
+                : new RemoteAddressResolver() {
+                };
+        if (enabled && throttle.getTrustedProxies() <= 0) {
+            log.warn("Token failure throttle keys on the connection address, behind a proxy all clients share one; "
+                    + "set token-precheck.throttle.trusted-proxies");
+        }
+        this.nanoClock = nanoClock;
+        this.clients = CacheBuilder.newBuilder()
+                .maximumSize(throttle.getMaximumClients())
+                .expireAfterAccess(throttle.getWindow().multipliedBy(2))
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .build();
+        this.throttled = Counter.builder("gateway.token.throttled")
+                .description("Uncached tokens answered with 401 unverified because their client sent too many bad ones")
+                .register(meterRegistry);
+        meterRegistry.gauge("gateway.token.throttle.clients", clients, Cache::size);
+    }
+
+    /**
+     * @return whether the client of this exchange sent too many bad tokens lately
+     */
+    public boolean isThrottled(ServerWebExchange exchange) {
+        if (!enabled) {
+            return false;
+        }
+        InetAddress client = clientOf(exchange);
+        Window window = client == null ? null : clients.getIfPresent(client);
+        if (window == null || window.failures(nanoClock.getAsLong(), windowNanos) < maxFailures) {
+            return false;
+        }
+        throttled.increment();
+        return true;
+    }
+
+    /**
+     * Counts a rejected token against the client of this exchange.
+     */
+    public void failed(ServerWebExchange exchange) {
+        if (!enabled) {
+            return;
+        }
+        InetAddress client = clientOf(exchange);
+        if (client != null) {
+            clients.asMap().computeIfAbsent(client, address -> new Window()).add(nanoClock.getAsLong(), windowNanos);
+        }
+    }
+
+    private InetAddress clientOf(ServerWebExchange exchange) {
+        InetSocketAddress address = addressResolver.resolve(exchange);
+        return address == null ? null : address.getAddress();
+    }
+
+    private static final class Window {
+
+        private long bucket = Long.MIN_VALUE;
+        private int current;
+        private int previous;
+
+        synchronized void add(long now, long windowNanos) {
+            roll(now, windowNanos);
+            current++;
+        }
+
+        synchronized double failures(long now, long windowNanos) {
+            roll(now, windowNanos);
+            double covered = 1 - (double) Math.floorMod(now, windowNanos) / windowNanos;
+            return current + previous * covered;
+        }
+
+        private void roll(long now, long windowNanos) {
+            long bucket = Math.floorDiv(now, windowNanos);
+            if (bucket != this.bucket) {
+                previous = bucket == this.bucket + 1 ? current : 0;
+                current = 0;
+                this.bucket = bucket;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.BloomFilterProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Fixed ring of filter generations with an atomic head index. Readers never lock or copy:
+ * rotation writes the new generation into the oldest slot and then moves the head onto it.
+ * <p>
+ * Each new generation is sized from the inserts seen by the one it replaces, so memory follows
+ * traffic. If a generation fills up before its window ends it is rotated early, with twice the
+ * capacity, so the false positive rate stays under target during spikes. Early rotation runs on
+ * the given executor so the inserting thread never allocates the new generation. Scheduled
+ * rotations use {@link #rotateIfOlderThan(Duration)} so that the tick after an early rotation
+ * does not retire the generation that has just started.
+ */
+public final class GenerationRing<G> {
+
+    private final AtomicReferenceArray<Generation<G>> ring;
+    private final AtomicInteger head = new AtomicInteger();
+    private final LongFunction<G> factory;
+    private final BloomFilterProperties properties;
+    private final Executor rotationExecutor;
+
+    public GenerationRing(BloomFilterProperties properties, LongFunction<G> factory, Executor rotationExecutor) {
+        this.properties = properties;
+        this.factory = factory;
+        this.rotationExecutor = rotationExecutor;
+        this.ring = new AtomicReferenceArray<>(Math.max(1, properties.getGenerations()));
+        this.ring.set(0, newGeneration(properties.getMinInsertions(), System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the number of slots in the ring
+     */
+    public int capacity() {
+        return ring.length();
+    }
+
+    /**
+     * @param age 0 for the newest generation
+     * @return the generation, or {@code null} while the ring is still filling up
+     */
+    public Generation<G> get(int age) {
+        return ring.get((head.get() + age) % ring.length());
+    }
+
+    public Generation<G> current() {
+        return ring.get(head.get());
+    }
+
+    /**
+     * Counts one insert into the current generation, rotating early when it is full.
+     */
+    public void recordInsert() {
+        Generation<G> current = current();
+        if (current.inserts.incrementAndGet() == current.expectedInsertions) {
+            rotationExecutor.execute(() -> rotate(current, current.expectedInsertions * 2));
+        }
+    }
+
+    /**
+     * Starts a new generation sized from the inserts seen by the current one.
+     */
+    public void rotate() {
+        Generation<G> current = current();
+        rotate(current, (long) Math.ceil(current.inserts.get() * properties.getHeadroom()));
+    }
+
+    /**
+     * Like {@link #rotate()}, but keeps a current generation younger than {@code minAge}: it was
+     * started by an early rotation and is rotated by the next tick instead.
+     */
+    public void rotateIfOlderThan(Duration minAge) {
+        Generation<G> current = current();
+        if (System.currentTimeMillis() - current.createdAt < minAge.toMillis()) {
+            return;
+        }
+        rotate(current, (long) Math.ceil(current.inserts.get() * properties.getHeadroom()));
+    }
+
+    /**
+     * Registers {@code gateway.bloom.fill} (inserts over expected insertions) and
+     * {@code gateway.bloom.fpp} for every slot, tagged with the filter name and the generation age.
+     * Both read the ring at scrape time, slots still empty report 0.
+     */
+    public void bindTo(MeterRegistry registry, String name, ToDoubleFunction<G> fpp) {
+        for (int age = 0; age < ring.length(); age++) {
+            int slot = age;
+            Gauge.builder("gateway.bloom.fill", this, target -> {
+                        Generation<G> generation = target.get(slot);
+                        return generation == null ? 0 : (double) generation.inserts() / generation.expectedInsertions();
+                    })
+                    .description("Inserts into a Bloom generation over the inserts it was sized for")
+                    .tags("filter", name, "generation", Integer.toString(age))
+                    .register(registry);
+            Gauge.builder("gateway.bloom.fpp", this, target -> {
+                        Generation<G> generation = target.get(slot);
+                        return generation == null ? 0 : fpp.applyAsDouble(generation.filter());
+                    })
+                    .description("Estimated false positive probability of a Bloom generation")
+                    .tags("filter", name, "generation", Integer.toString(age))
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Pushes a generation restored from elsewhere (e.g. a snapshot) as the newest one, so
+     * generations must be restored oldest first.
+     */
+    public synchronized void restore(G filter, long expectedInsertions, long inserts, long createdAt) {
+        Generation<G> generation = new Generation<>(filter, expectedInsertions, createdAt);
+        generation.inserts.set(inserts);
+        int next = Math.floorMod(head.get() - 1, ring.length());
+        ring.set(next, generation);
+        head.set(next);
+    }
+
+    private synchronized void rotate(Generation<G> expected, long wanted) {
+        if (current() != expected) {
+            return;
+        }
+        long size = Math.max(properties.getMinInsertions(), Math.min(properties.getMaxInsertions(), wanted));
+        int next = Math.floorMod(head.get() - 1, ring.length());
+        ring.set(next, newGeneration(size, System.currentTimeMillis()));
+        head.set(next);
+    }
+
+    private Generation<G> newGeneration(long expectedInsertions, long createdAt) {
+        return new Generation<>(factory.apply(expectedInsertions), expectedInsertions, createdAt);
+    }
+
+    public static final class Generation<G> {
+        private final G filter;
+        private final long expectedInsertions;
+        private final long createdAt;
+        private final AtomicLong inserts = new AtomicLong();
+
+        Generation(G filter, long expectedInsertions, long createdAt) {
+            this.filter = filter;
+            this.expectedInsertions = expectedInsertions;
+            this.createdAt = createdAt;
+        }
+
+        public G filter() {
+            return filter;
+        }
+
+        public long expectedInsertions() {
+            return expectedInsertions;
+        }
+
+        public long createdAt() {
+            return createdAt;
+        }
+
+        public long inserts() {
+            return inserts.get();
+        }
+    }
+}
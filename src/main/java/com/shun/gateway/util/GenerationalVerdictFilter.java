@@ -0,0 +1,190 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.BloomFilterProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rotating Bloom filter that remembers one of PASSED/EXPIRED/STOPPED per token.
+ * <p>
+ * Unlike the rotating Bloom filters it replaced, which needed one prefixed key and one full hash
+ * per state, the token is hashed once into a {@link TokenDigest} and every state of every generation is
+ * probed from those 128 bits (Kirsch-Mitzenmacher double hashing, each state owning its own
+ * run of probe indexes). A lookup returns the strongest state found: STOPPED, then EXPIRED,
+ * then PASSED, otherwise UNKNOWN. Generations are kept in a {@link GenerationRing}.
+ */
+@Component
+public class GenerationalVerdictFilter implements MeterBinder {
+
+    private static final TokenVerdict[] LOOKUP_ORDER = {TokenVerdict.STOPPED, TokenVerdict.EXPIRED, TokenVerdict.PASSED};
+
+    private final GenerationRing<VerdictBits> generations;
+    private final ScheduledFuture<?> rotation;
+
+    /**
+     * Stand-alone filter with the default layout that only rotates when {@link #rotate()} is called.
+     */
+    public GenerationalVerdictFilter() {
+        this(new BloomFilterProperties(), null);
+    }
+
+    @Autowired
+    public GenerationalVerdictFilter(BloomFilterProperties properties, RotationScheduler scheduler) {
+        double fpp = properties.getFpp();
+        this.generations = new GenerationRing<>(properties, expectedInsertions -> new VerdictBits(expectedInsertions, fpp),
+                scheduler != null ? scheduler : Runnable::run);
+        // a tick less than half a window after an early rotation is skipped
+        Duration minAge = properties.getWindow().dividedBy(2);
+        this.rotation = scheduler != null
+                ? scheduler.scheduleAtFixedRate(() -> generations.rotateIfOlderThan(minAge), properties.getWindow())
+                : null;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (rotation != null) {
+            rotation.cancel(false);
+        }
+    }
+
+    /**
+     * Starts a new generation, dropping the oldest one once the ring is full.
+     */
+    public void rotate() {
+        generations.rotate();
+    }
+
+    public void put(TokenDigest digest, TokenVerdict verdict) {
+        if (verdict == TokenVerdict.UNKNOWN) {
+            return;
+        }
+        if (generations.current().filter().put(digest, verdict)) {
+            generations.recordInsert();
+        }
+    }
+
+    public TokenVerdict lookup(String token) {
+        return lookup(TokenDigest.of(token));
+    }
+
+    public TokenVerdict lookup(TokenDigest digest) {
+        int size = generations.capacity();
+        for (TokenVerdict verdict : LOOKUP_ORDER) {
+            for (int i = 0; i < size; i++) {
+                GenerationRing.Generation<VerdictBits> generation = generations.get(i);
+                if (generation != null && generation.filter().mightContain(digest, verdict)) {
+                    return verdict;
+                }
+            }
+        }
+        return TokenVerdict.UNKNOWN;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        generations.bindTo(registry, "verdict", VerdictBits::expectedFpp);
+    }
+
+    GenerationRing<VerdictBits> generations() {
+        return generations;
+    }
+
+    static final class VerdictBits {
+        private final AtomicLongArray bits;
+        private final long bitSize;
+        private final int numHashFunctions;
+
+        VerdictBits(long expectedInsertions, double fpp) {
+            long numBits = optimalNumOfBits(expectedInsertions, fpp);
+            this.bits = new AtomicLongArray(Math.toIntExact((numBits + 63) >>> 6));
+            this.bitSize = (long) bits.length() << 6;
+            this.numHashFunctions = optimalNumOfHashFunctions(expectedInsertions, numBits);
+        }
+
+        VerdictBits(long[] words, int numHashFunctions) {
+            this.bits = new AtomicLongArray(words);
+            this.bitSize = (long) words.length << 6;
+            this.numHashFunctions = numHashFunctions;
+        }
+
+        int numHashFunctions() {
+            return numHashFunctions;
+        }
+
+        int wordCount() {
+            return bits.length();
+        }
+
+        long word(int i) {
+            return bits.get(i);
+        }
+
+        /**
+         * @return whether any bit changed, i.e. the entry was not already present
+         */
+        boolean put(TokenDigest digest, TokenVerdict verdict) {
+            long hash1 = digest.low();
+            long hash2 = digest.high();
+            long combinedHash = hash1 + hash2 * (1L + (long) verdict.ordinal() * numHashFunctions);
+            boolean changed = false;
+            for (int i = 0; i < numHashFunctions; i++) {
+                changed |= setBit((combinedHash & Long.MAX_VALUE) % bitSize);
+                combinedHash += hash2;
+            }
+            return changed;
+        }
+
+        boolean mightContain(TokenDigest digest, TokenVerdict verdict) {
+            long hash1 = digest.low();
+            long hash2 = digest.high();
+            long combinedHash = hash1 + hash2 * (1L + (long) verdict.ordinal() * numHashFunctions);
+            for (int i = 0; i < numHashFunctions; i++) {
+                long index = (combinedHash & Long.MAX_VALUE) % bitSize;
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+                combinedHash += hash2;
+            }
+            return true;
+        }
+
+        /**
+         * @return the chance that a digest never put answers true, from the bits set so far
+         */
+        double expectedFpp() {
+            long set = 0;
+            for (int i = 0; i < bits.length(); i++) {
+                set += Long.bitCount(bits.get(i));
+            }
+            return Math.pow((double) set / bitSize, numHashFunctions);
+        }
+
+        private boolean setBit(long index) {
+            int longIndex = (int) (index >>> 6);
+            long mask = 1L << index;
+            long oldValue;
+            do {
+                oldValue = bits.get(longIndex);
+                if ((oldValue & mask) != 0) {
+                    return false;
+                }
+            } while (!bits.compareAndSet(longIndex, oldValue, oldValue | mask));
+            return true;
+        }
+
+        static long optimalNumOfBits(long n, double p) {
+            return (long) (-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        }
+
+        static int optimalNumOfHashFunctions(long n, long m) {
+            return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.shun.gateway.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * What the {@code Hedge} route filter remembers about each route, kept by route id so it
+ * survives a route refresh: how long the upstream takes to answer, the budget of extra
+ * requests, and the discovered instances.
+ * <p>
+ * The hedge delay is a percentile of the time from sending a request until its response
+ * headers arrived, taken from a log-linear histogram (12.5% wide buckets) over the last window
+ * of at least {@link #MIN_SAMPLES} requests. A request that lost to its hedge is counted with
+ * the time it had waited, which is already past the percentile, so the estimate is not skewed
+ * towards the fast answers.
+ * <p>
+ * The budget is a token bucket: each request adds {@code budget} of a token, up to
+ * {@link #BUDGET_BURST}, and each hedge or retry takes one, so extra requests stay below that
+ * fraction of the traffic even while the upstream is slow everywhere.
+ * <p>
+ * {@code gateway.hedge.requests} counts the requests the filter handled,
+ * {@code gateway.hedge.sent} the extra ones by reason, {@code gateway.hedge.won} those that
+ * answered first, {@code gateway.hedge.denied} those the budget refused and
+ * {@code gateway.hedge.delay} is the current delay, all tagged with the route.
+ */
+@Component
+public class Hedging {
+
+    /**
+     * Why a second request was sent.
+     */
+    public enum Reason {
+        DELAY,
+        ERROR
+    }
+
+    static final int MIN_SAMPLES = 20;
+    static final double BUDGET_BURST = 10;
+    static final Duration WINDOW = Duration.ofSeconds(10);
+    static final Duration INSTANCES_TTL = Duration.ofSeconds(1);
+
+    // budget in thousandths of a request
+    private static final long UNIT = 1000;
+    // values below 16µs get a bucket each, then 8 buckets per power of two up to 2^40µs
+    private static final int LINEAR = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = LINEAR + (40 - 4) * SUB_BUCKETS;
+
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public Hedging(MeterRegistry meterRegistry) {
+        this(meterRegistry, System::nanoTime);
+    }
+
+    Hedging(MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+    }
+
+    public long nanoTime() {
+        return nanoClock.getAsLong();
+    }
+
+    /**
+     * @return the state of {@code routeId}, now estimating {@code percentile} between the bounds
+     */
+    public RouteStats forRoute(String routeId, double percentile, Duration minDelay, Duration maxDelay) {
+        RouteStats stats = routes.computeIfAbsent(routeId, RouteStats::new);
+        stats.configure(percentile, minDelay.toNanos(), maxDelay.toNanos());
+        return stats;
+    }
+
+    static int bucket(long micros) {
+        if (micros < LINEAR) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int index = LINEAR + (exponent - 4) * SUB_BUCKETS + (int) ((micros >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+        return Math.min(BUCKETS - 1, index);
+    }
+
+    // the upper bound of a bucket, so the delay errs on the late side
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket + 1;
+        }
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - 3);
+    }
+
+    public final class RouteStats {
+
+        private final Counter requests;
+        private final Counter[] sent = new Counter[Reason.values().length];
+        private final Counter won;
+        private final Counter denied;
+        private final AtomicLong budget = new AtomicLong();
+        private final AtomicInteger next = new AtomicInteger();
+
+        private volatile double percentile;
+        private volatile long minDelayNanos;
+        private volatile long maxDelayNanos;
+        private volatile long delayNanos = -1;
+
+        private volatile AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final AtomicLong samples = new AtomicLong();
+        private volatile long windowStart = nanoClock.getAsLong();
+
+        private volatile List<ServiceInstance> instances;
+        private volatile long instancesFetchedAt;
+
+        private RouteStats(String routeId) {
+            this.requests = Counter.builder("gateway.hedge.requests")
+                    .description("Requests to hedged routes that were eligible for a second request")
+                    .tag("route", routeId)
+                    .register(meterRegistry);
+            for (Reason reason : Reason.values()) {
+                sent[reason.ordinal()] = Counter.builder("gateway.hedge.sent")
+                        .description("Second requests sent, after the hedge delay or after an error")
+                        .tag("route", routeId)
+                        .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                        .register(meterRegistry);
+            }
+            this.won = Counter.builder("gateway.hedge.won")
+                    .description("Second requests that answered before the first one")
+                    .tag("route", routeId)
+                    .register(meterRegistry);
+            this.denied = Counter.builder("gateway.hedge.denied")
+                    .description("Second requests not sent because the budget was used up")
+                    .tag("route", routeId)
+                    .register(meterRegistry);
+            Gauge.builder("gateway.hedge.delay", this, stats -> stats.getDelay().toNanos() / 1e9)
+                    .description("How long a request waits before it is hedged")
+                    .tag("route", routeId)
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+
+        private void configure(double percentile, long minDelayNanos, long maxDelayNanos) {
+            this.percentile = Math.min(100, Math.max(0, percentile));
+            this.minDelayNanos = minDelayNanos;
+            this.maxDelayNanos = Math.max(minDelayNanos, maxDelayNanos);
+        }
+
+        /**
+         * @return the percentile of the last window between the bounds, the upper one until there is an estimate
+         */
+        public Duration getDelay() {
+            long delay = delayNanos;
+            return Duration.ofNanos(delay < 0 ? maxDelayNanos : Math.min(maxDelayNanos, Math.max(minDelayNanos, delay)));
+        }
+
+        /**
+         * Counts a request and adds its share to the budget.
+         */
+        public void onRequest(double budgetRatio) {
+            requests.increment();
+            long deposit = (long) (budgetRatio * UNIT);
+            long cap = (long) (BUDGET_BURST * UNIT);
+            while (deposit > 0) {
+                long current = budget.get();
+                long updated = Math.min(cap, current + deposit);
+                if (updated == current || budget.compareAndSet(current, updated)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return whether the budget allows one more request, which is then counted as sent
+         */
+        public boolean trySend(Reason reason) {
+            while (true) {
+                long current = budget.get();
+                if (current < UNIT) {
+                    denied.increment();
+                    return false;
+                }
+                if (budget.compareAndSet(current, current - UNIT)) {
+                    sent[reason.ordinal()].increment();
+                    return true;
+                }
+            }
+        }
+
+        public void onWon() {
+            won.increment();
+        }
+
+        /**
+         * @return the position of the next request in the round over the instances
+         */
+        public int nextIndex() {
+            return next.getAndIncrement();
+        }
+
+        /**
+         * @return the instances fetched less than {@link #INSTANCES_TTL} ago, or {@code null}
+         */
+        public List<ServiceInstance> getInstances() {
+            List<ServiceInstance> cached = instances;
+            return cached != null && nanoClock.getAsLong() - instancesFetchedAt < INSTANCES_TTL.toNanos() ? cached : null;
+        }
+
+        public void setInstances(List<ServiceInstance> instances) {
+            this.instancesFetchedAt = nanoClock.getAsLong();
+            this.instances = instances;
+        }
+
+        /**
+         * Records how long a first request waited for its response headers, or until it lost.
+         */
+        public void record(long nanos) {
+            histogram.incrementAndGet(bucket(nanos / 1000));
+            long count = samples.incrementAndGet();
+            long now = nanoClock.getAsLong();
+            if (count >= MIN_SAMPLES && now - windowStart >= WINDOW.toNanos()) {
+                rotate(now);
+            }
+        }
+
+        private synchronized void rotate(long now) {
+            if (now - windowStart < WINDOW.toNanos()) {
+                return;
+            }
+            AtomicLongArray finished = histogram;
+            histogram = new AtomicLongArray(BUCKETS);
+            samples.set(0);
+            windowStart = now;
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += finished.get(i);
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += finished.get(i);
+                if (seen >= rank) {
+                    delayNanos = upperBound(i) * 1000;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.shun.gateway.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.CachingRouteLocator;
+import org.springframework.cloud.gateway.route.CompositeRouteLocator;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinitionRouteLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_PREDICATE_ROUTE_ATTR;
+
+/**
+ * {@link RoutePredicateHandlerMapping} that evaluates the predicates of the {@link RouteIndex}
+ * candidates only, instead of every route in turn.
+ * <p>
+ * The index is rebuilt after each successful route refresh, which the discovery locator triggers
+ * whenever Nacos instances change; until it is, and with {@code route-index.enabled=false}, routes
+ * are looked up as before. Routes of locators other than the route definition one (Java
+ * DSL routes) may OR or negate their predicates and are never filed.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "route-index.enabled", matchIfMissing = true)
+public class IndexedRoutePredicateHandlerMapping extends RoutePredicateHandlerMapping {
+
+    // a refresh that replaced no route leaves the same Route objects, accepted once this has passed
+    private static final long SETTLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RouteLocator routeLocator;
+    private final List<RouteLocator> opaqueLocators;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final AtomicLong refreshes = new AtomicLong(1);
+
+    private volatile RouteIndex index;
+    private volatile long indexedRefreshes;
+    private volatile long refreshedAt = System.nanoTime();
+
+    public IndexedRoutePredicateHandlerMapping(FilteringWebHandler webHandler, RouteLocator routeLocator,
+                                               List<RouteLocator> locators, GlobalCorsProperties globalCorsProperties,
+                                               Environment environment) {
+        super(webHandler, routeLocator, globalCorsProperties, environment);
+        this.routeLocator = routeLocator;
+        this.opaqueLocators = locators.stream()
+                .filter(locator -> !(locator instanceof RouteDefinitionRouteLocator
+                        || locator instanceof CachingRouteLocator || locator instanceof CompositeRouteLocator))
+                .toList();
+    }
+
+    /**
+     * CachingRouteLocator publishes the event before it stores the refreshed routes, so they are
+     * only read by a later lookup.
+     */
+    @EventListener
+    public void onRoutesRefreshed(RefreshRoutesResultEvent event) {
+        if (event.isSuccess()) {
+            refreshedAt = System.nanoTime();
+            refreshes.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected Mono<Route> lookupRoute(ServerWebExchange exchange) {
+        if (indexedRefreshes != refreshes.get()) {
+            rebuild();
+            return super.lookupRoute(exchange);
+        }
+        Route[] candidates = index.candidates(exchange.getRequest().getPath().pathWithinApplication(), hostName(exchange));
+        // the same evaluation as RoutePredicateHandlerMapping, over the candidates
+        return Flux.fromArray(candidates)
+                .concatMap(route -> Mono.just(route)
+                        .filterWhen(r -> {
+                            exchange.getAttributes().put(GATEWAY_PREDICATE_ROUTE_ATTR, r.getId());
+                            return r.getPredicate().apply(exchange);
+                        })
+                        .doOnError(e -> log.error("Error applying predicate for route: {}", route.getId(), e))
+                        .onErrorResume(e -> Mono.empty()))
+                .next()
+                .map(route -> {
+                    log.debug("Route matched: {}", route.getId());
+                    validateRoute(route, exchange);
+                    return route;
+                });
+    }
+
+    /**
+     * Reads the routes and replaces the index, at most one at a time; lookups walk every route
+     * until it is done.
+     */
+    private void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        long covered = refreshes.get();
+        long since = refreshedAt;
+        Mono.zip(routeLocator.getRoutes().collectList(), opaqueIds())
+                .doFinally(signal -> rebuilding.set(false))
+                .subscribe(routes -> install(routes.getT1(), routes.getT2(), covered, since),
+                        e -> log.error("Keeping the previous route index, reading the refreshed routes failed", e));
+    }
+
+    private void install(List<Route> routes, Set<String> opaqueIds, long covered, long since) {
+        RouteIndex current = index;
+        if (current != null && current.isBuiltFrom(routes) && System.nanoTime() - since < SETTLE_NANOS) {
+            // still the routes from before the refresh
+            return;
+        }
+        RouteIndex rebuilt = RouteIndex.build(routes, opaqueIds);
+        this.index = rebuilt;
+        this.indexedRefreshes = covered;
+        if (log.isDebugEnabled()) {
+            int[] counts = rebuilt.counts();
+            log.debug("Indexed {} routes, {} by path, {} by host, {} for every request",
+                    rebuilt.size(), counts[0], counts[1], counts[2]);
+        }
+    }
+
+    private Mono<Set<String>> opaqueIds() {
+        if (opaqueLocators.isEmpty()) {
+            return Mono.just(Set.of());
+        }
+        return Flux.fromIterable(opaqueLocators)
+                .concatMap(RouteLocator::getRoutes)
+                .map(Route::getId)
+                .collect(HashSet::new, Set::add);
+    }
+
+    /**
+     * @return the host name the {@code Host} predicate matches against, {@code null} when the
+     * header is missing or unreadable and no {@code Host} predicate can match
+     */
+    private static String hostName(ServerWebExchange exchange) {
+        try {
+            InetSocketAddress host = exchange.getRequest().getHeaders().getHost();
+            return host == null ? null : host.getHostName();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.shun.gateway.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.shun.gateway.config.RateLimiterProperties;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.ratelimit.AbstractRateLimiter;
+import org.springframework.cloud.gateway.filter.ratelimit.RedisRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Rate limiter that answers from memory and only talks to Redis in the background.
+ * <p>
+ * Each key has a GCRA bucket in Redis that refills {@code replenishRate} permits per second up to
+ * {@code burstCapacity}. A replica leases permits from it a batch at a time and hands them out
+ * from memory, asking for the next batch while it still holds half of the current one; a request
+ * that finds no permits while a lease is out waits for it. Leased permits are dropped once Redis
+ * could have refilled the whole burst, so no more than {@code burstCapacity + replenishRate * t}
+ * pass in any {@code t} seconds across all replicas. While Redis is unavailable every replica
+ * refills its own bucket at the full rate.
+ * <p>
+ * Responses carry the same {@code X-RateLimit-*} headers as {@link RedisRateLimiter}, switched
+ * off by the same {@code spring.cloud.gateway.redis-rate-limiter.include-headers}. The remaining
+ * count is what this replica still holds for the key, not what is left in Redis.
+ */
+@Slf4j
+@Primary
+@Component
+public class LeasedRateLimiter extends AbstractRateLimiter<LeasedRateLimiter.Config> {
+
+    public static final String CONFIGURATION_PROPERTY_NAME = "leased-rate-limiter";
+
+    private static final Response ALLOWED = new Response(true, Map.of());
+    private static final Response DENIED = new Response(false, Map.of());
+
+    /**
+     * Grants up to ARGV[3] permits from a GCRA bucket of ARGV[1] permits per second and a burst of
+     * ARGV[2], kept as its theoretical arrival time in milliseconds of Redis time. Returns the
+     * permits granted and how many are still free after the grant.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final RedisScript<List<Long>> LEASE_SCRIPT = (RedisScript) RedisScript.of("""
+            redis.replicate_commands()
+            local rate = tonumber(ARGV[1])
+            local burst = tonumber(ARGV[2])
+            local requested = tonumber(ARGV[3])
+            local interval = 1000 / rate
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + tonumber(time[2]) / 1000
+            local tat = math.max(tonumber(redis.call('GET', KEYS[1])) or now, now)
+            local free = math.floor((now + burst * interval - tat) / interval)
+            local granted = math.max(0, math.min(requested, free))
+            if granted > 0 then
+              tat = tat + granted * interval
+              redis.call('SET', KEYS[1], string.format('%.3f', tat), 'PX', math.ceil(tat - now) + 1)
+            end
+            return { granted, free - granted }
+            """, List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RateLimiterProperties properties;
+    private final Cache<LimitKey, Bucket> buckets;
+
+    private boolean includeHeaders = true;
+
+    private volatile long degradedUntil;
+
+    public LeasedRateLimiter(ReactiveStringRedisTemplate redisTemplate, RateLimiterProperties properties,
+                             ConfigurationService configurationService) {
+        super(Config.class, CONFIGURATION_PROPERTY_NAME, configurationService);
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+        this.buckets = CacheBuilder.newBuilder()
+                .maximumSize(properties.getMaximumKeys())
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    @Override
+    public Mono<Response> isAllowed(String routeId, String id) {
+        Config config = getConfig().get(routeId);
+        if (config == null) {
+            throw new IllegalArgumentException("No Configuration found for route " + routeId);
+        }
+        if (config.getBurstCapacity() <= 0 || config.getReplenishRate() <= 0
+                || config.getRequestedTokens() > config.getBurstCapacity()) {
+            return Mono.just(response(false, config, -1));
+        }
+        return acquire(new LimitKey(routeId, id), config, true);
+    }
+
+    @Value("${spring.cloud.gateway.redis-rate-limiter.include-headers:true}")
+    public void setIncludeHeaders(boolean includeHeaders) {
+        this.includeHeaders = includeHeaders;
+    }
+
+    public boolean isIncludeHeaders() {
+        return includeHeaders;
+    }
+
+    public boolean isAvailable() {
+        return properties.isRedisEnabled() && System.currentTimeMillis() >= degradedUntil;
+    }
+
+    private Mono<Response> acquire(LimitKey key, Config config, boolean wait) {
+        int requested = config.getRequestedTokens();
+        int leaseSize = leaseSize(config);
+        boolean redisAvailable = isAvailable();
+        long now = System.nanoTime();
+
+        Bucket bucket = buckets.asMap().computeIfAbsent(key, k -> new Bucket(now));
+        boolean allowed;
+        long remaining;
+        boolean lease = false;
+        Sinks.Empty<Void> pending = null;
+        synchronized (bucket) {
+            if (!redisAvailable) {
+                bucket.refill(now, config.getReplenishRate(), config.getBurstCapacity());
+            } else if (bucket.local || now - bucket.expiresAt >= 0) {
+                bucket.local = false;
+                bucket.permits = 0;
+            }
+            allowed = bucket.permits >= requested;
+            if (allowed) {
+                bucket.permits -= requested;
+            }
+            remaining = (long) bucket.permits;
+            if (redisAvailable && bucket.lease == null && bucket.permits < (leaseSize + 1) / 2
+                    && now - bucket.retryAt >= 0) {
+                bucket.lease = Sinks.empty();
+                lease = true;
+            }
+            if (!allowed && wait) {
+                pending = bucket.lease;
+            }
+        }
+        if (lease) {
+            lease(key, bucket, now, config, leaseSize);
+        }
+        if (pending != null) {
+            return pending.asMono().then(Mono.defer(() -> acquire(key, config, false)));
+        }
+        return Mono.just(response(allowed, config, remaining));
+    }
+
+    private Response response(boolean allowed, Config config, long remaining) {
+        if (!includeHeaders) {
+            return allowed ? ALLOWED : DENIED;
+        }
+        Map<String, String> headers = new HashMap<>(8);
+        headers.put(RedisRateLimiter.REMAINING_HEADER, Long.toString(remaining));
+        headers.put(RedisRateLimiter.REPLENISH_RATE_HEADER, Integer.toString(config.getReplenishRate()));
+        headers.put(RedisRateLimiter.BURST_CAPACITY_HEADER, Integer.toString(config.getBurstCapacity()));
+        headers.put(RedisRateLimiter.REQUESTED_TOKENS_HEADER, Integer.toString(config.getRequestedTokens()));
+        return new Response(allowed, headers);
+    }
+
+    private int leaseSize(Config config) {
+        int leaseSize = properties.getLeaseSize() > 0 ? properties.getLeaseSize() : config.getBurstCapacity() / 10;
+        return Math.max(config.getRequestedTokens(), Math.max(1, leaseSize));
+    }
+
+    private void lease(LimitKey key, Bucket bucket, long sentAt, Config config, int amount) {
+        String redisKey = properties.getKeyPrefix() + key.routeId() + ":" + key.id();
+        redisTemplate.execute(LEASE_SCRIPT, List.of(redisKey), List.of(Integer.toString(config.getReplenishRate()),
+                        Integer.toString(config.getBurstCapacity()), Integer.toString(amount)))
+                // the reply may come in more than one list
+                .flatMapIterable(Function.identity())
+                .collectList()
+                .timeout(properties.getTimeout())
+                .doOnNext(reply -> onLease(key, bucket, sentAt, config, amount, reply.get(0), reply.get(1)))
+                .subscribe(null,
+                        e -> {
+                            degrade(e);
+                            finish(bucket);
+                        },
+                        () -> finish(bucket));
+    }
+
+    private void onLease(LimitKey key, Bucket bucket, long sentAt, Config config, int amount, long granted, long free) {
+        // a bucket evicted while its lease was out goes back in rather than losing the grant
+        Bucket live = buckets.asMap().computeIfAbsent(key, k -> bucket);
+        double nanosPerPermit = 1e9 / config.getReplenishRate();
+        long now = System.nanoTime();
+        synchronized (live) {
+            if (granted > 0) {
+                if (live.local || now - live.expiresAt >= 0) {
+                    live.local = false;
+                    live.permits = 0;
+                }
+                live.permits += granted;
+                // Redis refills the burst no sooner than this, permits still held by then would come on top
+                long expiresAt = sentAt + (long) ((config.getBurstCapacity() - free) * nanosPerPermit);
+                if (expiresAt - live.expiresAt > 0) {
+                    live.expiresAt = expiresAt;
+                }
+            }
+            if (granted < amount) {
+                // the other replicas have used up the bucket, wait until half a lease has refilled
+                live.retryAt = now + (long) ((amount + 1) / 2 * nanosPerPermit);
+            }
+        }
+    }
+
+    private static void finish(Bucket bucket) {
+        Sinks.Empty<Void> lease;
+        synchronized (bucket) {
+            lease = bucket.lease;
+            bucket.lease = null;
+        }
+        if (lease != null) {
+            lease.tryEmitEmpty();
+        }
+    }
+
+    private void degrade(Throwable e) {
+        long until = System.currentTimeMillis() + properties.getBackoff().toMillis();
+        if (until > degradedUntil) {
+            log.warn("Redis rate limit leases unavailable, limiting locally for {}: {}", properties.getBackoff(), e.toString());
+            degradedUntil = until;
+        }
+    }
+
+    @Data
+    public static class Config {
+
+        private int replenishRate;
+
+        private int burstCapacity;
+
+        private int requestedTokens = 1;
+    }
+
+    private record LimitKey(String routeId, String id) {
+    }
+
+    private static final class Bucket {
+        /**
+         * Permits this replica may hand out, leased from Redis or refilled locally.
+         */
+        double permits;
+        /**
+         * Leased permits are dropped at this time.
+         */
+        long expiresAt;
+        /**
+         * No lease is asked for before this time.
+         */
+        long retryAt;
+        /**
+         * Refilled locally since {@link #refilledAt} because Redis is unavailable.
+         */
+        boolean local;
+        long refilledAt;
+        /**
+         * Completes when the lease in flight lands.
+         */
+        Sinks.Empty<Void> lease;
+
+        Bucket(long now) {
+            this.expiresAt = now;
+            this.retryAt = now;
+        }
+
+        void refill(long now, int rate, int burst) {
+            if (!local) {
+                // starts full, as on a replica that has just come up
+                local = true;
+                permits = burst;
+            } else {
+                permits = Math.min(burst, permits + (now - refilledAt) * rate / 1e9);
+            }
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.shun.gateway.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shun.gateway.config.TokenCacheProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReactiveStringCommands;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional second verdict tier in Redis, shared by all gateway replicas.
+ * <p>
+ * A replica asks Redis before verifying a token it does not know, and queues its own verdicts
+ * to be written in pipelined batches. STOPPED verdicts are also published, so peers learn about
+ * a rejected token without verifying it themselves. Any Redis timeout or error disables the
+ * tier for {@code backoff}, the gateway then keeps working on its local tiers only.
+ * <p>
+ * Keys carry the version of the wire format after {@code key-prefix}, so verdicts written by
+ * replicas on an older format are never read: their PASSED entries lack the jti a revocation
+ * is matched on.
+ */
+@Slf4j
+@Component
+public class RedisVerdictStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // bump with any change to RemoteVerdict
+    private static final String FORMAT_VERSION = "v2:";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final TokenVerdictCache cache;
+    private final GenerationalVerdictFilter filter;
+    private final TokenCacheProperties.Redis redis;
+    private final long expireAfterWriteMillis;
+
+    private final Queue<PendingVerdict> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private volatile long degradedUntil;
+
+    private Disposable flushing;
+    private Disposable subscription;
+    private ReactiveRedisMessageListenerContainer container;
+
+    public RedisVerdictStore(ReactiveStringRedisTemplate redisTemplate, ReactiveRedisConnectionFactory connectionFactory,
+                             TokenVerdictCache cache, GenerationalVerdictFilter filter, TokenCacheProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.connectionFactory = connectionFactory;
+        this.cache = cache;
+        this.filter = filter;
+        this.redis = properties.getRedis();
+        this.expireAfterWriteMillis = properties.getExpireAfterWrite().toMillis();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!redis.isEnabled()) {
+            return;
+        }
+        flushing = Flux.interval(redis.getFlushInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> flush(), 1)
+                .subscribe();
+        container = new ReactiveRedisMessageListenerContainer(connectionFactory);
+        subscription = container.receive(ChannelTopic.of(redis.getChannel()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(redis.getBackoff()))
+                .subscribe(message -> onStopped(message.getMessage()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushing != null) {
+            flushing.dispose();
+        }
+        if (subscription != null) {
+            subscription.dispose();
+        }
+        if (container != null) {
+            container.destroy();
+        }
+    }
+
+    public boolean isAvailable() {
+        return redis.isEnabled() && System.currentTimeMillis() >= degradedUntil;
+    }
+
+    /**
+     * Looks the token up in Redis and copies a hit into the local tiers.
+     *
+     * @return the remote verdict, or empty when unknown, disabled or Redis is unhealthy
+     */
+    public Mono<TokenVerdictCache.Entry> lookup(TokenDigest digest) {
+        if (!isAvailable()) {
+            return Mono.empty();
+        }
+        return redisTemplate.opsForValue().get(key(digest))
+                .timeout(redis.getTimeout())
+                .flatMap(value -> Mono.justOrEmpty(promote(digest, value)))
+                .onErrorResume(e -> {
+                    degrade(e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Queues a locally computed verdict for the next batched write.
+     */
+    public void offer(TokenDigest digest, TokenVerdictCache.Entry entry) {
+        if (!isAvailable() || pendingSize.get() >= redis.getMaxPending()) {
+            return;
+        }
+        pendingSize.incrementAndGet();
+        pending.offer(new PendingVerdict(digest, entry, System.currentTimeMillis()));
+    }
+
+    Mono<Void> flush() {
+        List<PendingVerdict> batch = new ArrayList<>(Math.min(redis.getBatchSize(), pendingSize.get()));
+        PendingVerdict next;
+        while (batch.size() < redis.getBatchSize() && (next = pending.poll()) != null) {
+            pendingSize.decrementAndGet();
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return Mono.empty();
+        }
+        long now = System.currentTimeMillis();
+        StringJoiner stopped = new StringJoiner(",");
+        List<ReactiveStringCommands.SetCommand> commands = new ArrayList<>(batch.size());
+        for (PendingVerdict verdict : batch) {
+            long ttl = ttl(verdict, now);
+            if (ttl <= 0) {
+                continue;
+            }
+            commands.add(ReactiveStringCommands.SetCommand.set(bytes(key(verdict.digest)))
+                    .value(bytes(encode(verdict)))
+                    .expiring(Expiration.milliseconds(ttl)));
+            if (verdict.entry.verdict() == TokenVerdict.STOPPED) {
+                stopped.add(verdict.digest.toHex());
+            }
+        }
+        Mono<Void> write = redisTemplate.execute(connection -> connection.stringCommands().set(Flux.fromIterable(commands)))
+                .then();
+        if (stopped.length() > 0) {
+            write = write.then(redisTemplate.convertAndSend(redis.getChannel(), stopped.toString()).then());
+        }
+        return write.timeout(redis.getTimeout().multipliedBy(10))
+                .onErrorResume(e -> {
+                    degrade(e);
+                    return Mono.empty();
+                });
+    }
+
+    private String key(TokenDigest digest) {
+        return redis.getKeyPrefix() + FORMAT_VERSION + digest.toHex();
+    }
+
+    private long ttl(PendingVerdict verdict, long now) {
+        TokenVerdictCache.Entry entry = verdict.entry;
+        if (entry.verdict() != TokenVerdict.PASSED) {
+            return redis.getRejectedTtl().toMillis();
+        }
+        long untilWriteExpiry = verdict.writtenAt + expireAfterWriteMillis - now;
+        long untilTokenExpiry = entry.identity().expiresAt() - now;
+        return Math.min(untilWriteExpiry, untilTokenExpiry);
+    }
+
+    private TokenVerdictCache.Entry promote(TokenDigest digest, String value) {
+        RemoteVerdict remote;
+        TokenVerdict verdict;
+        try {
+            remote = MAPPER.readValue(value, RemoteVerdict.class);
+            verdict = TokenVerdict.valueOf(remote.v());
+        } catch (JsonProcessingException | IllegalArgumentException | NullPointerException e) {
+            log.debug("Ignoring malformed remote verdict for {}", digest.toHex(), e);
+            return null;
+        }
+        if (verdict == TokenVerdict.UNKNOWN) {
+            return null;
+        }
+        if (verdict == TokenVerdict.PASSED) {
+            TokenIdentity identity = new TokenIdentity(remote.u(), remote.n(), remote.a(), remote.e(),
+                    remote.j() != null ? TokenDigest.fromHex(remote.j()) : null);
+            cache.restore(digest, identity, remote.w());
+            // an entry restored past its TTL or exp is not trusted either
+            return cache.get(digest);
+        }
+        filter.put(digest, verdict);
+        return TokenVerdictCache.Entry.rejected(verdict);
+    }
+
+    private void onStopped(String message) {
+        for (String hex : message.split(",")) {
+            try {
+                filter.put(TokenDigest.fromHex(hex), TokenVerdict.STOPPED);
+            } catch (IllegalArgumentException e) {
+                log.debug("Ignoring malformed stopped digest {}", hex);
+            }
+        }
+    }
+
+    private void degrade(Throwable e) {
+        long until = System.currentTimeMillis() + redis.getBackoff().toMillis();
+        if (until > degradedUntil) {
+            log.warn("Redis verdict tier unavailable, using local verdicts only for {}: {}", redis.getBackoff(), e.toString());
+            degradedUntil = until;
+        }
+    }
+
+    private static String encode(PendingVerdict pending) {
+        TokenVerdictCache.Entry entry = pending.entry;
+        TokenIdentity identity = entry.identity();
+        RemoteVerdict remote = identity == null
+                ? new RemoteVerdict(entry.verdict().name(), pending.writtenAt, 0, null, null, null, null)
+                : new RemoteVerdict(entry.verdict().name(), pending.writtenAt, identity.expiresAt(),
+                identity.uid(), identity.userName(), identity.audience(),
+                identity.jti() != null ? identity.jti().toHex() : null);
+        try {
+            return MAPPER.writeValueAsString(remote);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private record PendingVerdict(TokenDigest digest, TokenVerdictCache.Entry entry, long writtenAt) {
+    }
+
+    /**
+     * Wire format, kept short: verdict, written-at, exp, uid, user name, audience, jti digest.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record RemoteVerdict(String v, long w, long e, String u, String n, String a, String j) {
+    }
+}
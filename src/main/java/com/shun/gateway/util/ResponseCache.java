@@ -0,0 +1,294 @@
+package com.shun.gateway.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.shun.gateway.config.ResponseCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upstream responses kept for the {@code ResponseCache} route filter, bounded by their size in
+ * bytes and evicted by Caffeine's W-TinyLFU policy, so a burst of one-off URLs cannot push out
+ * the ones that are asked for all the time.
+ * <p>
+ * A response is kept only when it is a 200 the upstream lets a shared cache store (RFC 9111):
+ * no {@code no-store}, {@code private} or {@code no-cache}, no {@code Set-Cookie}, and a
+ * {@code Vary} covered by the key headers. It stays fresh for {@code s-maxage} or
+ * {@code max-age}, else for the route's ttl; a response to a request carrying a token is only
+ * kept when it is marked {@code public} or has an {@code s-maxage}. Entries are never
+ * revalidated, a stale one is simply dropped.
+ * <p>
+ * While a key is being fetched, the other requests for it wait for that response instead of
+ * going upstream, and go upstream on their own when it could not be kept.
+ */
+@Component
+public class ResponseCache {
+
+    /**
+     * How a request was answered.
+     */
+    public enum Result {
+        HIT,
+        MISS,
+        COALESCED
+    }
+
+    // not replayed: hop-by-hop, or set again for every hit
+    private static final Set<String> UNKEPT_HEADERS = Set.of("connection", "keep-alive", "transfer-encoding", "te",
+            "trailer", "upgrade", "proxy-authenticate", "proxy-connection", "content-length", "age");
+
+    private final Cache<Key, Entry> cache;
+    private final Map<Key, Flight> inFlight = new ConcurrentHashMap<>();
+    private final Ticker ticker;
+    private final long maximumEntrySize;
+    private final Duration defaultTtl;
+    private final Duration maximumTtl;
+    private final Counter[] results = new Counter[Result.values().length];
+    private final Counter uncacheable;
+    private final Counter evictions;
+
+    @Autowired
+    public ResponseCache(ResponseCacheProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, Ticker.systemTicker());
+    }
+
+    ResponseCache(ResponseCacheProperties properties, MeterRegistry meterRegistry, Ticker ticker) {
+        this.ticker = ticker;
+        this.maximumEntrySize = properties.getMaximumEntrySize().toBytes();
+        this.defaultTtl = properties.getDefaultTtl();
+        this.maximumTtl = properties.getMaximumTtl();
+        for (Result result : Result.values()) {
+            results[result.ordinal()] = Counter.builder("gateway.response.cache.requests")
+                    .description("Requests to routes with a response cache, by how they were answered")
+                    .tag("result", result.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+        this.uncacheable = Counter.builder("gateway.response.cache.uncacheable")
+                .description("Upstream responses to cached routes that could not be kept")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("gateway.response.cache.evictions")
+                .description("Fresh responses dropped to stay within the size bound")
+                .register(meterRegistry);
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaximumSize().toBytes())
+                .weigher((Key key, Entry entry) -> entry.weight(key))
+                .expireAfter(new Expiry<Key, Entry>() {
+                    @Override
+                    public long expireAfterCreate(Key key, Entry entry, long currentTime) {
+                        return entry.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(ticker)
+                .removalListener((Key key, Entry entry, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) {
+                        evictions.increment();
+                    }
+                })
+                .build();
+        meterRegistry.gauge("gateway.response.cache.size", cache, Cache::estimatedSize);
+        meterRegistry.gauge("gateway.response.cache.bytes", cache,
+                c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L));
+    }
+
+    /**
+     * @return the fresh response for {@code key}, or {@code null}
+     */
+    public Entry get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @return the fetch of {@code key} this request leads, or the one already in flight it joins
+     */
+    public Flight begin(Key key) {
+        Flight flight = new Flight(key);
+        Flight running = inFlight.putIfAbsent(key, flight);
+        return running == null ? flight : running.follower();
+    }
+
+    public void record(Result result) {
+        results[result.ordinal()].increment();
+    }
+
+    /**
+     * @param authorized whether the request carried a token
+     * @return how long the response may be kept, or {@code null} when it may not
+     */
+    public Duration freshness(int status, HttpHeaders headers, List<String> keyHeaders, Duration routeTtl,
+                              boolean authorized) {
+        if (status != 200 || headers.containsKey(HttpHeaders.SET_COOKIE) || !coveredByKey(headers, keyHeaders)) {
+            return null;
+        }
+        long contentLength = headers.getContentLength();
+        if (contentLength > maximumEntrySize) {
+            return null;
+        }
+        boolean isPublic = false;
+        Duration maxAge = null;
+        Duration sharedMaxAge = null;
+        for (String value : headers.getValuesAsList(HttpHeaders.CACHE_CONTROL)) {
+            String directive = value.toLowerCase(Locale.ROOT);
+            if (directive.equals("no-store") || directive.equals("no-cache") || directive.startsWith("no-cache=")
+                    || directive.equals("private") || directive.startsWith("private=")) {
+                return null;
+            } else if (directive.equals("public")) {
+                isPublic = true;
+            } else if (directive.startsWith("s-maxage=")) {
+                sharedMaxAge = seconds(directive.substring("s-maxage=".length()));
+            } else if (directive.startsWith("max-age=")) {
+                maxAge = seconds(directive.substring("max-age=".length()));
+            }
+        }
+        if (authorized && !isPublic && sharedMaxAge == null) {
+            return null;
+        }
+        Duration ttl = sharedMaxAge != null ? sharedMaxAge
+                : maxAge != null ? maxAge
+                : routeTtl != null ? routeTtl : defaultTtl;
+        if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+            return null;
+        }
+        return ttl.compareTo(maximumTtl) > 0 ? maximumTtl : ttl;
+    }
+
+    public long getMaximumEntrySize() {
+        return maximumEntrySize;
+    }
+
+    /**
+     * @return seconds since {@code entry} was stored, for the {@code Age} header
+     */
+    public long ageSeconds(Entry entry) {
+        return TimeUnit.NANOSECONDS.toSeconds(ticker.read() - entry.storedAt());
+    }
+
+    private Entry store(Key key, int status, HttpHeaders headers, byte[] body, Duration ttl) {
+        HttpHeaders kept = new HttpHeaders();
+        headers.forEach((name, values) -> {
+            if (!UNKEPT_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                kept.put(name, List.copyOf(values));
+            }
+        });
+        Entry entry = new Entry(status, HttpHeaders.readOnlyHttpHeaders(kept), body, ticker.read(), ttl.toNanos());
+        cache.put(key, entry);
+        return entry;
+    }
+
+    private static boolean coveredByKey(HttpHeaders headers, List<String> keyHeaders) {
+        for (String vary : headers.getVary()) {
+            if (vary.equals("*") || keyHeaders.stream().noneMatch(vary::equalsIgnoreCase)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Duration seconds(String value) {
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return Duration.ZERO;
+        }
+    }
+
+    /**
+     * The route, the raw path and query, and the values of the route's key headers.
+     */
+    public record Key(String routeId, String uri, String variant) {
+    }
+
+    public record Entry(int status, HttpHeaders headers, byte[] body, long storedAt, long ttlNanos) {
+
+        int weight(Key key) {
+            long weight = 64L + body.length + key.uri().length() + key.variant().length();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                weight += header.getKey().length();
+                for (String value : header.getValue()) {
+                    weight += value.length();
+                }
+            }
+            return (int) Math.min(Integer.MAX_VALUE, weight);
+        }
+    }
+
+    /**
+     * One upstream fetch of a key: the leader passes on the response it got, or {@code null},
+     * and followers receive it.
+     */
+    public final class Flight {
+
+        private final Key key;
+        private final Sinks.One<Entry> result;
+        private final boolean leader;
+
+        private Flight(Key key) {
+            this(key, Sinks.one(), true);
+        }
+
+        private Flight(Key key, Sinks.One<Entry> result, boolean leader) {
+            this.key = key;
+            this.result = result;
+            this.leader = leader;
+        }
+
+        private Flight follower() {
+            return new Flight(key, result, false);
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * @return the response the leader got, empty when it could not be kept
+         */
+        public Mono<Entry> result() {
+            return result.asMono();
+        }
+
+        /**
+         * Keeps the response and hands it to the followers. Only the first call of the leader counts.
+         */
+        public void complete(int status, HttpHeaders headers, byte[] body, Duration ttl) {
+            if (inFlight.remove(key, this)) {
+                result.tryEmitValue(store(key, status, headers, body, ttl));
+            }
+        }
+
+        /**
+         * Ends the fetch without a response to keep, the followers go upstream on their own.
+         */
+        public void abandon() {
+            if (inFlight.remove(key, this)) {
+                uncacheable.increment();
+                result.tryEmitEmpty();
+            }
+        }
+    }
+}
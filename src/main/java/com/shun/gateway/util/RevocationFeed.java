@@ -0,0 +1,165 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.RevocationProperties;
+import com.shun.gateway.config.RevokedTokensProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Fills the {@link RevocationSet}: with the ids listed in {@link RevokedTokensProperties} at
+ * startup and on every Nacos refresh, and, when enabled, with the entries of a Redis stream.
+ * <p>
+ * The stream is read from its first entry at startup, then polled past the last entry seen, so
+ * each replica catches up on its own and only ever reads what is new. Producers add an entry
+ * per revocation ({@code XADD gateway:token:revoked * jti <jti> exp <epoch seconds>}) and trim
+ * the stream to the longest token lifetime ({@code MINID}). Any Redis timeout or error pauses
+ * reading for {@code backoff}, the next read resumes at the same entry.
+ */
+@Slf4j
+@Component
+public class RevocationFeed {
+
+    private final RevocationSet revocations;
+    private final RevocationProperties properties;
+    private final RevokedTokensProperties revokedTokens;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RotationScheduler scheduler;
+    private final RevocationProperties.Stream stream;
+
+    private volatile String lastId = "0-0";
+    private volatile long degradedUntil;
+
+    private ScheduledFuture<?> sweeping;
+    private Disposable polling;
+
+    public RevocationFeed(RevocationSet revocations, RevocationProperties properties,
+                          RevokedTokensProperties revokedTokens, ReactiveStringRedisTemplate redisTemplate,
+                          RotationScheduler scheduler) {
+        this.revocations = revocations;
+        this.properties = properties;
+        this.revokedTokens = revokedTokens;
+        this.redisTemplate = redisTemplate;
+        this.scheduler = scheduler;
+        this.stream = properties.getStream();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        loadListed();
+        sweeping = scheduler.scheduleAtFixedRate(revocations::sweep, properties.getSweepInterval());
+        if (stream.isEnabled()) {
+            polling = Flux.interval(stream.getPollInterval())
+                    .onBackpressureDrop()
+                    .concatMap(tick -> poll(), 1)
+                    .subscribe();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sweeping != null) {
+            sweeping.cancel(false);
+        }
+        if (polling != null) {
+            polling.dispose();
+        }
+    }
+
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void onRefresh() {
+        if (properties.isEnabled()) {
+            loadListed();
+        }
+    }
+
+    void loadListed() {
+        int added = 0;
+        for (Map.Entry<String, Long> listed : revokedTokens.getJti().entrySet()) {
+            Long exp = listed.getValue();
+            long expiresAt = exp != null ? exp * 1000 : System.currentTimeMillis() + properties.getDefaultRetention().toMillis();
+            if (revocations.revoke(TokenDigest.of(listed.getKey()), expiresAt)) {
+                added++;
+            }
+        }
+        if (added > 0) {
+            log.info("Revoked {} token ids listed in the config", added);
+        }
+    }
+
+    /**
+     * Reads the stream past the last entry seen, batch after batch until it is drained.
+     */
+    Mono<Void> poll() {
+        if (System.currentTimeMillis() < degradedUntil) {
+            return Mono.empty();
+        }
+        return readBatch()
+                .expand(read -> read == stream.getBatchSize() ? readBatch() : Mono.empty())
+                .onErrorResume(e -> {
+                    degrade(e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<Integer> readBatch() {
+        return redisTemplate.opsForStream()
+                .read(StreamReadOptions.empty().count(stream.getBatchSize()),
+                        StreamOffset.create(stream.getKey(), ReadOffset.from(lastId)))
+                .collectList()
+                .timeout(stream.getTimeout())
+                .map(this::apply);
+    }
+
+    private int apply(List<MapRecord<String, Object, Object>> records) {
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> fields = record.getValue();
+            Object jti = fields.get("jti");
+            if (jti == null) {
+                log.debug("Ignoring revocation stream entry {} without a jti", record.getId());
+            } else {
+                revocations.revoke(TokenDigest.of(jti.toString()), expiresAt(fields.get("exp")));
+            }
+            lastId = record.getId().getValue();
+        }
+        return records.size();
+    }
+
+    private long expiresAt(Object exp) {
+        if (exp != null) {
+            try {
+                return Long.parseLong(exp.toString()) * 1000;
+            } catch (NumberFormatException e) {
+                log.debug("Keeping a revocation with a malformed exp {} for the default retention", exp);
+            }
+        }
+        return System.currentTimeMillis() + properties.getDefaultRetention().toMillis();
+    }
+
+    private void degrade(Throwable e) {
+        long until = System.currentTimeMillis() + stream.getBackoff().toMillis();
+        if (until > degradedUntil) {
+            log.warn("Revocation stream unavailable, retrying in {}: {}", stream.getBackoff(), e.toString());
+            degradedUntil = until;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.RevocationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.LongSupplier;
+
+/**
+ * Token ids ({@code jti}) revoked before their token expires, checked on every request a token
+ * passes, a cached one included.
+ * <p>
+ * Each id is kept as the {@link TokenDigest} of the jti next to its token's {@code exp}: three
+ * longs in one flat open-addressing table, at most half full, so a lookup is a few array reads
+ * with no boxing and no allocation. Revocations are only ever added, by {@link RevocationFeed},
+ * and leave the table at their {@code exp}: a sweep rebuilds it without them, lookups ignore them
+ * until then. A single writer inserts in place, publishing the {@code exp} of a slot last;
+ * growing or sweeping swaps in a new table.
+ * <p>
+ * {@code gateway.token.revocations} is the number of revocations kept and
+ * {@code gateway.token.revoked} counts the requests refused because of one.
+ */
+@Slf4j
+@Component
+public class RevocationSet {
+
+    // high, low and exp of each slot, a slot with exp 0 is free
+    private static final int SLOT = 3;
+    private static final int MIN_CAPACITY = 64;
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int maximumSize;
+    private final LongSupplier clock;
+    private final Counter revoked;
+
+    private volatile long[] table = new long[MIN_CAPACITY * SLOT];
+    // written under this
+    private volatile int size;
+
+    @Autowired
+    public RevocationSet(RevocationProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, System::currentTimeMillis);
+    }
+
+    RevocationSet(RevocationProperties properties, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.maximumSize = properties.getMaximumSize();
+        this.clock = clock;
+        this.revoked = Counter.builder("gateway.token.revoked")
+                .description("Requests refused because the token's jti was revoked")
+                .register(meterRegistry);
+        meterRegistry.gauge("gateway.token.revocations", this, RevocationSet::size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether the token was revoked, counted as a refused request when it was
+     */
+    public boolean isRevoked(TokenIdentity identity) {
+        TokenDigest jti = identity.jti();
+        if (jti == null || !contains(jti, clock.getAsLong())) {
+            return false;
+        }
+        revoked.increment();
+        return true;
+    }
+
+    /**
+     * @return whether {@code jti} is revoked and its token not yet expired at {@code now}
+     */
+    public boolean contains(TokenDigest jti, long now) {
+        long[] slots = table;
+        int mask = slots.length / SLOT - 1;
+        int i = (int) jti.low() & mask;
+        while (true) {
+            int at = i * SLOT;
+            long expiresAt = (long) LONGS.getAcquire(slots, at + 2);
+            if (expiresAt == 0) {
+                return false;
+            }
+            if (slots[at] == jti.high() && slots[at + 1] == jti.low()) {
+                return expiresAt > now;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Revokes {@code jti} until {@code expiresAt}, or later when it already is.
+     *
+     * @return whether the id was not revoked before
+     */
+    public synchronized boolean revoke(TokenDigest jti, long expiresAt) {
+        long now = clock.getAsLong();
+        if (expiresAt <= now) {
+            return false;
+        }
+        if (size >= maximumSize) {
+            sweep();
+            if (size >= maximumSize) {
+                log.warn("Dropping the revocation of {}, {} revocations are kept already", jti.toHex(), size);
+                return false;
+            }
+        }
+        long[] slots = table;
+        int capacity = slots.length / SLOT;
+        if ((size + 1) * 2 > capacity) {
+            slots = rebuild(now, capacity * 2);
+        }
+        int mask = slots.length / SLOT - 1;
+        int i = (int) jti.low() & mask;
+        while (true) {
+            int at = i * SLOT;
+            long current = slots[at + 2];
+            if (current == 0) {
+                slots[at] = jti.high();
+                slots[at + 1] = jti.low();
+                LONGS.setRelease(slots, at + 2, expiresAt);
+                size++;
+                return true;
+            }
+            if (slots[at] == jti.high() && slots[at + 1] == jti.low()) {
+                if (expiresAt > current) {
+                    LONGS.setRelease(slots, at + 2, expiresAt);
+                }
+                return current <= now;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Drops the revocations whose token has expired.
+     */
+    public synchronized void sweep() {
+        long now = clock.getAsLong();
+        long[] slots = table;
+        int live = 0;
+        for (int at = 0; at < slots.length; at += SLOT) {
+            if (slots[at + 2] > now) {
+                live++;
+            }
+        }
+        if (live < size) {
+            rebuild(now, capacityFor(live));
+        }
+    }
+
+    private long[] rebuild(long now, int capacity) {
+        long[] slots = table;
+        long[] rebuilt = new long[capacity * SLOT];
+        int mask = capacity - 1;
+        int live = 0;
+        for (int at = 0; at < slots.length; at += SLOT) {
+            if (slots[at + 2] <= now) {
+                continue;
+            }
+            int i = (int) slots[at + 1] & mask;
+            while (rebuilt[i * SLOT + 2] != 0) {
+                i = (i + 1) & mask;
+            }
+            System.arraycopy(slots, at, rebuilt, i * SLOT, SLOT);
+            live++;
+        }
+        table = rebuilt;
+        size = live;
+        return rebuilt;
+    }
+
+    // the smallest power of two more than twice the size
+    private static int capacityFor(int size) {
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size * 2)) << 1);
+    }
+}
@@ -0,0 +1,44 @@
+package com.shun.gateway.util;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one background thread that rotates the generations of every rotating filter in the
+ * gateway. Shut down with the application context.
+ */
+@Component
+public class RotationScheduler implements Executor {
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public RotationScheduler() {
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "filter-rotation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Duration period) {
+        long millis = period.toMillis();
+        return executor.scheduleAtFixedRate(task, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
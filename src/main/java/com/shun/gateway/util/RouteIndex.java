@@ -0,0 +1,249 @@
+package com.shun.gateway.util;
+
+import org.springframework.cloud.gateway.handler.predicate.HostRoutePredicateFactory;
+import org.springframework.cloud.gateway.handler.predicate.PathRoutePredicateFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.HasConfig;
+import org.springframework.http.server.PathContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The routes of one refresh, bucketed by the first path segment or the host they can match.
+ * <p>
+ * A route whose predicates include a {@code Path} with a literal first segment in every pattern
+ * (the {@code /service-id/**} routes of the discovery locator) is filed under those segments,
+ * failing that one with a {@code Host} made only of literal names is filed under those names;
+ * every other route is a candidate for every request. The candidates keep the route order, so
+ * evaluating their predicates in turn picks the route a walk over all of them would have picked.
+ * Predicates only count when they are AND-ed, which holds for routes built from route
+ * definitions; routes from other locators are passed in as opaque and never filed.
+ */
+public final class RouteIndex {
+
+    private final Route[] routes;
+    private final Bucket unfiled;
+    private final Map<String, Bucket> bySegment;
+    private final Map<String, Bucket> byHost;
+    private final int[] counts;
+
+    private RouteIndex(Route[] routes, Bucket unfiled, Map<String, Bucket> bySegment, Map<String, Bucket> byHost,
+                       int[] counts) {
+        this.routes = routes;
+        this.unfiled = unfiled;
+        this.bySegment = bySegment;
+        this.byHost = byHost;
+        this.counts = counts;
+    }
+
+    /**
+     * @param routes    in lookup order
+     * @param opaqueIds routes whose predicates may be OR-ed or negated, never filed
+     */
+    public static RouteIndex build(List<Route> routes, Set<String> opaqueIds) {
+        Map<String, List<Integer>> segments = new HashMap<>();
+        Map<String, List<Integer>> hosts = new HashMap<>();
+        List<Integer> unfiled = new ArrayList<>();
+        int[] counts = new int[3];
+        for (int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            Keys keys = opaqueIds.contains(route.getId()) ? null : Keys.of(route);
+            if (keys != null && keys.segments != null) {
+                for (String segment : keys.segments) {
+                    segments.computeIfAbsent(segment, s -> new ArrayList<>()).add(i);
+                }
+                counts[0]++;
+            } else if (keys != null && keys.hosts != null) {
+                for (String host : keys.hosts) {
+                    hosts.computeIfAbsent(host, h -> new ArrayList<>()).add(i);
+                }
+                counts[1]++;
+            } else {
+                unfiled.add(i);
+                counts[2]++;
+            }
+        }
+        Route[] all = routes.toArray(new Route[0]);
+        int[] unfiledPositions = unfiled.stream().mapToInt(Integer::intValue).toArray();
+        return new RouteIndex(all, new Bucket(all, unfiledPositions),
+                buckets(all, segments, unfiledPositions), buckets(all, hosts, unfiledPositions), counts);
+    }
+
+    private static Map<String, Bucket> buckets(Route[] routes, Map<String, List<Integer>> filed, int[] unfiled) {
+        Map<String, Bucket> buckets = new HashMap<>(filed.size() * 2);
+        filed.forEach((key, positions) ->
+                buckets.put(key, new Bucket(routes, merge(positions.stream().mapToInt(Integer::intValue).toArray(), unfiled))));
+        return buckets;
+    }
+
+    /**
+     * @param host the name from the {@code Host} header, as the {@code Host} predicate reads it, or {@code null}
+     * @return the routes that can match, in route order; shared, not to be modified
+     */
+    public Route[] candidates(PathContainer path, String host) {
+        if (host != null && (host.isEmpty() || host.startsWith(".") || host.endsWith(".") || host.contains(".."))) {
+            // AntPathMatcher skips empty tokens, a literal pattern matches more than its own spelling
+            return routes;
+        }
+        Bucket segment = bySegment.getOrDefault(firstSegment(path), unfiled);
+        Bucket named = host == null ? unfiled : byHost.getOrDefault(host, unfiled);
+        if (named == unfiled) {
+            return segment.routes;
+        }
+        if (segment == unfiled) {
+            return named.routes;
+        }
+        int[] positions = merge(segment.positions, named.positions);
+        Route[] candidates = new Route[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            candidates[i] = routes[positions[i]];
+        }
+        return candidates;
+    }
+
+    /**
+     * @return whether {@code routes} are the very route objects, in the same order, this index was built from
+     */
+    public boolean isBuiltFrom(List<Route> routes) {
+        if (routes.size() != this.routes.length) {
+            return false;
+        }
+        for (int i = 0; i < this.routes.length; i++) {
+            if (routes.get(i) != this.routes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return routes.length;
+    }
+
+    /**
+     * @return the routes filed by path segment, by host and the ones left for every request
+     */
+    public int[] counts() {
+        return counts.clone();
+    }
+
+    /**
+     * @return the first segment the way {@code PathPattern} compares it, decoded and without
+     * matrix variables, or the empty string when the path has none
+     */
+    private static String firstSegment(PathContainer path) {
+        List<PathContainer.Element> elements = path.elements();
+        if (elements.size() < 2 || !(elements.get(0) instanceof PathContainer.Separator)
+                || !(elements.get(1) instanceof PathContainer.PathSegment segment)) {
+            return "";
+        }
+        return segment.valueToMatch();
+    }
+
+    private static int[] merge(int[] left, int[] right) {
+        int[] merged = new int[left.length + right.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < left.length || j < right.length) {
+            int next;
+            if (j == right.length || (i < left.length && left[i] < right[j])) {
+                next = left[i++];
+            } else if (i == left.length || right[j] < left[i]) {
+                next = right[j++];
+            } else {
+                next = left[i++];
+                j++;
+            }
+            merged[n++] = next;
+        }
+        return n == merged.length ? merged : Arrays.copyOf(merged, n);
+    }
+
+    private static final class Bucket {
+        private final int[] positions;
+        private final Route[] routes;
+
+        Bucket(Route[] all, int[] positions) {
+            this.positions = positions;
+            this.routes = new Route[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                this.routes[i] = all[positions[i]];
+            }
+        }
+    }
+
+    /**
+     * What a route can match, taken from the first {@code Path} and {@code Host} predicates that can be filed.
+     */
+    private static final class Keys {
+        private Set<String> segments;
+        private Set<String> hosts;
+
+        static Keys of(Route route) {
+            Keys keys = new Keys();
+            route.getPredicate().accept(keys::visit);
+            return keys;
+        }
+
+        private void visit(HasConfig predicate) {
+            Object config = predicate.getConfig();
+            if (segments == null && config instanceof PathRoutePredicateFactory.Config path) {
+                segments = literalFirstSegments(path.getPatterns());
+            } else if (hosts == null && config instanceof HostRoutePredicateFactory.Config host) {
+                hosts = literalHosts(host.getPatterns());
+            }
+        }
+
+        private static Set<String> literalFirstSegments(List<String> patterns) {
+            if (patterns == null || patterns.isEmpty()) {
+                return null;
+            }
+            Set<String> segments = new LinkedHashSet<>();
+            for (String pattern : patterns) {
+                if (pattern == null || pattern.length() < 2 || pattern.charAt(0) != '/') {
+                    return null;
+                }
+                int end = pattern.indexOf('/', 1);
+                String segment = pattern.substring(1, end < 0 ? pattern.length() : end);
+                if (segment.isEmpty() || !isLiteral(segment)) {
+                    return null;
+                }
+                segments.add(segment);
+            }
+            return segments;
+        }
+
+        private static Set<String> literalHosts(List<String> patterns) {
+            if (patterns == null || patterns.isEmpty()) {
+                return null;
+            }
+            Set<String> hosts = new LinkedHashSet<>();
+            for (String pattern : patterns) {
+                if (pattern == null || pattern.isEmpty() || pattern.startsWith(".") || pattern.endsWith(".")
+                        || pattern.contains("..") || !isLiteral(pattern)) {
+                    return null;
+                }
+                hosts.add(pattern);
+            }
+            return hosts;
+        }
+
+        private static boolean isLiteral(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                switch (value.charAt(i)) {
+                    case '*', '?', '{', '}', ';', '%':
+                        return false;
+                    default:
+                }
+            }
+            return true;
+        }
+    }
+}
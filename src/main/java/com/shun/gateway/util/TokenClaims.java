@@ -0,0 +1,13 @@
+package com.shun.gateway.util;
+
+/**
+ * The claims the gateway reads from a token payload, see {@link TokenParse}.
+ *
+ * @param uid       {@code uid} as text, or {@code null}
+ * @param subject   {@code sub}, or {@code null}
+ * @param audience  {@code aud}, the first one when it is an array, or {@code null}
+ * @param expiresAt {@code exp} in epoch millis, {@link Long#MAX_VALUE} when absent
+ * @param jti       {@code jti}, or {@code null}
+ */
+public record TokenClaims(String uid, String subject, String audience, long expiresAt, String jti) {
+}
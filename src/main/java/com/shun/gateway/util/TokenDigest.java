@@ -0,0 +1,93 @@
+package com.shun.gateway.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 128-bit digest of a raw token (the first half of its SHA-256), used as the cache key so the
+ * caches never hold the token itself. A collision-resistant hash is used on purpose: a cached
+ * PASSED verdict lets a request skip signature verification.
+ */
+public record TokenDigest(long high, long low) {
+
+    private static final int SCRATCH_SIZE = 2048;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    public static TokenDigest of(String token) {
+        Scratch scratch = SCRATCH.get();
+        MessageDigest sha256 = scratch.sha256;
+        int length = token.length();
+        if (length <= SCRATCH_SIZE && isAscii(token, scratch.buf)) {
+            sha256.update(scratch.buf, 0, length);
+        } else {
+            sha256.update(token.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] out = scratch.out;
+        try {
+            sha256.digest(out, 0, out.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return new TokenDigest(readLong(out, 0), readLong(out, 8));
+    }
+
+    /**
+     * @return the digest as 32 lower-case hex characters
+     */
+    public String toHex() {
+        char[] out = new char[32];
+        writeHex(high, out, 0);
+        writeHex(low, out, 16);
+        return new String(out);
+    }
+
+    public static TokenDigest fromHex(CharSequence hex) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Expected 32 hex characters: " + hex);
+        }
+        return new TokenDigest(Long.parseUnsignedLong(hex, 0, 16, 16), Long.parseUnsignedLong(hex, 16, 32, 16));
+    }
+
+    private static void writeHex(long value, char[] out, int off) {
+        for (int i = 15; i >= 0; i--) {
+            out[off + i] = Character.forDigit((int) (value & 0xF), 16);
+            value >>>= 4;
+        }
+    }
+
+    private static boolean isAscii(String token, byte[] buf) {
+        for (int i = 0, n = token.length(); i < n; i++) {
+            char c = token.charAt(i);
+            if (c > 0x7F) {
+                return false;
+            }
+            buf[i] = (byte) c;
+        }
+        return true;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFFL);
+        }
+        return v;
+    }
+
+    private static final class Scratch {
+        final byte[] buf = new byte[SCRATCH_SIZE];
+        final byte[] out = new byte[32];
+        final MessageDigest sha256;
+
+        Scratch() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.shun.gateway.util;
+
+import io.jsonwebtoken.Claims;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The part of a verified token that the gateway forwards downstream, computed once at
+ * verification time so cached hits never touch the JSON payload again.
+ *
+ * @param uid       value of the {@code uid} claim
+ * @param userName  URL-encoded subject, ready to be used as a header value
+ * @param audience  first audience, or {@code null}
+ * @param expiresAt {@code exp} in epoch millis, {@link Long#MAX_VALUE} when the token has none
+ * @param jti       digest of the {@code jti} for the {@link RevocationSet}, or {@code null}
+ */
+public record TokenIdentity(String uid, String userName, String audience, long expiresAt, TokenDigest jti) {
+
+    public static TokenIdentity from(Claims claims) {
+        String uid = claims.get("uid").toString();
+        String username = Optional.ofNullable(claims.getSubject()).orElse("");
+        Set<String> claimsAudience = claims.getAudience();
+        String audience = claimsAudience != null && !claimsAudience.isEmpty()
+                ? claimsAudience.iterator().next() : null;
+        Date expiration = claims.getExpiration();
+        long expiresAt = expiration != null ? expiration.getTime() : Long.MAX_VALUE;
+        String jti = claims.getId();
+        return new TokenIdentity(uid, URLEncoder.encode(username, StandardCharsets.UTF_8), audience, expiresAt,
+                jti != null ? TokenDigest.of(jti) : null);
+    }
+
+    public static TokenIdentity from(TokenClaims claims) {
+        String username = Optional.ofNullable(claims.subject()).orElse("");
+        return new TokenIdentity(claims.uid(), URLEncoder.encode(username, StandardCharsets.UTF_8),
+                claims.audience(), claims.expiresAt(), claims.jti() != null ? TokenDigest.of(claims.jti()) : null);
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+}
@@ -0,0 +1,76 @@
+package com.shun.gateway.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Counters for {@link com.shun.gateway.filter.CheckTokenFilter}, all registered up front so the
+ * filter only ever increments a counter it already holds.
+ * <p>
+ * {@code gateway.token.verdicts} is tagged with the tier that answered and the verdict it gave.
+ * Requests that joined a resolution already in flight are counted by
+ * {@code gateway.token.verify.coalesced} instead, not once more per tier.
+ */
+@Component
+public class TokenMetrics {
+
+    /**
+     * Where a verdict came from, cheapest first.
+     */
+    public enum Tier {
+        CACHE,
+        PRECHECK,
+        BLOOM,
+        THROTTLE,
+        REDIS,
+        VERIFY
+    }
+
+    /**
+     * Why a whitelisted path was forwarded without identity headers.
+     */
+    public enum Bypass {
+        MISSING_TOKEN,
+        REJECTED_TOKEN
+    }
+
+    private final Counter[][] verdicts = new Counter[Tier.values().length][TokenVerdict.values().length];
+    private final Counter[] bypasses = new Counter[Bypass.values().length];
+    private final Counter missing;
+
+    public TokenMetrics(MeterRegistry meterRegistry) {
+        for (Tier tier : Tier.values()) {
+            for (TokenVerdict verdict : TokenVerdict.values()) {
+                verdicts[tier.ordinal()][verdict.ordinal()] = Counter.builder("gateway.token.verdicts")
+                        .description("Token verdicts by the tier that reached them")
+                        .tag("tier", tier.name().toLowerCase(Locale.ROOT))
+                        .tag("verdict", verdict.name().toLowerCase(Locale.ROOT))
+                        .register(meterRegistry);
+            }
+        }
+        for (Bypass bypass : Bypass.values()) {
+            bypasses[bypass.ordinal()] = Counter.builder("gateway.whitelist.bypass")
+                    .description("Requests forwarded anonymously because the path is whitelisted")
+                    .tag("reason", bypass.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+        this.missing = Counter.builder("gateway.token.missing")
+                .description("Requests without a token in the authorization header or jwt cookie")
+                .register(meterRegistry);
+    }
+
+    public void verdict(Tier tier, TokenVerdict verdict) {
+        verdicts[tier.ordinal()][verdict.ordinal()].increment();
+    }
+
+    public void bypass(Bypass bypass) {
+        bypasses[bypass.ordinal()].increment();
+    }
+
+    public void missing() {
+        missing.increment();
+    }
+}
@@ -0,0 +1,141 @@
+package com.shun.gateway.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.shun.gateway.config.TokenPrecheckProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Rejects tokens that cannot pass verification without any cryptography: too long, not three
+ * non-empty base64url segments, or a header naming an algorithm outside
+ * {@code token-precheck.algorithms} or a kid there is no key for. Only tokens the verdict cache
+ * does not know get here; {@code gateway.token.precheck.rejected} counts them by reason.
+ */
+@Component
+public class TokenPrecheck {
+
+    /**
+     * Why a token was turned down.
+     */
+    public enum Rejection {
+        LENGTH,
+        SEGMENTS,
+        ENCODING,
+        ALGORITHM,
+        KID
+    }
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final boolean[] BASE64URL = new boolean[128];
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64URL[alphabet.charAt(i)] = true;
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxLength;
+    private final Set<String> algorithms;
+    private final CheckTokenUtil checkTokenUtil;
+    private final Counter[] rejections = new Counter[Rejection.values().length];
+
+    public TokenPrecheck(TokenPrecheckProperties properties, CheckTokenUtil checkTokenUtil, MeterRegistry meterRegistry) {
+        this.enabled = properties.isEnabled();
+        this.maxLength = properties.getMaxLength();
+        this.algorithms = Set.copyOf(properties.getAlgorithms());
+        this.checkTokenUtil = checkTokenUtil;
+        for (Rejection rejection : Rejection.values()) {
+            rejections[rejection.ordinal()] = Counter.builder("gateway.token.precheck.rejected")
+                    .description("Tokens rejected before verification because they cannot be valid")
+                    .tag("reason", rejection.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * @return why the token cannot be valid, or {@code null} when it is worth verifying
+     */
+    public Rejection check(String token) {
+        if (!enabled) {
+            return null;
+        }
+        Rejection rejection = inspect(token);
+        if (rejection != null) {
+            rejections[rejection.ordinal()].increment();
+        }
+        return rejection;
+    }
+
+    private Rejection inspect(String token) {
+        int length = token.length();
+        if (length > maxLength) {
+            return Rejection.LENGTH;
+        }
+        int headerEnd = -1;
+        int payloadEnd = -1;
+        int segmentStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c == TokenParse.SEPARATOR_CHAR) {
+                if (payloadEnd >= 0 || !isBase64Url(i - segmentStart)) {
+                    return Rejection.SEGMENTS;
+                }
+                if (headerEnd < 0) {
+                    headerEnd = i;
+                } else {
+                    payloadEnd = i;
+                }
+                segmentStart = i + 1;
+            } else if (c >= 128 || !BASE64URL[c]) {
+                return Rejection.ENCODING;
+            }
+        }
+        if (payloadEnd < 0 || !isBase64Url(length - segmentStart)) {
+            return Rejection.SEGMENTS;
+        }
+        return inspectHeader(Base64.getUrlDecoder().decode(token.substring(0, headerEnd)));
+    }
+
+    private Rejection inspectHeader(byte[] header) {
+        String algorithm = null;
+        String kid = null;
+        try (JsonParser parser = JSON.createParser(header)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Rejection.ENCODING;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("alg".equals(field) && value == JsonToken.VALUE_STRING) {
+                    algorithm = parser.getText();
+                } else if ("kid".equals(field) && value == JsonToken.VALUE_STRING) {
+                    kid = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return Rejection.ENCODING;
+        }
+        if (algorithm == null || !algorithms.contains(algorithm)) {
+            return Rejection.ALGORITHM;
+        }
+        return checkTokenUtil.hasKeyFor(kid) ? null : Rejection.KID;
+    }
+
+    // a base64url segment is non-empty and never leaves a single character over
+    private static boolean isBase64Url(int segmentLength) {
+        return segmentLength > 0 && segmentLength % 4 != 1;
+    }
+}
@@ -0,0 +1,11 @@
+package com.shun.gateway.util;
+
+/**
+ * Outcome of verifying a token, as remembered by the token caches.
+ */
+public enum TokenVerdict {
+    PASSED,
+    EXPIRED,
+    STOPPED,
+    UNKNOWN
+}
@@ -0,0 +1,105 @@
+package com.shun.gateway.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.shun.gateway.config.TokenCacheProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exact, size-bounded cache of passed tokens keyed by {@link TokenDigest}. Rejected tokens are
+ * kept in {@link GenerationalVerdictFilter} instead, so a flood of bad tokens cannot evict them.
+ * <p>
+ * A PASSED entry carries the pre-computed {@link TokenIdentity}, so a hit can be forwarded
+ * without parsing the token. Once the token's own {@code exp} is reached the entry turns into
+ * EXPIRED, no matter how long ago it was written.
+ */
+@Component
+public class TokenVerdictCache {
+
+    private final Cache<TokenDigest, Stored> cache;
+    private final long expireAfterWriteMillis;
+
+    public TokenVerdictCache(TokenCacheProperties properties) {
+        this.expireAfterWriteMillis = properties.getExpireAfterWrite().toMillis();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getExpireAfterWrite())
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    /**
+     * @return the cached entry, or {@code null} when the token has not been seen
+     */
+    public Entry get(TokenDigest digest) {
+        Stored stored = cache.getIfPresent(digest);
+        if (stored == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        // entries restored from a snapshot keep their original write time
+        if (now - stored.writtenAt >= expireAfterWriteMillis) {
+            cache.invalidate(digest);
+            return null;
+        }
+        Entry entry = stored.entry;
+        if (entry.verdict() == TokenVerdict.PASSED && entry.identity().isExpired(now)) {
+            entry = Entry.EXPIRED;
+            cache.put(digest, new Stored(entry, stored.writtenAt));
+        }
+        return entry;
+    }
+
+    public Entry putPassed(TokenDigest digest, TokenIdentity identity) {
+        Entry entry = Entry.passed(identity);
+        cache.put(digest, new Stored(entry, System.currentTimeMillis()));
+        return entry;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Re-inserts a passed entry written at {@code writtenAt}, unless it is already stale.
+     */
+    void restore(TokenDigest digest, TokenIdentity identity, long writtenAt) {
+        long now = System.currentTimeMillis();
+        if (now - writtenAt < expireAfterWriteMillis && !identity.isExpired(now)) {
+            cache.put(digest, new Stored(Entry.passed(identity), writtenAt));
+        }
+    }
+
+    void forEachPassed(PassedEntryConsumer consumer) {
+        cache.asMap().forEach((digest, stored) -> {
+            if (stored.entry.verdict() == TokenVerdict.PASSED) {
+                consumer.accept(digest, stored.entry.identity(), stored.writtenAt);
+            }
+        });
+    }
+
+    interface PassedEntryConsumer {
+        void accept(TokenDigest digest, TokenIdentity identity, long writtenAt);
+    }
+
+    public record Entry(TokenVerdict verdict, TokenIdentity identity) {
+        static final Entry EXPIRED = new Entry(TokenVerdict.EXPIRED, null);
+        static final Entry STOPPED = new Entry(TokenVerdict.STOPPED, null);
+
+        /**
+         * No verdict could be reached, e.g. verification was refused for lack of capacity.
+         */
+        public static final Entry UNKNOWN = new Entry(TokenVerdict.UNKNOWN, null);
+
+        public static Entry passed(TokenIdentity identity) {
+            return new Entry(TokenVerdict.PASSED, identity);
+        }
+
+        public static Entry rejected(TokenVerdict verdict) {
+            return verdict == TokenVerdict.EXPIRED ? EXPIRED : STOPPED;
+        }
+    }
+
+    private record Stored(Entry entry, long writtenAt) {
+    }
+}
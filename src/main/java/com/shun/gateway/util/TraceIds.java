@@ -0,0 +1,91 @@
+package com.shun.gateway.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace ids in the W3C Trace Context format: a {@code trace-id} of 32 lowercase hex digits and
+ * the {@code traceparent} header that carries it, {@code 00-<trace-id>-<parent-id>-01}.
+ * <p>
+ * The first 4 bytes of a new trace id are the epoch second, so ids still sort roughly by time
+ * as the former {@code millis-random} ids did; the other 12 are random, which covers the right
+ * 7 bytes the spec asks to be random. Each id is written as hex digits straight into one byte
+ * array that becomes the string, without concatenation or intermediate strings.
+ */
+public final class TraceIds {
+
+    public static final String TRACEPARENT = "traceparent";
+
+    static final int TRACE_ID_LENGTH = 32;
+    private static final int PARENT_ID_LENGTH = 16;
+    // "00-" trace-id "-" parent-id "-01"
+    private static final int TRACEPARENT_LENGTH = 3 + TRACE_ID_LENGTH + 1 + PARENT_ID_LENGTH + 3;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private TraceIds() {
+    }
+
+    /**
+     * @return a new trace id
+     */
+    public static String newTraceId() {
+        byte[] id = new byte[TRACE_ID_LENGTH];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        writeHex(id, 0, System.currentTimeMillis() / 1000, 8);
+        writeHex(id, 8, random.nextInt(), 8);
+        writeHex(id, 16, random.nextLong(), 16);
+        return new String(id, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return a {@code traceparent} for a trace id of {@link #newTraceId()}, with a new parent id, sampled
+     */
+    public static String traceparent(String traceId) {
+        byte[] header = new byte[TRACEPARENT_LENGTH];
+        header[0] = '0';
+        header[1] = '0';
+        header[2] = '-';
+        for (int i = 0; i < TRACE_ID_LENGTH; i++) {
+            header[3 + i] = (byte) traceId.charAt(i);
+        }
+        header[3 + TRACE_ID_LENGTH] = '-';
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long parentId;
+        do {
+            parentId = random.nextLong();
+        } while (parentId == 0);
+        writeHex(header, 4 + TRACE_ID_LENGTH, parentId, PARENT_ID_LENGTH);
+        header[TRACEPARENT_LENGTH - 3] = '-';
+        header[TRACEPARENT_LENGTH - 2] = '0';
+        header[TRACEPARENT_LENGTH - 1] = '1';
+        return new String(header, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the trace id of a well-formed {@code traceparent}, otherwise {@code null}
+     */
+    public static String fromTraceparent(String traceparent) {
+        if (traceparent == null || traceparent.length() < TRACEPARENT_LENGTH
+                || traceparent.charAt(2) != '-' || traceparent.charAt(3 + TRACE_ID_LENGTH) != '-'
+                || "ff".regionMatches(0, traceparent, 0, 2)) {
+            return null;
+        }
+        boolean zero = true;
+        for (int i = 3; i < 3 + TRACE_ID_LENGTH; i++) {
+            char c = traceparent.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return null;
+            }
+            zero &= c == '0';
+        }
+        return zero ? null : traceparent.substring(3, 3 + TRACE_ID_LENGTH);
+    }
+
+    // the low digits * 4 bits of value, most significant first
+    private static void writeHex(byte[] target, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            target[i] = HEX[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.BloomFilterProperties;
+import com.shun.gateway.config.TokenCacheProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes {@link TokenVerdictCache} and the {@link GenerationalVerdictFilter} generations to a
+ * file and maps it back in on startup, so a restarted gateway serves cached verdicts right away
+ * instead of sending every token through signature verification.
+ * <p>
+ * Layout (big endian): magic, version, saved-at, then the passed entries, each prefixed with a
+ * 1 byte and terminated by a 0 byte, then the generations oldest first, then a CRC32 of all
+ * preceding bytes. A file with the wrong magic, version or checksum is ignored.
+ */
+@Slf4j
+@Component
+public class VerdictSnapshotStore {
+
+    static final int MAGIC = 0x47575643;
+    static final int VERSION = 2;
+
+    private final TokenVerdictCache cache;
+    private final GenerationalVerdictFilter filter;
+    private final TokenCacheProperties.Snapshot snapshot;
+    private final BloomFilterProperties bloomFilterProperties;
+    private final RotationScheduler scheduler;
+    private final Path path;
+
+    private ScheduledFuture<?> saving;
+
+    public VerdictSnapshotStore(TokenVerdictCache cache, GenerationalVerdictFilter filter,
+                                TokenCacheProperties properties, BloomFilterProperties bloomFilterProperties,
+                                RotationScheduler scheduler) {
+        this.cache = cache;
+        this.filter = filter;
+        this.snapshot = properties.getSnapshot();
+        this.bloomFilterProperties = bloomFilterProperties;
+        this.scheduler = scheduler;
+        this.path = Paths.get(snapshot.getPath());
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!snapshot.isEnabled()) {
+            return;
+        }
+        if (Files.isRegularFile(path)) {
+            try {
+                load();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring unreadable token verdict snapshot {}: {}", path, e.toString());
+            }
+        }
+        saving = scheduler.scheduleAtFixedRate(this::saveQuietly, snapshot.getInterval());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (saving != null) {
+            saving.cancel(false);
+            saveQuietly();
+        }
+    }
+
+    void saveQuietly() {
+        try {
+            save();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write token verdict snapshot {}: {}", path, e.toString());
+        }
+    }
+
+    synchronized void save() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream file = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writeEntries(out);
+            writeGenerations(out);
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeEntries(DataOutputStream out) throws IOException {
+        IOException[] failure = new IOException[1];
+        cache.forEachPassed((digest, identity, writtenAt) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                out.writeByte(1);
+                out.writeLong(digest.high());
+                out.writeLong(digest.low());
+                out.writeLong(writtenAt);
+                out.writeLong(identity.expiresAt());
+                writeString(out, identity.uid());
+                writeString(out, identity.userName());
+                writeString(out, identity.audience());
+                TokenDigest jti = identity.jti();
+                out.writeBoolean(jti != null);
+                if (jti != null) {
+                    out.writeLong(jti.high());
+                    out.writeLong(jti.low());
+                }
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        out.writeByte(0);
+    }
+
+    private void writeGenerations(DataOutputStream out) throws IOException {
+        GenerationRing<GenerationalVerdictFilter.VerdictBits> ring = filter.generations();
+        List<GenerationRing.Generation<GenerationalVerdictFilter.VerdictBits>> generations = new ArrayList<>();
+        for (int age = ring.capacity() - 1; age >= 0; age--) {
+            GenerationRing.Generation<GenerationalVerdictFilter.VerdictBits> generation = ring.get(age);
+            if (generation != null) {
+                generations.add(generation);
+            }
+        }
+        out.writeInt(generations.size());
+        for (GenerationRing.Generation<GenerationalVerdictFilter.VerdictBits> generation : generations) {
+            GenerationalVerdictFilter.VerdictBits bits = generation.filter();
+            out.writeLong(generation.createdAt());
+            out.writeLong(generation.expectedInsertions());
+            out.writeLong(generation.inserts());
+            out.writeInt(bits.numHashFunctions());
+            int words = bits.wordCount();
+            out.writeInt(words);
+            for (int i = 0; i < words; i++) {
+                out.writeLong(bits.word(i));
+            }
+        }
+    }
+
+    synchronized void load() throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int payload = buffer.limit() - Long.BYTES;
+        if (payload < 2 * Integer.BYTES + Long.BYTES) {
+            throw new IOException("truncated file");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, payload));
+        if (crc.getValue() != buffer.getLong(payload)) {
+            throw new IOException("checksum mismatch");
+        }
+        buffer.limit(payload);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a token verdict snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported version " + version);
+        }
+        buffer.getLong();
+
+        int entries = 0;
+        while (buffer.get() == 1) {
+            TokenDigest digest = new TokenDigest(buffer.getLong(), buffer.getLong());
+            long writtenAt = buffer.getLong();
+            long expiresAt = buffer.getLong();
+            String uid = readString(buffer);
+            String userName = readString(buffer);
+            String audience = readString(buffer);
+            TokenDigest jti = buffer.get() != 0 ? new TokenDigest(buffer.getLong(), buffer.getLong()) : null;
+            TokenIdentity identity = new TokenIdentity(uid, userName, audience, expiresAt, jti);
+            cache.restore(digest, identity, writtenAt);
+            entries++;
+        }
+
+        long now = System.currentTimeMillis();
+        long retention = bloomFilterProperties.getWindow().toMillis() * bloomFilterProperties.getGenerations();
+        int count = buffer.getInt();
+        int restored = 0;
+        for (int g = 0; g < count; g++) {
+            long createdAt = buffer.getLong();
+            long expectedInsertions = buffer.getLong();
+            long inserts = buffer.getLong();
+            int numHashFunctions = buffer.getInt();
+            int words = buffer.getInt();
+            // generations are written oldest first, only the newest ones fit the ring
+            if (now - createdAt >= retention || count - g > filter.generations().capacity()) {
+                buffer.position(buffer.position() + words * Long.BYTES);
+                continue;
+            }
+            long[] bits = new long[words];
+            buffer.asLongBuffer().get(bits);
+            buffer.position(buffer.position() + words * Long.BYTES);
+            filter.generations().restore(new GenerationalVerdictFilter.VerdictBits(bits, numHashFunctions),
+                    expectedInsertions, inserts, createdAt);
+            restored++;
+        }
+        log.info("Restored token verdict snapshot {}: {} entries read, {} of {} filter generations", path, entries, restored, count);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
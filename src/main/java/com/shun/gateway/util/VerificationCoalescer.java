@@ -0,0 +1,57 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.VerificationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for token resolution: while a token is being resolved, concurrent requests
+ * carrying the same token subscribe to the same {@link Mono} instead of verifying it again.
+ * The entry is removed as soon as the resolution terminates.
+ */
+@Component
+public class VerificationCoalescer {
+
+    private final Map<TokenDigest, Mono<TokenVerdictCache.Entry>> inFlight = new ConcurrentHashMap<>();
+    private final int maxInFlight;
+    private final Counter coalesced;
+
+    public VerificationCoalescer(VerificationProperties properties, MeterRegistry meterRegistry) {
+        this.maxInFlight = properties.getMaxInFlight();
+        this.coalesced = Counter.builder("gateway.token.verify.coalesced")
+                .description("Token verifications saved by joining one already in flight")
+                .register(meterRegistry);
+        meterRegistry.gauge("gateway.token.verify.in.flight", inFlight, Map::size);
+    }
+
+    public Mono<TokenVerdictCache.Entry> resolve(TokenDigest digest, Supplier<Mono<TokenVerdictCache.Entry>> resolution) {
+        Mono<TokenVerdictCache.Entry> running = inFlight.get(digest);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+        if (inFlight.size() >= maxInFlight) {
+            return resolution.get();
+        }
+        SharedResolution shared = new SharedResolution();
+        shared.mono = resolution.get()
+                .doFinally(signal -> inFlight.remove(digest, shared.mono))
+                .cache();
+        running = inFlight.putIfAbsent(digest, shared.mono);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+        return shared.mono;
+    }
+
+    private static final class SharedResolution {
+        Mono<TokenVerdictCache.Entry> mono;
+    }
+}
@@ -0,0 +1,168 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.VerificationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive bound on the token verifications in progress, so a slow key service or a crowd of
+ * new sessions is answered with a quick 503 instead of a queue that every cache miss waits in.
+ * <p>
+ * The limit follows the queue in front of the verification threads (AIMD), which is the part of
+ * the delay it controls: {@link VerificationScheduler} reports, per verification, the wait for a
+ * thread apart from the time spent verifying on it. While the recent waits stay under
+ * {@code tolerance} times the recent verification time and the limit is in use, it grows by one per
+ * limit's worth of verifications; once they exceed it, or the verification pool rejects one, it is
+ * multiplied by {@code backoffRatio}, at most once per round of verifications admitted since the
+ * previous cut. So the limit settles around {@code threads * (1 + tolerance)} verifications, keeps
+ * the pool busy, and verifications that only got slower, a starved CPU included, do not cut it.
+ * Where nothing queues (INLINE and VIRTUAL modes) only rejections cut it.
+ * <p>
+ * Only verification runs through here, tokens answered by the cache, the Bloom filter or Redis
+ * are never refused. {@code gateway.token.verify.limit} is the current limit and
+ * {@code gateway.token.verify.shed} counts the refused verifications.
+ */
+@Component
+public class VerificationLimiter {
+
+    private static final double RECENT_WEIGHT = 0.2;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final LongSupplier nanoClock;
+    private final String retryAfter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter shed;
+
+    private volatile int limit;
+    // guarded by this
+    private double estimate;
+    private double recentWaitNanos;
+    private double recentServiceNanos;
+    private long lastCut = Long.MIN_VALUE;
+
+    @Autowired
+    public VerificationLimiter(VerificationProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, System::nanoTime);
+    }
+
+    VerificationLimiter(VerificationProperties properties, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        VerificationProperties.Limit limit = properties.getLimit();
+        this.enabled = limit.isEnabled();
+        this.minLimit = Math.max(1, limit.getMinLimit());
+        this.maxLimit = Math.max(minLimit, limit.getMaxLimit());
+        this.tolerance = limit.getTolerance();
+        this.backoffRatio = limit.getBackoffRatio();
+        this.nanoClock = nanoClock;
+        this.retryAfter = Long.toString(Math.max(1, properties.getRetryAfter().toSeconds()));
+        this.estimate = Math.min(maxLimit, Math.max(minLimit, limit.getInitialLimit()));
+        this.limit = (int) estimate;
+        this.shed = Counter.builder("gateway.token.verify.shed")
+                .description("Token verifications refused with 503 because the limit was reached")
+                .register(meterRegistry);
+        meterRegistry.gauge("gateway.token.verify.limit", this, VerificationLimiter::getLimit);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the {@code Retry-After} value for a verification that was refused
+     */
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return the verification, or a {@link RejectedExecutionException} when the limit is reached
+     */
+    public <T> Mono<T> run(Supplier<Mono<T>> verification) {
+        if (!enabled) {
+            return verification.get();
+        }
+        return Mono.defer(() -> {
+            if (!tryAcquire()) {
+                shed.increment();
+                return Mono.error(new RejectedExecutionException("Token verification limit of " + limit + " reached"));
+            }
+            long admittedAt = nanoClock.getAsLong();
+            Sample sample = new Sample();
+            return verification.get()
+                    .doOnSuccess(value -> onSample(admittedAt, sample, false))
+                    .doOnError(e -> onSample(admittedAt, sample, e instanceof RejectedExecutionException))
+                    .doFinally(signal -> inFlight.decrementAndGet())
+                    .contextWrite(context -> context.put(VerificationScheduler.TIMING, sample));
+        });
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void onSample(long admittedAt, Sample sample, boolean dropped) {
+        if (dropped) {
+            cut(admittedAt);
+            return;
+        }
+        if (!sample.recorded) {
+            return;
+        }
+        recentWaitNanos = recentWaitNanos + (sample.waitNanos - recentWaitNanos) * RECENT_WEIGHT;
+        recentServiceNanos = recentServiceNanos == 0
+                ? sample.serviceNanos
+                : recentServiceNanos + (sample.serviceNanos - recentServiceNanos) * RECENT_WEIGHT;
+        if (recentWaitNanos > tolerance * recentServiceNanos) {
+            cut(admittedAt);
+        } else if (inFlight.get() * 2 >= limit) {
+            setEstimate(estimate + 1 / estimate);
+        }
+    }
+
+    // once per round: verifications admitted before the previous cut already saw the old limit
+    private void cut(long admittedAt) {
+        if (admittedAt > lastCut) {
+            lastCut = nanoClock.getAsLong();
+            setEstimate(estimate * backoffRatio);
+        }
+    }
+
+    private void setEstimate(double estimate) {
+        this.estimate = Math.min(maxLimit, Math.max(minLimit, estimate));
+        this.limit = (int) this.estimate;
+    }
+
+    // written on the verification thread before the verdict is signalled, read after it
+    private static final class Sample implements VerificationScheduler.Timing {
+
+        private boolean recorded;
+        private long waitNanos;
+        private long serviceNanos;
+
+        @Override
+        public void record(long waitNanos, long serviceNanos) {
+            this.waitNanos = waitNanos;
+            this.serviceNanos = serviceNanos;
+            this.recorded = true;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.VerificationProperties;
+import com.shun.gateway.config.VerificationProperties.ExecutionMode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs signature verification according to {@link VerificationProperties#getMode()}.
+ * <p>
+ * When the BOUNDED queue is full the returned {@link Mono} fails with a
+ * {@link java.util.concurrent.RejectedExecutionException} instead of queueing without limit.
+ * <p>
+ * Whatever the mode, {@code gateway.token.verify.queued} counts verifications waiting for a
+ * thread (the {@code boundedElastic} backlog in ELASTIC mode), {@code gateway.token.verify.running}
+ * the ones being verified, and the {@code gateway.token.verify} timer how long the check took.
+ * The timer publishes histogram buckets rather than client-side percentiles, so quantiles can be
+ * aggregated across replicas and recording stays cheap.
+ * <p>
+ * A {@link Timing} left in the subscriber context under {@link #TIMING} is told, on the
+ * verification thread, how long that verification waited for a thread and how long it then took.
+ */
+@Slf4j
+@Component
+public class VerificationScheduler {
+
+    public static final String TIMING = VerificationScheduler.class.getName() + ".timing";
+
+    private final ExecutionMode mode;
+    private final Scheduler scheduler;
+    private final Timer verifyTimer;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+
+    public VerificationScheduler(VerificationProperties properties, MeterRegistry meterRegistry) {
+        ExecutionMode mode = properties.getMode();
+        ExecutorService executor = null;
+        if (mode == ExecutionMode.VIRTUAL) {
+            executor = newVirtualThreadExecutor();
+            if (executor == null) {
+                log.warn("Virtual threads need JDK 21, verifying tokens in BOUNDED mode instead");
+                mode = ExecutionMode.BOUNDED;
+            }
+        }
+        if (mode == ExecutionMode.BOUNDED) {
+            executor = newBoundedExecutor(properties.getThreads(), properties.getQueueCapacity());
+        }
+        this.mode = mode;
+        this.scheduler = switch (mode) {
+            case INLINE -> null;
+            case ELASTIC -> Schedulers.boundedElastic();
+            default -> Schedulers.fromExecutorService(executor, "token-verify");
+        };
+        this.verifyTimer = Timer.builder("gateway.token.verify")
+                .description("Signature verification time, excluding the wait for a thread")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(meterRegistry);
+        meterRegistry.gauge("gateway.token.verify.queued", queued);
+        meterRegistry.gauge("gateway.token.verify.running", running);
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    public <T> Mono<T> run(Callable<T> verification) {
+        return Mono.deferContextual(context -> {
+            Timing timing = context.getOrDefault(TIMING, null);
+            long enqueuedAt = System.nanoTime();
+            if (scheduler == null) {
+                return Mono.fromCallable(() -> timed(verification, enqueuedAt, timing));
+            }
+            queued.incrementAndGet();
+            // whichever of start, cancel or rejection comes first takes the verification off the queue
+            AtomicBoolean dequeued = new AtomicBoolean();
+            return Mono.fromCallable(() -> {
+                        if (dequeued.compareAndSet(false, true)) {
+                            queued.decrementAndGet();
+                        }
+                        return timed(verification, enqueuedAt, timing);
+                    })
+                    .subscribeOn(scheduler)
+                    .doFinally(signal -> {
+                        if (dequeued.compareAndSet(false, true)) {
+                            queued.decrementAndGet();
+                        }
+                    });
+        });
+    }
+
+    private <T> T timed(Callable<T> verification, long enqueuedAt, Timing timing) throws Exception {
+        running.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return verification.call();
+        } finally {
+            long serviceNanos = System.nanoTime() - start;
+            verifyTimer.record(serviceNanos, TimeUnit.NANOSECONDS);
+            running.decrementAndGet();
+            if (timing != null) {
+                timing.record(start - enqueuedAt, serviceNanos);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null && mode != ExecutionMode.ELASTIC) {
+            scheduler.dispose();
+        }
+    }
+
+    /**
+     * Receives the timings of one verification.
+     */
+    public interface Timing {
+
+        void record(long waitNanos, long serviceNanos);
+    }
+
+    private static ExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "token-verify-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.MyFilterConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code my-filter.config.whiteList} patterns compiled into a segment trie.
+ * <p>
+ * Patterns made only of literal segments, {@code *} segments and a trailing {@code **} are walked
+ * segment by segment, the rest ({@code ?}, {@code {var}}, partial wildcards...) are matched one
+ * by one with {@link PathPattern} as before. The compiled snapshot is replaced in one write on
+ * every Nacos refresh; a whitelist that fails to parse leaves the previous one in place.
+ */
+@Slf4j
+@Component
+public class WhitePathIndex {
+
+    private final MyFilterConfiguration myFilterConfiguration;
+
+    private volatile Snapshot snapshot = Snapshot.compile(List.of());
+
+    public WhitePathIndex(MyFilterConfiguration myFilterConfiguration) {
+        this.myFilterConfiguration = myFilterConfiguration;
+    }
+
+    @PostConstruct
+    public void init() {
+        this.snapshot = Snapshot.compile(myFilterConfiguration.getWhiteList());
+    }
+
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void onRefresh() {
+        List<String> whiteList = myFilterConfiguration.getWhiteList();
+        Snapshot current = snapshot;
+        if (current.patterns.equals(whiteList == null ? List.of() : whiteList)) {
+            return;
+        }
+        try {
+            this.snapshot = Snapshot.compile(whiteList);
+        } catch (RuntimeException e) {
+            log.error("Keeping the previous path whitelist, the refreshed one failed to parse", e);
+        }
+    }
+
+    public boolean matches(PathContainer path) {
+        return snapshot.matches(path);
+    }
+
+    static final class Snapshot {
+        private static final PathPatternParser PARSER = new PathPatternParser();
+
+        private final List<String> patterns;
+        private final Node root = new Node();
+        private final PathPattern[] fallback;
+
+        private Snapshot(List<String> patterns) {
+            this.patterns = patterns;
+            List<PathPattern> fallback = new ArrayList<>();
+            for (String pattern : patterns) {
+                PathPattern parsed = PARSER.parse(pattern);
+                if (!insert(pattern)) {
+                    fallback.add(parsed);
+                }
+            }
+            this.fallback = fallback.toArray(new PathPattern[0]);
+        }
+
+        static Snapshot compile(List<String> patterns) {
+            return new Snapshot(patterns == null ? List.of() : List.copyOf(patterns));
+        }
+
+        /**
+         * @return {@code false} when the pattern cannot be expressed in the trie
+         */
+        private boolean insert(String pattern) {
+            if (pattern.length() < 2 || pattern.charAt(0) != '/' || pattern.endsWith("/")) {
+                return false;
+            }
+            String[] segments = pattern.substring(1).split("/", -1);
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                boolean last = i == segments.length - 1;
+                if (segment.isEmpty() || (segment.equals("**") && !last)
+                        || (!segment.equals("*") && !segment.equals("**") && !isLiteral(segment))) {
+                    return false;
+                }
+            }
+            Node node = root;
+            for (String segment : segments) {
+                if (segment.equals("**")) {
+                    node.rest = true;
+                    return true;
+                }
+                node = segment.equals("*") ? node.wildcard() : node.literal(segment);
+            }
+            node.end = true;
+            return true;
+        }
+
+        private static boolean isLiteral(String segment) {
+            for (int i = 0; i < segment.length(); i++) {
+                switch (segment.charAt(i)) {
+                    case '*', '?', '{', '}', ';':
+                        return false;
+                    default:
+                }
+            }
+            return true;
+        }
+
+        boolean matches(PathContainer path) {
+            if (root.matches(path.elements(), 0)) {
+                return true;
+            }
+            for (PathPattern pattern : fallback) {
+                if (pattern.matches(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Node {
+        private Map<String, Node> literals = Map.of();
+        private Node wildcard;
+        private boolean end;
+        private boolean rest;
+
+        Node literal(String segment) {
+            if (literals.isEmpty()) {
+                literals = new HashMap<>();
+            }
+            return literals.computeIfAbsent(segment, s -> new Node());
+        }
+
+        Node wildcard() {
+            if (wildcard == null) {
+                wildcard = new Node();
+            }
+            return wildcard;
+        }
+
+        /**
+         * @param index position of the separator that follows the segments matched so far
+         */
+        boolean matches(List<PathContainer.Element> elements, int index) {
+            if (rest) {
+                return true;
+            }
+            int size = elements.size();
+            if (index == size) {
+                return end;
+            }
+            if (!(elements.get(index) instanceof PathContainer.Separator)) {
+                return false;
+            }
+            if (index + 1 == size) {
+                // like PathPattern, a trailing * also matches a missing last segment: /a/* matches /a/
+                return wildcard != null && wildcard.end;
+            }
+            if (!(elements.get(index + 1) instanceof PathContainer.PathSegment segment)) {
+                return false;
+            }
+            String value = segment.valueToMatch();
+            Node next = literals.get(value);
+            if (next != null && next.matches(elements, index + 2)) {
+                return true;
+            }
+            if (wildcard == null) {
+                return false;
+            }
+            if (value.isEmpty()) {
+                return wildcard.end && index + 2 == size;
+            }
+            return wildcard.matches(elements, index + 2);
+        }
+    }
+}
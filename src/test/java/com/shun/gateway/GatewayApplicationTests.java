@@ -1,13 +1,70 @@
 package com.shun.gateway;
 
+import com.shun.gateway.filter.RouteScopedRoutingFilter;
+import com.shun.gateway.util.IndexedRoutePredicateHandlerMapping;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
 
 @SpringBootTest
 class GatewayApplicationTests {
 
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private RoutePredicateHandlerMapping routePredicateHandlerMapping;
+
+	@Autowired
+	private List<GlobalFilter> globalFilters;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void registersGatewayMeters() {
+		assertThat(meterRegistry.find("gateway.token.verdicts").counters()).hasSize(24);
+		assertThat(meterRegistry.find("gateway.bloom.fpp").tag("filter", "verdict").gauges()).hasSize(5);
+		assertThat(meterRegistry.find("gateway.token.verify").timer()).isNotNull();
+	}
+
+	@Test
+	void looksUpRoutesThroughTheIndex() {
+		assertThat(routePredicateHandlerMapping).isInstanceOf(IndexedRoutePredicateHandlerMapping.class);
+		// the first lookups walk every route while the index is built
+		for (int i = 0; i < 3; i++) {
+			assertThat(routeOf("/test/get", "localhost")).isEqualTo("test");
+			assertThat(routeOf("/orders", "api.demo.com")).isEqualTo("host_route");
+			assertThat(routeOf("/orders", "localhost")).isNull();
+		}
+	}
+
+	@Test
+	void routesPooledRoutesBeforeTheGatewayDoes() {
+		assertThat(globalFilters).filteredOn(NettyRoutingFilter.class::isInstance).hasSize(2)
+				.anySatisfy(filter -> assertThat(filter).isInstanceOf(RouteScopedRoutingFilter.class)
+						.extracting(f -> ((NettyRoutingFilter) f).getOrder()).isEqualTo(NettyRoutingFilter.ORDER - 1));
+	}
+
+	private String routeOf(String path, String host) {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get(path).header(HttpHeaders.HOST, host));
+		routePredicateHandlerMapping.getHandler(exchange).block();
+		Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+		return route == null ? null : route.getId();
+	}
+
 }
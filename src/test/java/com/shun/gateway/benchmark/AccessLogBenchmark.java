@@ -0,0 +1,173 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.AccessLogProperties;
+import com.shun.gateway.filter.AccessLogFilter;
+import com.shun.gateway.filter.CheckTokenFilter;
+import com.shun.gateway.util.AccessLog;
+import com.shun.gateway.util.TokenIdentity;
+import com.shun.gateway.util.TokenVerdict;
+import com.shun.gateway.util.TraceIds;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * The access log on the request's thread and behind it. {@code filterEnabled} against
+ * {@code filterDisabled} and {@code baseline} (the chain alone) is what a request pays on the
+ * event loop, over one exchange reused throughout as the filter only reads it, and
+ * {@code filterSampledOut} the part of it spent before the ring (a sample rate of 0); {@code sustained} is how many records per second the writer turns
+ * into file lines when the producer waits for room instead of dropping, next to
+ * {@code writePerLine}, one write system call per line as a synchronous access log does. The
+ * trace id benchmarks compare the W3C ids against the former {@code millis-random} ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccessLogBenchmark {
+
+    private static final WebFilterChain CHAIN = exchange -> {
+        exchange.getResponse().setStatusCode(HttpStatus.OK);
+        return Mono.empty();
+    };
+    private static final Route ROUTE = Route.async().id("orders").uri("http://localhost:8080")
+            .predicate(exchange -> true).build();
+    private static final TokenIdentity IDENTITY = new TokenIdentity("1875016648", "bella", "pc", 0, null);
+    private static final String TRACE_ID = TraceIds.newTraceId();
+
+    private Path dir;
+    private AccessLog accessLog;
+    private AccessLogFilter enabled;
+    private AccessLogFilter disabled;
+    private AccessLogFilter sampledOut;
+    private FileChannel perLine;
+    private ByteBuffer line;
+    private MockServerWebExchange exchange;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("access-log-benchmark");
+        AccessLogProperties properties = new AccessLogProperties();
+        properties.setEnabled(true);
+        properties.setPath(dir.resolve("access.log").toString());
+        accessLog = new AccessLog(properties, new SimpleMeterRegistry());
+        accessLog.start();
+        enabled = new AccessLogFilter(accessLog);
+        exchange = exchange();
+        disabled = new AccessLogFilter(new AccessLog(new AccessLogProperties(), new SimpleMeterRegistry()));
+        AccessLogProperties none = new AccessLogProperties();
+        none.setEnabled(true);
+        none.setSampleRate(0);
+        // never started, the sampling leaves nothing to write
+        sampledOut = new AccessLogFilter(new AccessLog(none, new SimpleMeterRegistry()));
+
+        perLine = FileChannel.open(dir.resolve("per-line.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        line = ByteBuffer.wrap(("{\"time\":1760000000000,\"traceId\":\"" + TRACE_ID + "\",\"method\":\"GET\","
+                + "\"path\":\"/api/orders/42\",\"route\":\"orders\",\"status\":200,\"outcome\":\"completed\","
+                + "\"micros\":1234,\"user\":\"1875016648\",\"verdict\":\"passed\"}\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the access log rolls over by itself, the per-line file only grows
+    @Setup(Level.Iteration)
+    public void truncate() throws IOException {
+        perLine.truncate(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        accessLog.stop();
+        perLine.close();
+        FileSystemUtils.deleteRecursively(dir);
+    }
+
+    private static MockServerWebExchange exchange() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders/42"));
+        // what the route lookup and CheckTokenFilter leave behind
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, ROUTE);
+        exchange.getAttributes().put(CheckTokenFilter.TRACE_ID_ATTR, TRACE_ID);
+        exchange.getAttributes().put(CheckTokenFilter.VERDICT_ATTR, TokenVerdict.PASSED);
+        exchange.getAttributes().put(CheckTokenFilter.IDENTITY_ATTR, IDENTITY);
+        return exchange;
+    }
+
+    @Benchmark
+    public Object baseline() {
+        return CHAIN.filter(exchange).block();
+    }
+
+    @Benchmark
+    public Object filterDisabled() {
+        return disabled.filter(exchange, CHAIN).block();
+    }
+
+    @Benchmark
+    public Object filterSampledOut() {
+        return sampledOut.filter(exchange, CHAIN).block();
+    }
+
+    @Benchmark
+    public Object filterEnabled() {
+        return enabled.filter(exchange, CHAIN).block();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void sustained() {
+        while (!accessLog.record(1760000000000L, 1_234_000, TRACE_ID, HttpMethod.GET, "/api/orders/42", "orders",
+                200, AccessLog.Outcome.COMPLETED, "1875016648", TokenVerdict.PASSED)) {
+            // lets the writer run on a machine with fewer cores than threads
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int writePerLine() throws IOException {
+        return perLine.write(line.duplicate());
+    }
+
+    @Benchmark
+    public String newTraceId() {
+        return TraceIds.newTraceId();
+    }
+
+    @Benchmark
+    public String legacyTraceId() {
+        return System.currentTimeMillis() + "-" + ThreadLocalRandom.current().nextLong(100000, 999999);
+    }
+}
@@ -0,0 +1,93 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.BloomFilterProperties;
+import com.shun.gateway.util.GenerationalVerdictFilter;
+import com.shun.gateway.util.TokenDigest;
+import com.shun.gateway.util.TokenVerdict;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Put and lookup on the same filter at once, one writer against three readers, for
+ * {@link CircleBloomFilter} and {@link GenerationalVerdictFilter}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BloomContentionBenchmark {
+
+    private static final int TOKENS = 1 << 16;
+
+    private CircleBloomFilter circleBloomFilter;
+    private GenerationalVerdictFilter verdictFilter;
+    private String[] tokens;
+    private TokenDigest[] digests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BloomFilterProperties properties = new BloomFilterProperties();
+        // the million keys CircleBloomFilter is sized for
+        properties.setMinInsertions(10000 * 100L);
+        circleBloomFilter = new CircleBloomFilter();
+        verdictFilter = new GenerationalVerdictFilter(properties, null);
+        tokens = new String[TOKENS];
+        digests = new TokenDigest[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            tokens[i] = Tokens.token(i);
+            digests[i] = TokenDigest.of(tokens[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            return next++ & (TOKENS - 1);
+        }
+    }
+
+    @Benchmark
+    @Group("circle")
+    @GroupThreads(1)
+    public void circlePut(Cursor cursor) {
+        circleBloomFilter.put(tokens[cursor.advance()]);
+    }
+
+    @Benchmark
+    @Group("circle")
+    @GroupThreads(3)
+    public boolean circleExists(Cursor cursor) {
+        return circleBloomFilter.exists(tokens[cursor.advance()]);
+    }
+
+    @Benchmark
+    @Group("verdict")
+    @GroupThreads(1)
+    public void verdictPut(Cursor cursor) {
+        verdictFilter.put(digests[cursor.advance()], TokenVerdict.STOPPED);
+    }
+
+    @Benchmark
+    @Group("verdict")
+    @GroupThreads(3)
+    public TokenVerdict verdictLookup(Cursor cursor) {
+        return verdictFilter.lookup(digests[cursor.advance()]);
+    }
+}
@@ -0,0 +1,98 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.TokenCacheProperties;
+import com.shun.gateway.filter.CheckTokenFilter;
+import com.shun.gateway.support.CheckTokenFilters;
+import com.shun.gateway.support.SignedTokens;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CheckTokenFilter} over mock exchanges, for the accept path (cached token, and a token
+ * verified on every request because the cache holds nothing) and the reject paths (no token,
+ * known-bad token). Run with {@code -prof gc}; {@code baseline} is the cost of
+ * the mock exchange and chain alone, to subtract from the other results. The requests carry a
+ * trace id so the numbers do not include generating one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckTokenFilterBenchmark {
+
+    private static final GatewayFilterChain CHAIN = exchange -> Mono.empty();
+
+    private CheckTokenFilter filter;
+    private CheckTokenFilter uncachedFilter;
+    private String accepted;
+    private String stopped;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SignedTokens signedTokens = new SignedTokens();
+        filter = CheckTokenFilters.builder(signedTokens).whitelist("/public/**").build();
+        TokenCacheProperties noCache = new TokenCacheProperties();
+        noCache.setMaximumSize(0);
+        uncachedFilter = CheckTokenFilters.builder(signedTokens).withCacheProperties(noCache).whitelist("/public/**").build();
+        accepted = "Bearer " + signedTokens.token(1875016648L);
+        stopped = "Bearer " + new SignedTokens().token(1875016648L);
+        // first pass verifies and remembers the verdicts
+        filter.filter(exchange(accepted), CHAIN).block();
+        filter.filter(exchange(stopped), CHAIN).block();
+    }
+
+    /**
+     * A new request every time: mutating the headers of a forwarded request writes through to
+     * the original, so a reused request would lose its {@code Bearer} prefix after one pass.
+     */
+    private static MockServerWebExchange exchange(String authorization) {
+        MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get("/api/orders/42")
+                .header(CheckTokenFilter.TRACE_ID, "bench");
+        if (authorization != null) {
+            request.header(CheckTokenFilter.AUTHHEADER, authorization);
+        }
+        return MockServerWebExchange.from(request);
+    }
+
+    @Benchmark
+    public Object baseline() {
+        return CHAIN.filter(exchange(accepted)).block();
+    }
+
+    @Benchmark
+    public Object acceptCachedToken() {
+        return filter.filter(exchange(accepted), CHAIN).block();
+    }
+
+    @Benchmark
+    public Object acceptUncachedToken() {
+        return uncachedFilter.filter(exchange(accepted), CHAIN).block();
+    }
+
+    @Benchmark
+    public Object rejectMissingToken() {
+        return filter.filter(exchange(null), CHAIN).block();
+    }
+
+    @Benchmark
+    public Object rejectStoppedToken() {
+        return filter.filter(exchange(stopped), CHAIN).block();
+    }
+}
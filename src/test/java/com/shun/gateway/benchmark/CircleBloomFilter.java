@@ -0,0 +1,62 @@
+package com.shun.gateway.benchmark;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rotating Bloom filters the gateway used before {@link com.shun.gateway.util.GenerationalVerdictFilter},
+ * kept as it was as the baseline of the filter benchmarks: a {@link CopyOnWriteArrayList} of five
+ * filters sized for a million keys, rotated every minute by an executor of each instance.
+ * Only the Spring annotations and the demo {@code main} are gone, and the rotation step is
+ * callable as {@link #rotate()} so a benchmark can fill the generations up front.
+ * <p>
+ * Created by chenwenshun on 2022/6/30
+ */
+final class CircleBloomFilter {
+
+
+    private CopyOnWriteArrayList<BloomFilter<CharSequence>> filters;
+
+    private static final long expectedInsertions = 10000 * 100L;
+    private static final double fpp = 0.000001;
+
+
+    CircleBloomFilter() {
+        this.filters = new CopyOnWriteArrayList<>();
+        filters.add(BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, fpp));
+        doCircle();
+    }
+
+    private void doCircle() {
+        new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "CircleBloomFilter");
+            thread.setDaemon(true);
+            return thread;
+        }).scheduleAtFixedRate(this::rotate, 1, 1, TimeUnit.MINUTES);
+    }
+
+    void rotate() {
+        this.filters.add(0, BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, fpp));
+        if(filters.size() > 5){
+            this.filters.remove(filters.size() -1);
+        }
+    }
+
+    public void put(String key){
+        this.filters.get(0).put(key);
+    }
+
+    public Boolean exists(String key){
+        for (BloomFilter<CharSequence> filter : this.filters) {
+            if (filter.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.support.SignedTokens;
+import com.shun.gateway.util.TokenClaims;
+import com.shun.gateway.util.TokenParse;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.io.Deserializer;
+import io.jsonwebtoken.jackson.io.JacksonDeserializer;
+import io.jsonwebtoken.lang.Strings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unverified claims extraction: the previous {@code TokenParse.parseToken} (split into strings,
+ * decode, build the whole claims map) against the streaming parser. Run with {@code -prof gc}
+ * to compare bytes allocated per token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClaimsParsingBenchmark {
+
+    private final TokenParse tokenParse = new TokenParse();
+    private final Deserializer<Map<String, ?>> deserializer = new JacksonDeserializer<>();
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        token = new SignedTokens().token(1875016648L);
+    }
+
+    @Benchmark
+    public Claims fullClaimsMap() {
+        StringBuilder sb = new StringBuilder(128);
+        String payload = null;
+        int delimiterCount = 0;
+        for (char c : token.toCharArray()) {
+            if (c == TokenParse.SEPARATOR_CHAR) {
+                CharSequence segment = Strings.clean(sb);
+                if (delimiterCount++ == 1) {
+                    payload = segment != null ? segment.toString() : null;
+                    break;
+                }
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        String json = new String(Decoders.BASE64URL.decode(payload), Strings.UTF_8);
+        return new DefaultClaims(deserializer.deserialize(json.getBytes(Strings.UTF_8)));
+    }
+
+    @Benchmark
+    public TokenClaims streaming() {
+        return tokenParse.parseToken(token);
+    }
+}
@@ -0,0 +1,66 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.JwtKeyProperties;
+import com.shun.gateway.support.SignedTokens;
+import com.shun.gateway.util.CheckTokenUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ES256 verification throughput: building a parser on every call (the previous
+ * {@code CheckTokenUtil.check}) against the kid-indexed, pre-built parsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtVerificationBenchmark {
+
+    private PublicKey publicKey;
+    private CheckTokenUtil checkTokenUtil;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SignedTokens signedTokens = new SignedTokens();
+        SignedTokens otherKey = new SignedTokens("other");
+        publicKey = signedTokens.getKeyPair().getPublic();
+        JwtKeyProperties properties = new JwtKeyProperties();
+        properties.setKeys(Map.of(SignedTokens.KID, signedTokens.publicKeyPem(), "other", otherKey.publicKeyPem()));
+        checkTokenUtil = new CheckTokenUtil(properties, new MockEnvironment());
+        checkTokenUtil.init();
+        token = signedTokens.token(1875016648L);
+    }
+
+    @Benchmark
+    public Claims parserPerCall() {
+        return Jwts.parser()
+                .verifyWith(publicKey)
+                .build()
+                .parseSignedClaims(token)
+                .getPayload();
+    }
+
+    @Benchmark
+    public Claims prebuiltParserByKid() {
+        return checkTokenUtil.check(token);
+    }
+}
@@ -0,0 +1,135 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.util.RouteIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.gateway.handler.AsyncPredicate;
+import org.springframework.cloud.gateway.handler.predicate.HostRoutePredicateFactory;
+import org.springframework.cloud.gateway.handler.predicate.PathRoutePredicateFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route lookup over a discovery-sized route table: the walk over every route that
+ * {@code RoutePredicateHandlerMapping} does against the {@link RouteIndex} candidates, for the
+ * last discovery route, a {@code Host} route and a path no route matches, plus the cost of
+ * rebuilding the index on a refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteLookupBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    private int routes;
+
+    private List<Route> table;
+    private Route[] all;
+    private RouteIndex index;
+    private ServerWebExchange lastService;
+    private ServerWebExchange hostRoute;
+    private ServerWebExchange miss;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PathRoutePredicateFactory path = new PathRoutePredicateFactory();
+        HostRoutePredicateFactory host = new HostRoutePredicateFactory();
+        table = new ArrayList<>();
+        // the shape of application.yaml: a few hand-written routes, then one per Nacos service
+        table.add(route("test", path.applyAsync(config -> config.setPatterns(List.of("/test/{segment}")))));
+        table.add(route("host_route", host.applyAsync(config -> config.setPatterns(List.of("api.demo.com")))));
+        for (int i = 0; table.size() < routes; i++) {
+            String serviceId = "service-" + i;
+            table.add(route("ReactiveCompositeDiscoveryClient_" + serviceId,
+                    path.applyAsync(config -> config.setPatterns(List.of("/" + serviceId + "/**")))));
+        }
+        all = table.toArray(new Route[0]);
+        index = RouteIndex.build(table, Set.of());
+        lastService = exchange("/service-" + (routes - 3) + "/orders/42", "gateway.internal");
+        hostRoute = exchange("/orders/42", "api.demo.com");
+        miss = exchange("/unknown/orders/42", "gateway.internal");
+    }
+
+    private static Route route(String id, AsyncPredicate<ServerWebExchange> predicate) {
+        return Route.async().id(id).uri("lb://" + id).asyncPredicate(predicate).build();
+    }
+
+    private static ServerWebExchange exchange(String path, String host) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get(path).header(HttpHeaders.HOST, host));
+    }
+
+    /**
+     * The evaluation {@code RoutePredicateHandlerMapping.lookupRoute} runs over its routes.
+     */
+    private static Route lookup(Route[] routes, ServerWebExchange exchange) {
+        return Flux.fromArray(routes)
+                .concatMap(route -> Mono.just(route)
+                        .filterWhen(r -> r.getPredicate().apply(exchange))
+                        .onErrorResume(e -> Mono.empty()))
+                .next()
+                .block();
+    }
+
+    private Route indexed(ServerWebExchange exchange) {
+        String host = exchange.getRequest().getHeaders().getHost().getHostName();
+        return lookup(index.candidates(exchange.getRequest().getPath().pathWithinApplication(), host), exchange);
+    }
+
+    @Benchmark
+    public Route linearLastService() {
+        return lookup(all, lastService);
+    }
+
+    @Benchmark
+    public Route linearHostRoute() {
+        return lookup(all, hostRoute);
+    }
+
+    @Benchmark
+    public Route linearMiss() {
+        return lookup(all, miss);
+    }
+
+    @Benchmark
+    public Route indexLastService() {
+        return indexed(lastService);
+    }
+
+    @Benchmark
+    public Route indexHostRoute() {
+        return indexed(hostRoute);
+    }
+
+    @Benchmark
+    public Route indexMiss() {
+        return indexed(miss);
+    }
+
+    @Benchmark
+    public RouteIndex rebuild() {
+        return RouteIndex.build(table, Set.of());
+    }
+}
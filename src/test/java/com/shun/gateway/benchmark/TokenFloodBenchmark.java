@@ -0,0 +1,104 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.TokenPrecheckProperties;
+import com.shun.gateway.config.VerificationProperties;
+import com.shun.gateway.filter.CheckTokenFilter;
+import com.shun.gateway.support.CheckTokenFilters;
+import com.shun.gateway.support.SignedTokens;
+import com.shun.gateway.util.VerificationLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A flood of bad tokens from one client through {@link CheckTokenFilter}, every one of them new
+ * so neither the verdict cache nor the Bloom filter has seen it: random strings, and tokens with
+ * a valid header and payload but a made-up signature. {@code guarded=false} turns off the
+ * pre-check and the failure throttle, so each token is decoded, verified and added to the Bloom
+ * filter; with them the strings stop at the pre-check and the forged tokens at the throttle
+ * once the client used up its failures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenFloodBenchmark {
+
+    private static final GatewayFilterChain CHAIN = exchange -> Mono.empty();
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("203.0.113.7", 40000);
+    private static final char[] BASE64URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    @Param({"true", "false"})
+    public boolean guarded;
+
+    private CheckTokenFilter filter;
+    private String signedPart;
+    private char[] signature;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SignedTokens signedTokens = new SignedTokens();
+        TokenPrecheckProperties precheck = new TokenPrecheckProperties();
+        precheck.setEnabled(guarded);
+        precheck.getThrottle().setEnabled(guarded);
+        VerificationProperties verification = new VerificationProperties();
+        verification.getLimit().setEnabled(false);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        filter = CheckTokenFilters.builder(signedTokens)
+                .withMeterRegistry(meterRegistry)
+                .withLimiter(new VerificationLimiter(verification, meterRegistry))
+                .withPrecheck(precheck)
+                .whitelist("/public/**")
+                .build();
+        String token = signedTokens.token(1875016648L);
+        int signatureStart = token.lastIndexOf('.') + 1;
+        signedPart = token.substring(0, signatureStart);
+        signature = token.substring(signatureStart).toCharArray();
+    }
+
+    @Benchmark
+    public Object randomString() {
+        return filter.filter(exchange(next(signature.clone())), CHAIN).block();
+    }
+
+    @Benchmark
+    public Object forgedSignature() {
+        return filter.filter(exchange(signedPart + next(signature.clone())), CHAIN).block();
+    }
+
+    // a signature-sized base64url string that differs from every previous one
+    private String next(char[] chars) {
+        long n = ++sequence;
+        for (int i = 0; i < 11; i++, n >>>= 6) {
+            chars[i] = BASE64URL[(int) (n & 63)];
+        }
+        return new String(chars);
+    }
+
+    private static MockServerWebExchange exchange(String token) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders/42")
+                .remoteAddress(CLIENT)
+                .header(CheckTokenFilter.TRACE_ID, "bench")
+                .header(CheckTokenFilter.AUTHHEADER, "Bearer " + token));
+    }
+}
@@ -0,0 +1,72 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.util.TokenMetrics;
+import com.shun.gateway.util.TokenVerdict;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the meters add to a request on the Prometheus registry: the verdict counter every token
+ * request increments, and the verify timer with its percentile histogram, recorded once per
+ * signature check. {@code verifyTimerClientPercentiles} is the same timer computing p50/p95/p99
+ * in the gateway instead, the alternative the histogram was chosen over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TokenMetricsBenchmark {
+
+    private TokenMetrics tokenMetrics;
+    private Timer verifyTimer;
+    private Timer clientPercentilesTimer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        tokenMetrics = new TokenMetrics(registry);
+        // the same timer VerificationScheduler registers
+        verifyTimer = Timer.builder("gateway.token.verify")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(registry);
+        clientPercentilesTimer = Timer.builder("gateway.token.verify.client")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+    }
+
+    @Benchmark
+    public void verdictCounter() {
+        tokenMetrics.verdict(TokenMetrics.Tier.CACHE, TokenVerdict.PASSED);
+    }
+
+    @Benchmark
+    public void verifyTimer() {
+        verifyTimer.record(48_000, TimeUnit.NANOSECONDS);
+    }
+
+    @Benchmark
+    public void verifyTimerClientPercentiles() {
+        clientPercentilesTimer.record(48_000, TimeUnit.NANOSECONDS);
+    }
+}
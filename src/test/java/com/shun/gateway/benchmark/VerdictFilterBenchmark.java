@@ -0,0 +1,88 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.BloomFilterProperties;
+import com.shun.gateway.util.GenerationalVerdictFilter;
+import com.shun.gateway.util.TokenDigest;
+import com.shun.gateway.util.TokenVerdict;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares resolving a token's state with three prefixed {@link CircleBloomFilter} probes (the
+ * original filter hot path) against a single {@link GenerationalVerdictFilter} lookup.
+ * Both structures hold five generations with 100k rejected tokens each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerdictFilterBenchmark {
+
+    static final String PASSED_PREFIX = "passed";
+    static final String STOPPED_PREFIX = "stopped";
+    static final String EXPIRED_PREFIX = "expired";
+
+    /**
+     * stopped: the token is a known rejected one; unknown: never seen, every generation is probed.
+     */
+    @Param({"stopped", "unknown"})
+    public String tokenKind;
+
+    private CircleBloomFilter circleBloomFilter;
+    private GenerationalVerdictFilter verdictFilter;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BloomFilterProperties properties = new BloomFilterProperties();
+        properties.setMinInsertions(10000 * 100L);
+        circleBloomFilter = new CircleBloomFilter();
+        verdictFilter = new GenerationalVerdictFilter(properties, null);
+
+        for (int generation = 0; generation < 5; generation++) {
+            if (generation > 0) {
+                circleBloomFilter.rotate();
+                verdictFilter.rotate();
+            }
+            for (int i = 0; i < 100_000; i++) {
+                String rejected = Tokens.token(generation * 100_000L + i);
+                circleBloomFilter.put(STOPPED_PREFIX.concat(rejected));
+                verdictFilter.put(TokenDigest.of(rejected), TokenVerdict.STOPPED);
+            }
+        }
+        token = "stopped".equals(tokenKind) ? Tokens.token(42) : Tokens.token(-1);
+    }
+
+    @Benchmark
+    public int circleBloomFilter() {
+        if (circleBloomFilter.exists(STOPPED_PREFIX.concat(token))) {
+            return 2;
+        }
+        if (circleBloomFilter.exists(EXPIRED_PREFIX.concat(token))) {
+            return 1;
+        }
+        if (circleBloomFilter.exists(PASSED_PREFIX.concat(token))) {
+            return 0;
+        }
+        return 3;
+    }
+
+    @Benchmark
+    public TokenVerdict generationalVerdictFilter() {
+        return verdictFilter.lookup(token);
+    }
+}
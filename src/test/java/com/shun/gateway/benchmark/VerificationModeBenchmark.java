@@ -0,0 +1,79 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.JwtKeyProperties;
+import com.shun.gateway.config.VerificationProperties;
+import com.shun.gateway.support.SignedTokens;
+import com.shun.gateway.util.CheckTokenUtil;
+import com.shun.gateway.util.VerificationScheduler;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache-miss-heavy load: 16 caller threads (standing in for event loops) each verify a real ES256
+ * token through {@link VerificationScheduler} and wait for the result. SampleTime reports the
+ * latency distribution including p0.99, Throughput the verifications per second.
+ * <pre>
+ * ./mvnw -Pjmh -DskipTests verify -Djmh.include=VerificationModeBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class VerificationModeBenchmark {
+
+    @Param({"ELASTIC", "BOUNDED", "VIRTUAL", "INLINE"})
+    public VerificationProperties.ExecutionMode mode;
+
+    private VerificationScheduler scheduler;
+    private CheckTokenUtil checkTokenUtil;
+    private String[] tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SignedTokens signedTokens = new SignedTokens();
+        checkTokenUtil = new CheckTokenUtil(new JwtKeyProperties(),
+                new MockEnvironment().withProperty("publicKeyPem", signedTokens.publicKeyPem()));
+        checkTokenUtil.init();
+        tokens = new String[1024];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = signedTokens.token(i);
+        }
+        VerificationProperties properties = new VerificationProperties();
+        properties.setMode(mode);
+        properties.setQueueCapacity(4096);
+        scheduler = new VerificationScheduler(properties, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public Claims verify() {
+        String token = tokens[ThreadLocalRandom.current().nextInt(tokens.length)];
+        return scheduler.run(() -> checkTokenUtil.check(token)).block();
+    }
+}
@@ -0,0 +1,85 @@
+package com.shun.gateway.benchmark;
+
+import com.shun.gateway.config.MyFilterConfiguration;
+import com.shun.gateway.util.WhitePathIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.server.RequestPath;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whitelist lookup for a path that matches the last pattern and one that matches none: the
+ * previous linear {@link PathPattern} scan against {@link WhitePathIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WhitePathBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int patterns;
+
+    private List<PathPattern> linear;
+    private WhitePathIndex index;
+    private RequestPath lastMatch;
+    private RequestPath miss;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // the shapes found in a real whitelist: exact paths, one-segment wildcards and subtrees
+        List<String> whiteList = new ArrayList<>();
+        for (int i = 0; whiteList.size() < patterns; i++) {
+            whiteList.add("/svc" + i + "/public/**");
+            whiteList.add("/svc" + i + "/login");
+            whiteList.add("/svc" + i + "/item/*/detail");
+        }
+        whiteList = whiteList.subList(0, patterns);
+        PathPatternParser parser = new PathPatternParser();
+        linear = whiteList.stream().map(parser::parse).toList();
+        MyFilterConfiguration configuration = new MyFilterConfiguration();
+        configuration.setWhiteList(whiteList);
+        index = new WhitePathIndex(configuration);
+        index.init();
+        String last = whiteList.get(patterns - 1).replace("**", "a/b").replace("*", "42");
+        lastMatch = RequestPath.parse(last, null);
+        miss = RequestPath.parse("/svc1/orders/42/items", null);
+    }
+
+    @Benchmark
+    public boolean linearLastMatch() {
+        return linear.stream().anyMatch(pattern -> pattern.matches(lastMatch));
+    }
+
+    @Benchmark
+    public boolean linearMiss() {
+        return linear.stream().anyMatch(pattern -> pattern.matches(miss));
+    }
+
+    @Benchmark
+    public boolean indexLastMatch() {
+        return index.matches(lastMatch);
+    }
+
+    @Benchmark
+    public boolean indexMiss() {
+        return index.matches(miss);
+    }
+}
@@ -0,0 +1,34 @@
+package com.shun.gateway.config;
+
+import io.jsonwebtoken.impl.DefaultJwtParserBuilder;
+import io.jsonwebtoken.jackson.io.JacksonDeserializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+
+class GatewayRuntimeHintsTest {
+
+    private final RuntimeHints hints = new RuntimeHints();
+
+    GatewayRuntimeHintsTest() {
+        new GatewayRuntimeHints().registerHints(hints, getClass().getClassLoader());
+    }
+
+    @Test
+    void coversTokenVerification() {
+        assertThat(RuntimeHintsPredicates.reflection().onType(DefaultJwtParserBuilder.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(JacksonDeserializer.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.resource().forResource("META-INF/services/io.jsonwebtoken.io.Deserializer")).accepts(hints);
+    }
+
+    @Test
+    void namesTypesThatExist() {
+        hints.reflection().typeHints().forEach(hint -> assertThatCode(
+                () -> Class.forName(hint.getType().getName(), false, getClass().getClassLoader()))
+                .as(hint.getType().getName())
+                .doesNotThrowAnyException());
+    }
+}
@@ -0,0 +1,266 @@
+package com.shun.gateway.filter;
+
+import com.shun.gateway.support.CheckTokenFilters;
+import com.shun.gateway.config.RevocationProperties;
+import com.shun.gateway.config.TokenPrecheckProperties;
+import com.shun.gateway.config.VerificationProperties;
+import com.shun.gateway.support.SignedTokens;
+import com.shun.gateway.util.RevocationSet;
+import com.shun.gateway.util.TokenDigest;
+import com.shun.gateway.util.TokenParse;
+import com.shun.gateway.util.TraceIds;
+import com.shun.gateway.util.VerificationLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CheckTokenFilterTest {
+
+    private final SignedTokens signedTokens = new SignedTokens();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CheckTokenFilter filter = CheckTokenFilters.builder(signedTokens)
+            .withMeterRegistry(meterRegistry)
+            .whitelist("/public/**")
+            .build();
+    private final AtomicReference<ServerWebExchange> forwarded = new AtomicReference<>();
+    private final GatewayFilterChain chain = exchange -> {
+        forwarded.set(exchange);
+        return Mono.empty();
+    };
+
+    @Test
+    void forwardsIdentityHeaders() {
+        String token = signedTokens.token(42, "张三", "pc", Duration.ofHours(1));
+        for (int i = 0; i < 2; i++) {
+            forwarded.set(null);
+            filter.filter(exchange(MockServerHttpRequest.get("/api/orders")
+                    .header(CheckTokenFilter.AUTHHEADER, "Bearer " + token)), chain).block();
+
+            HttpHeaders headers = forwarded.get().getRequest().getHeaders();
+            assertEquals("42", headers.getFirst(CheckTokenFilter.USER_ID_KEY));
+            assertEquals("%E5%BC%A0%E4%B8%89", headers.getFirst(CheckTokenFilter.USER_NAME_KEY));
+            assertEquals("pc", headers.getFirst("aud"));
+            assertEquals(token, headers.getFirst(CheckTokenFilter.AUTHHEADER));
+            assertNotNull(headers.getFirst(CheckTokenFilter.TRACE_ID));
+        }
+    }
+
+    @Test
+    void keepsIncomingTraceId() {
+        filter.filter(exchange(MockServerHttpRequest.get("/public/ping")
+                .header(CheckTokenFilter.TRACE_ID, "abc")), chain).block();
+
+        assertEquals("abc", forwarded.get().getRequest().getHeaders().getFirst(CheckTokenFilter.TRACE_ID));
+    }
+
+    @Test
+    void startsOrContinuesW3cTraces() {
+        filter.filter(exchange(MockServerHttpRequest.get("/public/ping")), chain).block();
+        HttpHeaders started = forwarded.get().getRequest().getHeaders();
+        String traceId = started.getFirst(CheckTokenFilter.TRACE_ID);
+        assertEquals(traceId, TraceIds.fromTraceparent(started.getFirst(TraceIds.TRACEPARENT)));
+
+        String traceparent = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+        MockServerWebExchange continued = exchange(MockServerHttpRequest.get("/public/ping")
+                .header(TraceIds.TRACEPARENT, traceparent));
+        filter.filter(continued, chain).block();
+        HttpHeaders headers = forwarded.get().getRequest().getHeaders();
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", headers.getFirst(CheckTokenFilter.TRACE_ID));
+        assertEquals(traceparent, headers.getFirst(TraceIds.TRACEPARENT));
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", continued.getAttribute(CheckTokenFilter.TRACE_ID_ATTR));
+    }
+
+    @Test
+    void forwardsWhitelistedPathWithRejectedToken() {
+        String foreign = new SignedTokens().token(1);
+        filter.filter(exchange(MockServerHttpRequest.get("/public/ping")
+                .header(CheckTokenFilter.AUTHHEADER, "Bearer " + foreign)), chain).block();
+
+        HttpHeaders headers = forwarded.get().getRequest().getHeaders();
+        assertNull(headers.getFirst(CheckTokenFilter.USER_ID_KEY));
+        assertNotNull(headers.getFirst(CheckTokenFilter.TRACE_ID));
+    }
+
+    @Test
+    void rejectsWithSharedBodies() {
+        for (int i = 0; i < 2; i++) {
+            MockServerWebExchange missing = exchange(MockServerHttpRequest.get("/api/orders"));
+            filter.filter(missing, chain).block();
+            assertRejected(missing, HttpStatus.UNAUTHORIZED, CheckTokenFilter.BODY_401);
+
+            MockServerWebExchange expired = exchange(MockServerHttpRequest.get("/api/orders")
+                    .header(CheckTokenFilter.AUTHHEADER, "Bearer " + signedTokens.token(1, "u", "pc", Duration.ofSeconds(-10))));
+            filter.filter(expired, chain).block();
+            assertRejected(expired, HttpStatus.FORBIDDEN, CheckTokenFilter.BODY_403);
+        }
+        assertNull(forwarded.get());
+    }
+
+    @Test
+    void refusesForgedExpiredTokensAsBadTokens() {
+        CheckTokenFilter throttling = throttling();
+        SignedTokens forger = new SignedTokens();
+        for (int i = 0; i < 20; i++) {
+            MockServerWebExchange forged = from("10.0.0.1", forger.token(i, "u", "pc", Duration.ofSeconds(-10)));
+            throttling.filter(forged, chain).block();
+            assertRejected(forged, HttpStatus.UNAUTHORIZED, CheckTokenFilter.BODY_401);
+        }
+        assertEquals(20.0, verdicts("verify", "stopped"));
+        assertEquals(0.0, verdicts("verify", "expired"));
+
+        // counted against the client like any other bad token
+        throttling.filter(from("10.0.0.1", signedTokens.token(7)), chain).block();
+        assertEquals(1.0, verdicts("throttle", "stopped"));
+    }
+
+    @Test
+    void countsVerdictsByTier() {
+        String token = signedTokens.token(42);
+        String foreign = new SignedTokens().token(1);
+        for (int i = 0; i < 3; i++) {
+            filter.filter(exchange(MockServerHttpRequest.get("/api/orders")
+                    .header(CheckTokenFilter.AUTHHEADER, "Bearer " + token)), chain).block();
+            filter.filter(exchange(MockServerHttpRequest.get("/public/ping")
+                    .header(CheckTokenFilter.AUTHHEADER, "Bearer " + foreign)), chain).block();
+        }
+        filter.filter(exchange(MockServerHttpRequest.get("/public/ping")), chain).block();
+
+        assertEquals(1.0, verdicts("verify", "passed"));
+        assertEquals(2.0, verdicts("cache", "passed"));
+        assertEquals(1.0, verdicts("verify", "stopped"));
+        assertEquals(2.0, verdicts("bloom", "stopped"));
+        assertEquals(3.0, meterRegistry.get("gateway.whitelist.bypass").tag("reason", "rejected_token").counter().count());
+        assertEquals(1.0, meterRegistry.get("gateway.whitelist.bypass").tag("reason", "missing_token").counter().count());
+        assertEquals(1.0, meterRegistry.get("gateway.token.missing").counter().count());
+        assertEquals(2, meterRegistry.get("gateway.token.verify").timer().count());
+        assertEquals(0.0, meterRegistry.get("gateway.token.verify.running").gauge().value());
+    }
+
+    @Test
+    void shedsVerificationsButNotCachedTokens() {
+        VerificationProperties verification = new VerificationProperties();
+        verification.getLimit().setEnabled(true);
+        verification.getLimit().setInitialLimit(1);
+        verification.getLimit().setMinLimit(1);
+        verification.getLimit().setMaxLimit(1);
+        VerificationLimiter limiter = new VerificationLimiter(verification, meterRegistry);
+        CheckTokenFilter limited = CheckTokenFilters.builder(signedTokens)
+                .withMeterRegistry(meterRegistry)
+                .withLimiter(limiter)
+                .whitelist("/public/**")
+                .build();
+        String cached = signedTokens.token(42);
+        limited.filter(exchange(MockServerHttpRequest.get("/api/orders")
+                .header(CheckTokenFilter.AUTHHEADER, "Bearer " + cached)), chain).block();
+
+        Disposable busy = limiter.run(Mono::never).subscribe();
+        MockServerWebExchange fresh = exchange(MockServerHttpRequest.get("/api/orders")
+                .header(CheckTokenFilter.AUTHHEADER, "Bearer " + signedTokens.token(43)));
+        limited.filter(fresh, chain).block();
+        assertRejected(fresh, HttpStatus.SERVICE_UNAVAILABLE, CheckTokenFilter.BODY_503);
+        assertEquals("1", fresh.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        forwarded.set(null);
+        limited.filter(exchange(MockServerHttpRequest.get("/api/orders")
+                .header(CheckTokenFilter.AUTHHEADER, "Bearer " + cached)), chain).block();
+        assertEquals("42", forwarded.get().getRequest().getHeaders().getFirst(CheckTokenFilter.USER_ID_KEY));
+        assertEquals(1.0, meterRegistry.get("gateway.token.verify.shed").counter().count());
+        busy.dispose();
+    }
+
+    @Test
+    void refusesRevokedTokensEvenWhenCached() {
+        RevocationSet revocations = new RevocationSet(new RevocationProperties(), meterRegistry);
+        CheckTokenFilter revoking = CheckTokenFilters.builder(signedTokens)
+                .withMeterRegistry(meterRegistry)
+                .withRevocations(revocations)
+                .whitelist("/public/**")
+                .build();
+        String token = signedTokens.token(42);
+        revoking.filter(from("10.0.0.1", token), chain).block();
+        assertEquals("42", forwarded.get().getRequest().getHeaders().getFirst(CheckTokenFilter.USER_ID_KEY));
+
+        revocations.revoke(TokenDigest.of(new TokenParse().parseToken(token).jti()), System.currentTimeMillis() + 60_000);
+        forwarded.set(null);
+        MockServerWebExchange revoked = from("10.0.0.1", token);
+        revoking.filter(revoked, chain).block();
+        assertRejected(revoked, HttpStatus.UNAUTHORIZED, CheckTokenFilter.BODY_401);
+        assertNull(forwarded.get());
+        assertEquals(1.0, verdicts("cache", "passed"));
+        assertEquals(1.0, meterRegistry.get("gateway.token.revoked").counter().count());
+
+        revoking.filter(from("10.0.0.1", signedTokens.token(42)), chain).block();
+        assertEquals("42", forwarded.get().getRequest().getHeaders().getFirst(CheckTokenFilter.USER_ID_KEY));
+    }
+
+    @Test
+    void throttlesClientsFloodingBadTokens() {
+        CheckTokenFilter throttling = throttling();
+        String cached = signedTokens.token(42);
+        throttling.filter(from("10.0.0.1", cached), chain).block();
+        for (int i = 0; i < 20; i++) {
+            MockServerWebExchange garbage = from("10.0.0.1", "garbage-" + i);
+            throttling.filter(garbage, chain).block();
+            assertRejected(garbage, HttpStatus.UNAUTHORIZED, CheckTokenFilter.BODY_401);
+        }
+        assertEquals(20.0, verdicts("precheck", "stopped"));
+
+        MockServerWebExchange forged = from("10.0.0.1", new SignedTokens().token(42));
+        throttling.filter(forged, chain).block();
+        assertRejected(forged, HttpStatus.UNAUTHORIZED, CheckTokenFilter.BODY_401);
+        assertEquals(1.0, verdicts("throttle", "stopped"));
+        assertEquals(0.0, verdicts("verify", "stopped"));
+
+        forwarded.set(null);
+        throttling.filter(from("10.0.0.1", cached), chain).block();
+        assertEquals("42", forwarded.get().getRequest().getHeaders().getFirst(CheckTokenFilter.USER_ID_KEY));
+        throttling.filter(from("10.0.0.2", new SignedTokens().token(42)), chain).block();
+        assertEquals(1.0, verdicts("verify", "stopped"));
+    }
+
+    private CheckTokenFilter throttling() {
+        TokenPrecheckProperties precheck = new TokenPrecheckProperties();
+        precheck.getThrottle().setEnabled(true);
+        return CheckTokenFilters.builder(signedTokens)
+                .withMeterRegistry(meterRegistry)
+                .withPrecheck(precheck)
+                .whitelist("/public/**")
+                .build();
+    }
+
+    private static MockServerWebExchange from(String ip, String token) {
+        return exchange(MockServerHttpRequest.get("/api/orders")
+                .remoteAddress(new InetSocketAddress(ip, 40000))
+                .header(CheckTokenFilter.AUTHHEADER, "Bearer " + token));
+    }
+
+    private double verdicts(String tier, String verdict) {
+        return meterRegistry.get("gateway.token.verdicts").tag("tier", tier).tag("verdict", verdict).counter().count();
+    }
+
+    private static void assertRejected(MockServerWebExchange exchange, HttpStatus status, String body) {
+        assertEquals(status, exchange.getResponse().getStatusCode());
+        assertEquals(MediaType.parseMediaType("application/json;charset=UTF-8"), exchange.getResponse().getHeaders().getContentType());
+        assertEquals(body, exchange.getResponse().getBodyAsString().block());
+    }
+
+    private static MockServerWebExchange exchange(MockServerHttpRequest.BaseBuilder<?> request) {
+        return MockServerWebExchange.from(request);
+    }
+}
@@ -0,0 +1,177 @@
+package com.shun.gateway.filter;
+
+import com.shun.gateway.config.UpstreamPoolProperties;
+import com.shun.gateway.util.Hedging;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.config.HttpClientSslConfigurer;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.ResolvableType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+class RouteScopedRoutingFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final DisposableServer upstream = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .protocol(HttpProtocol.HTTP11, HttpProtocol.H2C)
+            // once per TCP connection, doOnConnection is called for every HTTP/2 stream too
+            .doOnChannelInit((observer, channel, remoteAddress) -> connections.incrementAndGet())
+            .handle((request, response) -> Mono.delay(Duration.ofMillis(100))
+                    .then(response.header("x-protocol", request.requestHeaders().contains("x-http2-stream-id") ? "h2c" : "http/1.1")
+                            .sendString(Mono.just("ok")).then()))
+            .bindNow();
+    private RouteScopedRoutingFilter filter;
+
+    @AfterEach
+    void tearDown() {
+        if (filter != null) {
+            filter.destroy();
+        }
+        upstream.disposeNow();
+    }
+
+    @Test
+    void picksThePoolByRouteIdThenService() {
+        filter = filter(Map.of("orders", pool(HttpProtocol.HTTP11), "payments", pool(HttpProtocol.H2C)));
+
+        assertSame(filter.poolOf(route("orders", "lb://payments")), filter.poolOf(route("orders", "http://127.0.0.1")));
+        assertNotNull(filter.poolOf(route("ReactiveCompositeDiscoveryClient_payments", "lb://payments")));
+        assertNull(filter.poolOf(route("payments-by-url", "http://payments")));
+        assertNull(filter.poolOf(route("other", "lb://other")));
+    }
+
+    @Test
+    void multiplexesH2cRequestsOverOneConnection() {
+        UpstreamPoolProperties.Pool h2c = pool(HttpProtocol.H2C);
+        h2c.setMaxConnections(1);
+        filter = filter(Map.of("stub", h2c));
+        Route route = route("stub", "http://127.0.0.1:" + upstream.port());
+
+        List<String> protocols = Flux.range(0, 20)
+                .flatMap(i -> {
+                    ServerWebExchange exchange = exchange(route);
+                    return filter.filter(exchange, e -> Mono.empty())
+                            .then(Mono.defer(() -> exchange.<Connection>getRequiredAttribute(CLIENT_RESPONSE_CONN_ATTR)
+                                    .inbound().receive().then()))
+                            .then(Mono.fromSupplier(() -> exchange.getResponse().getHeaders().getFirst("x-protocol")));
+                }, 20)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertEquals(20, protocols.size());
+        protocols.forEach(protocol -> assertEquals("h2c", protocol));
+        assertEquals(1, connections.get());
+        assertEquals(20, meterRegistry.get("gateway.upstream.acquire").tag("pool", "stub").timer().count());
+    }
+
+    @Test
+    void sendsHedgedRequestsThroughTheServicePool() {
+        filter = filter(Map.of("stub-service", pool(HttpProtocol.HTTP11)));
+        List<ServiceInstance> instances = List.of(
+                new DefaultServiceInstance("stub-1", "stub-service", "127.0.0.1", upstream.port(), false),
+                new DefaultServiceInstance("stub-2", "stub-service", "127.0.0.1", upstream.port(), false));
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("discoveryClient", new ReactiveDiscoveryClient() {
+            @Override
+            public String description() {
+                return "stub";
+            }
+
+            @Override
+            public Flux<ServiceInstance> getInstances(String serviceId) {
+                return Flux.fromIterable(instances);
+            }
+
+            @Override
+            public Flux<String> getServices() {
+                return Flux.just("stub-service");
+            }
+        });
+        HedgeGatewayFilterFactory.Config config = new HedgeGatewayFilterFactory.Config();
+        config.setRouteId("stub");
+        config.setBudget(1);
+        // the upstream answers after 100ms, so every request is hedged
+        config.setMinDelay(Duration.ofMillis(10));
+        config.setMaxDelay(Duration.ofMillis(10));
+        GatewayFilter hedge = new HedgeGatewayFilterFactory(new Hedging(meterRegistry),
+                beanFactory.getBeanProvider(ReactiveDiscoveryClient.class)).apply(config);
+        ServerWebExchange exchange = exchange(route("stub", "lb://stub-service"));
+
+        hedge.filter(exchange, attempt -> {
+            // what RouteToRequestUrlFilter does with the instance the attempt was given
+            Route route = attempt.getRequiredAttribute(GATEWAY_ROUTE_ATTR);
+            attempt.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, URI.create(route.getUri() + "/echo"));
+            return filter.filter(attempt, e -> Mono.empty());
+        }).block(Duration.ofSeconds(10));
+        exchange.<Connection>getRequiredAttribute(CLIENT_RESPONSE_CONN_ATTR).dispose();
+
+        assertEquals("http/1.1", exchange.getResponse().getHeaders().getFirst("x-protocol"));
+        assertEquals(1.0, meterRegistry.get("gateway.hedge.sent").tag("reason", "delay").counter().count());
+        assertEquals(2, meterRegistry.get("gateway.upstream.acquire").tag("pool", "stub-service").timer().count());
+    }
+
+    private RouteScopedRoutingFilter filter(Map<String, UpstreamPoolProperties.Pool> pools) {
+        UpstreamPoolProperties poolProperties = new UpstreamPoolProperties();
+        poolProperties.getRoutes().putAll(pools);
+        HttpClientProperties properties = new HttpClientProperties();
+        ServerProperties serverProperties = new ServerProperties();
+        ObjectProvider<List<HttpHeadersFilter>> headersFilters = new DefaultListableBeanFactory()
+                .getBeanProvider(ResolvableType.forClassWithGenerics(List.class, HttpHeadersFilter.class));
+        return new RouteScopedRoutingFilter(HttpClient.create(), headersFilters, properties, serverProperties,
+                new HttpClientSslConfigurer(properties.getSsl(), serverProperties), List.of(), poolProperties,
+                meterRegistry);
+    }
+
+    private static UpstreamPoolProperties.Pool pool(HttpProtocol protocol) {
+        UpstreamPoolProperties.Pool pool = new UpstreamPoolProperties.Pool();
+        pool.setProtocols(List.of(protocol));
+        return pool;
+    }
+
+    private static Route route(String id, String uri) {
+        return Route.async().id(id).uri(uri).predicate(exchange -> true).build();
+    }
+
+    private static ServerWebExchange exchange(Route route) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/echo"));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, route);
+        exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, URI.create(route.getUri() + "/echo"));
+        return exchange;
+    }
+}
@@ -0,0 +1,82 @@
+package com.shun.gateway.loadtest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Results of a load test run, keyed by metric name, and the comparison against a stored run.
+ * <p>
+ * {@code rps} and {@code okRps} regress when they drop, every other metric when it grows. Only the metrics found
+ * in the stored baseline are compared, so a noisy one can be left out by deleting its line.
+ */
+final class Baseline {
+
+    static final String RPS = "rps";
+    static final String P50 = "p50Millis";
+    static final String P99 = "p99Millis";
+    static final String P999 = "p999Millis";
+    static final String OK_RPS = "okRps";
+    static final String OK_P99 = "okP99Millis";
+    static final String ALLOCATED_PER_REQUEST = "allocatedBytesPerRequest";
+
+    private final Map<String, Double> metrics;
+
+    Baseline(Map<String, Double> metrics) {
+        this.metrics = new LinkedHashMap<>(metrics);
+    }
+
+    static Baseline load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            metrics.put(name, Double.parseDouble(properties.getProperty(name)));
+        }
+        return new Baseline(metrics);
+    }
+
+    void store(Path file, String comment) throws IOException {
+        Properties properties = new Properties();
+        metrics.forEach((name, value) -> properties.setProperty(name, String.format(Locale.ROOT, "%.3f", value)));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            properties.store(writer, comment);
+        }
+    }
+
+    Map<String, Double> metrics() {
+        return metrics;
+    }
+
+    /**
+     * @param tolerance allowed relative change in the wrong direction, e.g. 0.1 for 10%
+     * @return one line per regressed metric, empty when none regressed
+     */
+    List<String> regressionsAgainst(Baseline stored, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        stored.metrics.forEach((name, expected) -> {
+            Double actual = metrics.get(name);
+            if (actual == null) {
+                return;
+            }
+            boolean regressed = name.equals(RPS) || name.equals(OK_RPS)
+                    ? actual < expected * (1 - tolerance)
+                    : actual > expected * (1 + tolerance);
+            if (regressed) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.3f against a baseline of %.3f", name, actual, expected));
+            }
+        });
+        return regressions;
+    }
+}
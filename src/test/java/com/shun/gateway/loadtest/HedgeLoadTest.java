@@ -0,0 +1,147 @@
+package com.shun.gateway.loadtest;
+
+import com.shun.gateway.GatewayApplication;
+import com.shun.gateway.support.SignedTokens;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tail latency of the {@code Hedge} filter: boots the gateway offline in front of
+ * {@code hedge.instances} {@link UpstreamStub}s discovered as {@code lb://stub}, each answering
+ * after {@code hedge.upstreamDelay} except for a {@code hedge.slowFraction} of the requests that
+ * wait {@code hedge.slowDelay}, then measures the same load once per budget in
+ * {@code hedge.budgets}, {@code 0} being the filter without second requests.
+ * <p>
+ * Reports p50/p99/p999 latency and the extra load: the requests the stubs received per request
+ * the client sent, minus one. Run with {@code ./mvnw -Phedge -DskipTests verify}.
+ */
+public final class HedgeLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("hedge.concurrency", 8);
+        int tokens = Integer.getInteger("hedge.tokens", 100);
+        int instances = Integer.getInteger("hedge.instances", 3);
+        Duration warmup = duration("hedge.warmup", "15s");
+        Duration measure = duration("hedge.duration", "30s");
+        Duration upstreamDelay = duration("hedge.upstreamDelay", "5ms");
+        double slowFraction = Double.parseDouble(System.getProperty("hedge.slowFraction", "0.02"));
+        Duration slowDelay = duration("hedge.slowDelay", "200ms");
+        String[] budgets = System.getProperty("hedge.budgets", "0,0.05").split(",");
+
+        SignedTokens signedTokens = new SignedTokens();
+        LoopResources clientLoops = LoopResources.create(LoadTest.THREAD_PREFIX + "client", 1, true);
+        ConnectionProvider pool = ConnectionProvider.builder(LoadTest.THREAD_PREFIX + "pool")
+                .maxConnections(concurrency)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        List<UpstreamStub> upstreams = new ArrayList<>();
+        try {
+            for (int i = 0; i < instances; i++) {
+                upstreams.add(new UpstreamStub(upstreamDelay, slowFraction, slowDelay));
+            }
+            for (String budget : budgets) {
+                try (ConfigurableApplicationContext gateway = startGateway(signedTokens, upstreams, budget.trim())) {
+                    int port = Integer.parseInt(gateway.getEnvironment().getRequiredProperty("local.server.port"));
+                    HttpClient client = HttpClient.create(pool).runOn(clientLoops).baseUrl("http://127.0.0.1:" + port);
+                    HttpClient[] clients = new HttpClient[tokens];
+                    for (int i = 0; i < tokens; i++) {
+                        String authorization = "Bearer " + signedTokens.token(i);
+                        clients[i] = client.headers(headers -> headers.set(HttpHeaderNames.AUTHORIZATION, authorization));
+                    }
+                    System.out.printf("budget %s: warming up for %s with %d requests in flight%n", budget, warmup, concurrency);
+                    run(clients, concurrency, warmup, upstreams);
+                    System.out.printf("budget %s: measuring for %s%n", budget, measure);
+                    run(clients, concurrency, measure, upstreams);
+                }
+            }
+        } finally {
+            upstreams.forEach(UpstreamStub::close);
+            pool.dispose();
+            clientLoops.dispose();
+        }
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext startGateway(SignedTokens signedTokens, List<UpstreamStub> upstreams,
+                                                               String budget) {
+        List<String> arguments = new ArrayList<>();
+        for (String argument : OfflineGateway.arguments(signedTokens, upstreams.get(0).getPort(), 0)) {
+            arguments.add(argument.startsWith("--spring.cloud.gateway.routes[0].uri=")
+                    ? "--spring.cloud.gateway.routes[0].uri=lb://stub" : argument);
+        }
+        arguments.add("--spring.cloud.gateway.routes[0].filters[0]=Hedge=95, " + budget);
+        for (int i = 0; i < upstreams.size(); i++) {
+            arguments.add("--spring.cloud.discovery.client.simple.instances.stub[" + i + "].uri=http://127.0.0.1:"
+                    + upstreams.get(i).getPort());
+        }
+        return new SpringApplicationBuilder(GatewayApplication.class).run(arguments.toArray(new String[0]));
+    }
+
+    private static void run(HttpClient[] clients, int concurrency, Duration duration, List<UpstreamStub> upstreams) {
+        Timer latency = Timer.builder("hedge.latency")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .percentilePrecision(3)
+                .distributionStatisticExpiry(duration.multipliedBy(2))
+                .distributionStatisticBufferLength(1)
+                .register(new SimpleMeterRegistry());
+        AtomicLong requests = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        long upstreamBefore = upstreamRequests(upstreams);
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        Flux.range(0, concurrency)
+                .flatMap(worker -> Mono.defer(() -> {
+                            long sent = System.nanoTime();
+                            return send(clients[ThreadLocalRandom.current().nextInt(clients.length)])
+                                    .onErrorReturn(-1)
+                                    .doOnNext(status -> {
+                                        latency.record(System.nanoTime() - sent, TimeUnit.NANOSECONDS);
+                                        requests.incrementAndGet();
+                                        if (status != 200) {
+                                            errors.incrementAndGet();
+                                        }
+                                    });
+                        })
+                        .repeat(() -> System.nanoTime() < deadline)
+                        .then(), concurrency)
+                .blockLast();
+
+        long upstream = upstreamRequests(upstreams) - upstreamBefore;
+        for (ValueAtPercentile percentile : latency.takeSnapshot().percentileValues()) {
+            System.out.printf("  p%-8s %10.3f ms%n", percentile.percentile() * 100, percentile.value(TimeUnit.MILLISECONDS));
+        }
+        System.out.printf("  requests %10d, errors %d%n", requests.get(), errors.get());
+        System.out.printf("  extra load %8.2f%%%n", (upstream / (double) Math.max(1, requests.get()) - 1) * 100);
+    }
+
+    private static long upstreamRequests(List<UpstreamStub> upstreams) {
+        return upstreams.stream().mapToLong(UpstreamStub::getRequests).sum();
+    }
+
+    private static Mono<Integer> send(HttpClient client) {
+        return client.get()
+                .uri(OfflineGateway.PATH)
+                .responseSingle((response, body) -> body.then(Mono.just(response.status().code())));
+    }
+
+    private static Duration duration(String property, String defaultValue) {
+        return DurationStyle.detectAndParse(System.getProperty(property, defaultValue));
+    }
+}
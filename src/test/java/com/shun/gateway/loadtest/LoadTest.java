@@ -0,0 +1,267 @@
+package com.shun.gateway.loadtest;
+
+import com.shun.gateway.GatewayApplication;
+import com.shun.gateway.support.SignedTokens;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline load test: boots the gateway without Nacos or Redis in front of an {@link UpstreamStub},
+ * then keeps {@code loadtest.concurrency} requests in flight with signed tokens for a warmup and
+ * a measured period.
+ * <p>
+ * Reports requests per second, p50/p99/p999 latency, the same for the requests answered with 200
+ * alone ({@code okRps}, {@code okP99Millis}) and the bytes allocated per request by the
+ * gateway's threads (the client and the stub run on threads of their own and are left out), then
+ * compares them against {@code loadtest.baseline} and exits with 1 when one regressed by more
+ * than {@code loadtest.tolerance}. Run with {@code ./mvnw -Ploadtest -DskipTests verify}; pass
+ * {@code -Dloadtest.updateBaseline=true} to store the run as the new baseline instead. Numbers
+ * only compare between runs on the same machine.
+ * <p>
+ * {@code loadtest.upstreamProtocols} (e.g. {@code H2C}) and {@code loadtest.upstreamMaxConnections}
+ * give the stub route a pool of its own under {@code upstream-pools}; {@code upstreamConnections}
+ * reports how many connections the gateway opened to the stub.
+ * <p>
+ * Every token is signed in with a few requests at a time before the warmup, so the measurement
+ * sees cached tokens; {@code -Dloadtest.signIn=false} leaves that to the warmup instead, or with
+ * many more tokens than can be verified in the run, keeps new sessions arriving throughout it. A
+ * worker answered with 503 waits for its {@code Retry-After} before sending again, as clients do,
+ * and {@code loadtest.timeout} makes it give up on a request, counted as an error, like a client
+ * with a timeout.
+ */
+public final class LoadTest {
+
+    static final String THREAD_PREFIX = "loadtest-";
+    private static final int SIGN_IN_CONCURRENCY = 4;
+
+    private final int concurrency;
+    private final HttpClient[] clients;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private LoadTest(int concurrency, HttpClient[] clients) {
+        this.concurrency = concurrency;
+        this.clients = clients;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 64);
+        int tokens = Integer.getInteger("loadtest.tokens", 1000);
+        Duration warmup = duration("loadtest.warmup", "20s");
+        Duration measure = duration("loadtest.duration", "30s");
+        Duration upstreamDelay = duration("loadtest.upstreamDelay", "0ms");
+        Duration timeout = duration("loadtest.timeout", "0ms");
+        String upstreamProtocols = System.getProperty("loadtest.upstreamProtocols", "");
+        int upstreamMaxConnections = Integer.getInteger("loadtest.upstreamMaxConnections", 0);
+        Path baselineFile = Path.of(System.getProperty("loadtest.baseline", "src/test/resources/loadtest/baseline.properties"));
+        Path resultFile = Path.of(System.getProperty("loadtest.result", "target/loadtest-result.properties"));
+        double tolerance = Double.parseDouble(System.getProperty("loadtest.tolerance", "0.15"));
+        boolean updateBaseline = Boolean.getBoolean("loadtest.updateBaseline");
+        boolean signIn = Boolean.parseBoolean(System.getProperty("loadtest.signIn", "true"));
+
+        SignedTokens signedTokens = new SignedTokens();
+        LoopResources clientLoops = LoopResources.create(THREAD_PREFIX + "client",
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), true);
+        ConnectionProvider pool = ConnectionProvider.builder(THREAD_PREFIX + "pool")
+                .maxConnections(concurrency)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        int exitCode = 0;
+        try (UpstreamStub upstream = new UpstreamStub(upstreamDelay);
+             ConfigurableApplicationContext gateway = startGateway(signedTokens, upstream.getPort(),
+                     upstreamProtocols, upstreamMaxConnections)) {
+            int port = Integer.parseInt(gateway.getEnvironment().getRequiredProperty("local.server.port"));
+            HttpClient client = HttpClient.create(pool).runOn(clientLoops).baseUrl("http://127.0.0.1:" + port);
+            if (!timeout.isZero()) {
+                client = client.responseTimeout(timeout);
+            }
+            HttpClient[] clients = new HttpClient[tokens];
+            for (int i = 0; i < tokens; i++) {
+                String authorization = "Bearer " + signedTokens.token(i);
+                clients[i] = client.headers(headers -> headers.set(HttpHeaderNames.AUTHORIZATION, authorization));
+            }
+            LoadTest loadTest = new LoadTest(concurrency, clients);
+
+            if (signIn) {
+                System.out.printf("Signing in %d tokens%n", tokens);
+                loadTest.signIn();
+            }
+            System.out.printf("Warming up for %s with %d requests in flight over %d tokens%n", warmup, concurrency, tokens);
+            loadTest.run(warmup);
+            System.out.printf("Measuring for %s%n", measure);
+            Baseline result = loadTest.run(measure);
+            result.metrics().put("upstreamConnections", (double) upstream.getConnections());
+            result.metrics().forEach((name, value) -> System.out.printf("  %-26s %12.3f%n", name, value));
+            result.store(resultFile, "load test result");
+
+            if (updateBaseline) {
+                result.store(baselineFile, "load test baseline, " + concurrency + " in flight over " + tokens + " tokens");
+                System.out.printf("Stored as the new baseline in %s%n", baselineFile);
+            } else if (!Files.exists(baselineFile)) {
+                System.out.printf("No baseline at %s, run with -Dloadtest.updateBaseline=true to store one%n", baselineFile);
+            } else {
+                List<String> regressions = result.regressionsAgainst(Baseline.load(baselineFile), tolerance);
+                regressions.forEach(regression -> System.out.println("REGRESSION " + regression));
+                if (!regressions.isEmpty()) {
+                    exitCode = 1;
+                }
+            }
+        } finally {
+            pool.dispose();
+            clientLoops.dispose();
+        }
+        System.exit(exitCode);
+    }
+
+    private static ConfigurableApplicationContext startGateway(SignedTokens signedTokens, int upstreamPort,
+                                                               String upstreamProtocols, int upstreamMaxConnections) {
+        List<String> arguments = new ArrayList<>(List.of(OfflineGateway.arguments(signedTokens, upstreamPort, 0)));
+        if (!upstreamProtocols.isEmpty()) {
+            arguments.add("--upstream-pools.routes.stub.protocols=" + upstreamProtocols);
+        }
+        if (upstreamMaxConnections > 0) {
+            arguments.add("--upstream-pools.routes.stub.max-connections=" + upstreamMaxConnections);
+        }
+        return new SpringApplicationBuilder(GatewayApplication.class).run(arguments.toArray(new String[0]));
+    }
+
+    private Baseline run(Duration duration) {
+        Timer latency = Timer.builder("loadtest.latency")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .percentilePrecision(3)
+                .distributionStatisticExpiry(duration.multipliedBy(2))
+                .distributionStatisticBufferLength(1)
+                .register(new SimpleMeterRegistry());
+        Timer okLatency = Timer.builder("loadtest.latency.ok")
+                .publishPercentiles(0.99)
+                .percentilePrecision(3)
+                .distributionStatisticExpiry(duration.multipliedBy(2))
+                .distributionStatisticBufferLength(1)
+                .register(new SimpleMeterRegistry());
+        AtomicLong requests = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        Map<Long, Long> allocatedBefore = allocatedByGateway();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+
+        Flux.range(0, concurrency)
+                .flatMap(worker -> Mono.defer(() -> {
+                            long sent = System.nanoTime();
+                            return send()
+                                    .onErrorReturn(Reply.FAILED)
+                                    .doOnNext(reply -> {
+                                        long nanos = System.nanoTime() - sent;
+                                        latency.record(nanos, TimeUnit.NANOSECONDS);
+                                        requests.incrementAndGet();
+                                        if (reply.status() == 200) {
+                                            okLatency.record(nanos, TimeUnit.NANOSECONDS);
+                                        } else {
+                                            errors.incrementAndGet();
+                                        }
+                                    })
+                                    .delayUntil(reply -> reply.retryAfter().isZero() ? Mono.empty() : Mono.delay(reply.retryAfter()));
+                        })
+                        .repeat(() -> System.nanoTime() < deadline)
+                        .then(), concurrency)
+                .blockLast();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedSince(allocatedBefore);
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put(Baseline.RPS, requests.get() / seconds);
+        HistogramSnapshot snapshot = latency.takeSnapshot();
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            String name = percentile.percentile() == 0.5 ? Baseline.P50
+                    : percentile.percentile() == 0.99 ? Baseline.P99 : Baseline.P999;
+            metrics.put(name, percentile.value(TimeUnit.MILLISECONDS));
+        }
+        metrics.put(Baseline.OK_RPS, okLatency.count() / seconds);
+        metrics.put(Baseline.OK_P99, okLatency.takeSnapshot().percentileValues()[0].value(TimeUnit.MILLISECONDS));
+        metrics.put(Baseline.ALLOCATED_PER_REQUEST, (double) allocated / Math.max(1, requests.get()));
+        metrics.put("allocatedMegabytesPerSecond", allocated / seconds / (1024 * 1024));
+        metrics.put("errorRate", (double) errors.get() / Math.max(1, requests.get()));
+        return new Baseline(metrics);
+    }
+
+    /**
+     * Sends a first request with every token, again after a 503, so each is verified once.
+     */
+    private void signIn() {
+        Flux.range(0, clients.length)
+                .flatMap(i -> send(clients[i])
+                        .onErrorReturn(Reply.FAILED)
+                        .filter(reply -> reply.status() != 503)
+                        .repeatWhenEmpty(attempts -> attempts.delayElements(Duration.ofMillis(100))), SIGN_IN_CONCURRENCY)
+                .blockLast();
+    }
+
+    private Mono<Reply> send() {
+        return send(clients[ThreadLocalRandom.current().nextInt(clients.length)]);
+    }
+
+    private static Mono<Reply> send(HttpClient client) {
+        return client.get()
+                .uri(OfflineGateway.PATH)
+                .responseSingle((response, body) -> body.then(Mono.fromSupplier(() -> {
+                    String retryAfter = response.responseHeaders().get(HttpHeaderNames.RETRY_AFTER);
+                    return new Reply(response.status().code(),
+                            retryAfter == null ? Duration.ZERO : Duration.ofSeconds(Long.parseLong(retryAfter)));
+                })));
+    }
+
+    /**
+     * @return bytes allocated so far by every live thread that is not part of the harness, by thread id
+     */
+    private Map<Long, Long> allocatedByGateway() {
+        Map<Long, Long> allocated = new HashMap<>();
+        Thread current = Thread.currentThread();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread != current && !thread.getName().startsWith(THREAD_PREFIX)) {
+                allocated.put(thread.getId(), threads.getThreadAllocatedBytes(thread.getId()));
+            }
+        }
+        return allocated;
+    }
+
+    private long allocatedSince(Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : allocatedByGateway().entrySet()) {
+            // threads started during the run count from zero, threads that ended are lost
+            total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    private static Duration duration(String property, String defaultValue) {
+        return DurationStyle.detectAndParse(System.getProperty(property, defaultValue));
+    }
+
+    private record Reply(int status, Duration retryAfter) {
+
+        static final Reply FAILED = new Reply(-1, Duration.ZERO);
+    }
+}
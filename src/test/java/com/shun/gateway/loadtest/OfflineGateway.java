@@ -0,0 +1,41 @@
+package com.shun.gateway.loadtest;
+
+import com.shun.gateway.support.SignedTokens;
+
+/**
+ * Command line that runs the gateway without Nacos or Redis, routing {@code /stub/**} to an
+ * {@link UpstreamStub} and trusting the tokens of the given {@link SignedTokens}.
+ */
+final class OfflineGateway {
+
+    static final String PATH = "/stub/echo";
+
+    private OfflineGateway() {
+    }
+
+    static String[] arguments(SignedTokens signedTokens, int upstreamPort, int port) {
+        return new String[]{
+                "--server.port=" + port,
+                "--logging.level.root=WARN",
+                "--spring.config.import=",
+                "--spring.cloud.nacos.config.enabled=false",
+                "--spring.cloud.nacos.config.import-check.enabled=false",
+                "--spring.cloud.nacos.discovery.enabled=false",
+                // an AOT-processed build keeps the Nacos beans whatever the flags above say
+                "--spring.cloud.nacos.discovery.register-enabled=false",
+                "--spring.cloud.gateway.discovery.locator.enabled=false",
+                "--spring.cloud.gateway.routes[0].id=stub",
+                "--spring.cloud.gateway.routes[0].uri=http://127.0.0.1:" + upstreamPort,
+                "--spring.cloud.gateway.routes[0].predicates[0]=Path=/stub/**",
+                // the real filter chain, with limits no load test client can reach
+                "--spring.cloud.gateway.default-filters[0].name=RequestRateLimiter",
+                "--spring.cloud.gateway.default-filters[0].args[leased-rate-limiter.replenishRate]=1000000",
+                "--spring.cloud.gateway.default-filters[0].args[leased-rate-limiter.burstCapacity]=1000000",
+                "--spring.cloud.gateway.default-filters[0].args[leased-rate-limiter.requestedTokens]=1",
+                "--spring.cloud.gateway.default-filters[0].args[key-resolver]=#{@tokenKeyResolver}",
+                "--spring.cloud.gateway.default-filters[1]=DedupeResponseHeader=Access-Control-Allow-Credentials Access-Control-Allow-Origin, RETAIN_FIRST",
+                "--rate-limiter.redis-enabled=false",
+                "--management.health.redis.enabled=false",
+                "--publicKeyPem=" + signedTokens.publicKeyPem()};
+    }
+}
@@ -0,0 +1,214 @@
+package com.shun.gateway.loadtest;
+
+import com.shun.gateway.support.SignedTokens;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Time from process start to the first request proxied with a verified token, for the gateway
+ * started as a plain JVM, with a class data sharing archive, AOT-processed (when the jar was
+ * built with {@code -Paot}) and as a native executable (when {@code startup.native} points at
+ * one).
+ * <p>
+ * The boot jar is unpacked into {@code startup.workDir} and started from a plain class path, CDS
+ * cannot archive classes loaded from nested jars. Each CDS variant gets its own training run that
+ * stops on {@code startup.exit-on-ready}. Run with {@code ./mvnw -Paot,startup -DskipTests verify}.
+ */
+public final class StartupBenchmark {
+
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(2);
+    private static final String CLASSES = "BOOT-INF/classes/";
+    private static final String AOT_INITIALIZER = "com/shun/gateway/GatewayApplication__ApplicationContextInitializer.class";
+
+    private final Path workDir;
+    private final String[] gatewayArguments;
+    private final String authorization;
+    private final int port;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+
+    private StartupBenchmark(Path workDir, String[] gatewayArguments, String authorization, int port) {
+        this.workDir = workDir;
+        this.gatewayArguments = gatewayArguments;
+        this.authorization = authorization;
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path jar = Path.of(System.getProperty("startup.jar", "target/gateway.jar"));
+        Path workDir = Path.of(System.getProperty("startup.workDir", "target/startup"));
+        int runs = Integer.getInteger("startup.runs", 3);
+        String nativeExecutable = System.getProperty("startup.native", "");
+
+        Path appDir = workDir.resolve("app");
+        String classPath = unpack(jar, appDir);
+        boolean aot;
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            aot = jarFile.getEntry(CLASSES + AOT_INITIALIZER) != null;
+        }
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String main = "com.shun.gateway.GatewayApplication";
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("jvm", List.of(java, "-cp", classPath, main));
+        variants.put("jvm+cds", List.of(java, "-XX:SharedArchiveFile=" + workDir.resolve("jvm.jsa"), "-cp", classPath, main));
+        if (aot) {
+            variants.put("aot", List.of(java, "-Dspring.aot.enabled=true", "-cp", classPath, main));
+            variants.put("aot+cds", List.of(java, "-Dspring.aot.enabled=true",
+                    "-XX:SharedArchiveFile=" + workDir.resolve("aot.jsa"), "-cp", classPath, main));
+        } else {
+            System.out.println("The jar was not built with -Paot, skipping the AOT variants");
+        }
+        if (!nativeExecutable.isEmpty()) {
+            variants.put("native", List.of(nativeExecutable));
+        }
+
+        SignedTokens signedTokens = new SignedTokens();
+        try (UpstreamStub upstream = new UpstreamStub(Duration.ZERO)) {
+            int port = freePort();
+            StartupBenchmark benchmark = new StartupBenchmark(workDir,
+                    OfflineGateway.arguments(signedTokens, upstream.getPort(), port),
+                    "Bearer " + signedTokens.token(1), port);
+            benchmark.train("jvm.jsa", List.of(java, "-cp", classPath, main));
+            if (aot) {
+                benchmark.train("aot.jsa", List.of(java, "-Dspring.aot.enabled=true", "-cp", classPath, main));
+            }
+            System.out.printf("%-10s %12s %12s   (%d runs, time to first proxied request)%n", "variant", "median ms", "min ms", runs);
+            for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                long[] millis = new long[runs];
+                for (int i = 0; i < runs; i++) {
+                    millis[i] = benchmark.timeToFirstRequest(variant.getValue(), variant.getKey() + "-" + i);
+                }
+                Arrays.sort(millis);
+                System.out.printf("%-10s %12d %12d%n", variant.getKey(), millis[runs / 2], millis[0]);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts the gateway once with {@code -XX:ArchiveClassesAtExit} and waits for it to exit on ready.
+     */
+    private void train(String archive, List<String> command) throws Exception {
+        List<String> training = new ArrayList<>(command);
+        training.add(1, "-XX:ArchiveClassesAtExit=" + workDir.resolve(archive));
+        training.addAll(Arrays.asList(gatewayArguments));
+        training.add("--startup.exit-on-ready=true");
+        Process process = new ProcessBuilder(training)
+                .redirectErrorStream(true)
+                .redirectOutput(workDir.resolve(archive + ".log").toFile())
+                .start();
+        if (!process.waitFor(START_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS) || !Files.exists(workDir.resolve(archive))) {
+            process.destroyForcibly();
+            throw new IllegalStateException("Training run for " + archive + " failed, see " + workDir.resolve(archive + ".log"));
+        }
+    }
+
+    private long timeToFirstRequest(List<String> command, String logName) throws Exception {
+        List<String> full = new ArrayList<>(command);
+        full.addAll(Arrays.asList(gatewayArguments));
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + OfflineGateway.PATH))
+                .header("Authorization", authorization)
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(full)
+                .redirectErrorStream(true)
+                .redirectOutput(workDir.resolve(logName + ".log").toFile())
+                .start();
+        try {
+            long deadline = start + START_TIMEOUT.toNanos();
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(logName + " exited, see " + workDir.resolve(logName + ".log"));
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                } catch (IOException notListeningYet) {
+                    // keep polling
+                }
+                Thread.sleep(5);
+            }
+            throw new IllegalStateException(logName + " did not proxy a request within " + START_TIMEOUT);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Unpacks the libraries of the boot jar and repacks its classes into {@code application.jar},
+     * CDS refuses non-empty directories on the class path.
+     *
+     * @return the class path, application first then the libraries in {@code classpath.idx} order
+     */
+    private static String unpack(Path jar, Path target) throws IOException {
+        Path application = target.resolve("application.jar");
+        Files.createDirectories(target);
+        List<String> libs = new ArrayList<>();
+        try (JarFile jarFile = new JarFile(jar.toFile());
+             JarOutputStream classes = new JarOutputStream(Files.newOutputStream(application))) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (name.startsWith(CLASSES) && name.length() > CLASSES.length()) {
+                    classes.putNextEntry(new JarEntry(name.substring(CLASSES.length())));
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        in.transferTo(classes);
+                    }
+                    classes.closeEntry();
+                } else if (name.equals("BOOT-INF/classpath.idx")) {
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                            libs.add(line.replaceFirst("^- \"", "").replaceFirst("\"$", ""));
+                        }
+                    }
+                } else if (name.startsWith("BOOT-INF/lib/") && !entry.isDirectory()) {
+                    Path path = target.resolve(name);
+                    Files.createDirectories(path.getParent());
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        }
+        List<String> classPath = new ArrayList<>();
+        classPath.add(application.toAbsolutePath().toString());
+        for (String lib : libs) {
+            classPath.add(target.resolve(lib).toAbsolutePath().toString());
+        }
+        return String.join(File.pathSeparator, classPath);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.shun.gateway.loadtest;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upstream answering every request with the same small JSON body, after an optional delay,
+ * on its own event loops so it can be told apart from the gateway when counting allocations.
+ * Speaks HTTP/1.1 and cleartext HTTP/2, and counts the connections the gateway opened and the
+ * requests it sent. A fraction of the requests can be made to wait longer, for a slow tail.
+ */
+public final class UpstreamStub implements AutoCloseable {
+
+    private static final ByteBuf BODY = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(
+            "{\"code\":200,\"message\":\"ok\"}", StandardCharsets.UTF_8)).asReadOnly();
+
+    private final LoopResources loops;
+    private final Scheduler timer;
+    private final DisposableServer server;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public UpstreamStub(Duration delay) {
+        this(delay, 0, Duration.ZERO);
+    }
+
+    /**
+     * @param slowFraction share of the requests answered after {@code slowDelay} instead of {@code delay}
+     */
+    public UpstreamStub(Duration delay, double slowFraction, Duration slowDelay) {
+        this.loops = LoopResources.create(LoadTest.THREAD_PREFIX + "stub", 1, true);
+        this.timer = Schedulers.newSingle(LoadTest.THREAD_PREFIX + "stub-timer", true);
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .runOn(loops)
+                .protocol(HttpProtocol.HTTP11, HttpProtocol.H2C)
+                // once per TCP connection, not per HTTP/2 stream
+                .doOnChannelInit((observer, channel, remoteAddress) -> connections.incrementAndGet())
+                .handle((request, response) -> {
+                    requests.incrementAndGet();
+                    Duration wait = slowFraction > 0 && ThreadLocalRandom.current().nextDouble() < slowFraction ? slowDelay : delay;
+                    Mono<Void> reply = response
+                            .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                            .header(HttpHeaderNames.CONTENT_LENGTH, Integer.toString(BODY.readableBytes()))
+                            .send(Mono.fromSupplier(BODY::duplicate))
+                            .then();
+                    Mono<Void> drained = request.receive().then();
+                    return wait.isZero() ? drained.then(reply) : drained.then(Mono.delay(wait, timer)).then(reply);
+                })
+                .bindNow();
+    }
+
+    public int getPort() {
+        return server.port();
+    }
+
+    /**
+     * @return connections accepted so far
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return requests received so far
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+        loops.dispose();
+        timer.dispose();
+    }
+}
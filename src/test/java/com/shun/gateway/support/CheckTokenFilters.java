@@ -0,0 +1,117 @@
+package com.shun.gateway.support;
+
+import com.shun.gateway.config.JwtKeyProperties;
+import com.shun.gateway.config.MyFilterConfiguration;
+import com.shun.gateway.config.RevocationProperties;
+import com.shun.gateway.config.TokenCacheProperties;
+import com.shun.gateway.config.TokenPrecheckProperties;
+import com.shun.gateway.config.VerificationProperties;
+import com.shun.gateway.filter.CheckTokenFilter;
+import com.shun.gateway.util.CheckTokenUtil;
+import com.shun.gateway.util.FailureThrottle;
+import com.shun.gateway.util.GenerationalVerdictFilter;
+import com.shun.gateway.util.RedisVerdictStore;
+import com.shun.gateway.util.RevocationSet;
+import com.shun.gateway.util.TokenMetrics;
+import com.shun.gateway.util.TokenPrecheck;
+import com.shun.gateway.util.TokenVerdictCache;
+import com.shun.gateway.util.VerificationCoalescer;
+import com.shun.gateway.util.VerificationLimiter;
+import com.shun.gateway.util.VerificationScheduler;
+import com.shun.gateway.util.WhitePathIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link CheckTokenFilter} wired without Spring: tokens from {@link SignedTokens} pass, Redis
+ * is disabled and verification runs inline. Every collaborator has a default, tests override only
+ * the ones they look at:
+ * <pre>
+ * CheckTokenFilters.builder(signedTokens).withMeterRegistry(registry).whitelist("/public/**").build()
+ * </pre>
+ */
+public final class CheckTokenFilters {
+
+    private final SignedTokens signedTokens;
+    private TokenCacheProperties cacheProperties = new TokenCacheProperties();
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private VerificationLimiter limiter;
+    private TokenPrecheckProperties precheck = new TokenPrecheckProperties();
+    private RevocationSet revocations;
+    private List<String> whitePatterns = List.of();
+
+    private CheckTokenFilters(SignedTokens signedTokens) {
+        this.signedTokens = signedTokens;
+    }
+
+    public static CheckTokenFilters builder(SignedTokens signedTokens) {
+        return new CheckTokenFilters(signedTokens);
+    }
+
+    public CheckTokenFilters withCacheProperties(TokenCacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+        return this;
+    }
+
+    public CheckTokenFilters withMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        return this;
+    }
+
+    /**
+     * Defaults to a limiter with the default (disabled) limit on the builder's registry.
+     */
+    public CheckTokenFilters withLimiter(VerificationLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+
+    public CheckTokenFilters withPrecheck(TokenPrecheckProperties precheck) {
+        this.precheck = precheck;
+        return this;
+    }
+
+    /**
+     * Defaults to an empty revocation set on the builder's registry.
+     */
+    public CheckTokenFilters withRevocations(RevocationSet revocations) {
+        this.revocations = revocations;
+        return this;
+    }
+
+    public CheckTokenFilters whitelist(String... whitePatterns) {
+        this.whitePatterns = List.of(whitePatterns);
+        return this;
+    }
+
+    public CheckTokenFilter build() {
+        JwtKeyProperties keys = new JwtKeyProperties();
+        keys.setKeys(Map.of(SignedTokens.KID, signedTokens.publicKeyPem()));
+        CheckTokenUtil checkTokenUtil = new CheckTokenUtil(keys, new MockEnvironment());
+        try {
+            checkTokenUtil.init();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        TokenVerdictCache cache = new TokenVerdictCache(cacheProperties);
+        GenerationalVerdictFilter verdictFilter = new GenerationalVerdictFilter();
+        VerificationProperties verification = new VerificationProperties();
+        verification.setMode(VerificationProperties.ExecutionMode.INLINE);
+        MyFilterConfiguration whitelist = new MyFilterConfiguration();
+        whitelist.setWhiteList(whitePatterns);
+        WhitePathIndex whitePathIndex = new WhitePathIndex(whitelist);
+        whitePathIndex.init();
+        return new CheckTokenFilter(checkTokenUtil, cache, verdictFilter,
+                new RedisVerdictStore(null, null, cache, verdictFilter, cacheProperties),
+                new VerificationCoalescer(verification, meterRegistry),
+                new VerificationScheduler(verification, meterRegistry),
+                limiter != null ? limiter : new VerificationLimiter(new VerificationProperties(), meterRegistry),
+                new TokenPrecheck(precheck, checkTokenUtil, meterRegistry), new FailureThrottle(precheck, meterRegistry),
+                revocations != null ? revocations : new RevocationSet(new RevocationProperties(), meterRegistry),
+                whitePathIndex, new TokenMetrics(meterRegistry));
+    }
+}
@@ -0,0 +1,496 @@
+package com.shun.gateway.support;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Just enough of a RESP2 Redis server for tests: strings with expiry, counters, pub/sub and
+ * append-only streams read with XREAD.
+ * Commands can be delayed with {@link #setLatencyMillis(long)} to simulate a slow Redis.
+ * <p>
+ * EVAL runs the script it is sent on LuaJ, with {@code redis.call} and {@code redis.pcall}
+ * served by this server and replies converted the way Redis converts them (numbers truncated to
+ * integers, {@code false} to nil, arrays up to the first nil). The scripts themselves are what
+ * ships, e.g. the gateway's {@code request_rate_limiter.lua} and the lease script of
+ * {@code LeasedRateLimiter}; LuaJ is Lua 5.2 where Redis embeds 5.1, which makes no difference
+ * to them. A script runs atomically with respect to other scripts.
+ */
+public class MiniRedisServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Value> data = new ConcurrentHashMap<>();
+    private final Map<String, Set<Connection>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, List<StreamEntry>> streams = new ConcurrentHashMap<>();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong commands = new AtomicLong();
+    private volatile long latencyMillis;
+
+    public MiniRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "mini-redis-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @return the number of commands served so far
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    public String get(String key) {
+        Value value = live(key);
+        return value == null ? null : value.data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                Thread worker = new Thread(() -> serve(socket), "mini-redis-conn");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            Connection connection = new Connection(socket, new BufferedOutputStream(socket.getOutputStream()));
+            List<String> command;
+            while ((command = readCommand(in)) != null) {
+                commands.incrementAndGet();
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                synchronized (connection) {
+                    execute(connection, command);
+                    connection.out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // connection closed
+        } finally {
+            subscribers.values().forEach(set -> set.removeIf(c -> c.socketClosed(socket)));
+        }
+    }
+
+    private void execute(Connection c, List<String> command) throws IOException {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "PING" -> c.simple("PONG");
+            case "SELECT", "AUTH", "CLIENT" -> c.simple("OK");
+            case "GET" -> c.bulk(get(command.get(1)));
+            case "SET" -> {
+                long expireAt = Long.MAX_VALUE;
+                for (int i = 3; i + 1 < command.size(); i++) {
+                    String option = command.get(i).toUpperCase(Locale.ROOT);
+                    if (option.equals("PX")) {
+                        expireAt = System.currentTimeMillis() + Long.parseLong(command.get(i + 1));
+                    } else if (option.equals("EX")) {
+                        expireAt = System.currentTimeMillis() + Long.parseLong(command.get(i + 1)) * 1000;
+                    }
+                }
+                data.put(command.get(1), new Value(command.get(2), expireAt));
+                c.simple("OK");
+            }
+            case "DEL" -> c.integer(data.remove(command.get(1)) != null ? 1 : 0);
+            case "INCRBY", "DECRBY", "INCR", "DECR" -> {
+                long delta = command.size() > 2 ? Long.parseLong(command.get(2)) : 1;
+                if (name.startsWith("DECR")) {
+                    delta = -delta;
+                }
+                c.integer(incrBy(command.get(1), delta));
+            }
+            case "PEXPIRE", "EXPIRE" -> {
+                long millis = Long.parseLong(command.get(2)) * (name.equals("EXPIRE") ? 1000 : 1);
+                Value value = live(command.get(1));
+                if (value != null) {
+                    data.put(command.get(1), new Value(value.data, System.currentTimeMillis() + millis));
+                }
+                c.integer(value != null ? 1 : 0);
+            }
+            case "PUBLISH" -> {
+                Set<Connection> targets = subscribers.getOrDefault(command.get(1), Set.of());
+                for (Connection target : targets) {
+                    synchronized (target) {
+                        target.array("message", command.get(1), command.get(2));
+                        target.out.flush();
+                    }
+                }
+                c.integer(targets.size());
+            }
+            case "SUBSCRIBE" -> {
+                for (int i = 1; i < command.size(); i++) {
+                    subscribers.computeIfAbsent(command.get(i), k -> new CopyOnWriteArraySet<>()).add(c);
+                    c.subscription("subscribe", command.get(i), i);
+                }
+            }
+            case "UNSUBSCRIBE" -> {
+                for (int i = 1; i < command.size(); i++) {
+                    subscribers.getOrDefault(command.get(i), Set.of()).remove(c);
+                    c.subscription("unsubscribe", command.get(i), 0);
+                }
+            }
+            case "XADD" -> c.bulk(xadd(command.get(1), command.subList(3, command.size())));
+            case "XREAD" -> {
+                int count = Integer.MAX_VALUE;
+                int streamsAt = 1;
+                for (; !command.get(streamsAt).equalsIgnoreCase("STREAMS"); streamsAt++) {
+                    if (command.get(streamsAt).equalsIgnoreCase("COUNT")) {
+                        count = Integer.parseInt(command.get(++streamsAt));
+                    }
+                }
+                String key = command.get(streamsAt + 1);
+                List<StreamEntry> entries = xread(key, command.get(streamsAt + 2), count);
+                if (entries.isEmpty()) {
+                    c.header(-1);
+                    return;
+                }
+                c.header(1);
+                c.header(2);
+                c.bulk(key);
+                c.header(entries.size());
+                for (StreamEntry entry : entries) {
+                    c.header(2);
+                    c.bulk(entry.id());
+                    c.array(entry.fields().toArray(new String[0]));
+                }
+            }
+            case "SETEX" -> {
+                data.put(command.get(1), new Value(command.get(3),
+                        System.currentTimeMillis() + Long.parseLong(command.get(2)) * 1000));
+                c.simple("OK");
+            }
+            case "TIME" -> {
+                Instant now = Instant.now();
+                c.array(Long.toString(now.getEpochSecond()), Long.toString(now.getNano() / 1000));
+            }
+            case "EVALSHA" -> c.error("NOSCRIPT No matching script. Please use EVAL.");
+            case "EVAL" -> {
+                int keys = Integer.parseInt(command.get(2));
+                LuaValue reply;
+                try {
+                    reply = eval(command.get(1), command.subList(3, 3 + keys), command.subList(3 + keys, command.size()));
+                } catch (LuaError e) {
+                    c.error("ERR " + e.getMessage());
+                    return;
+                }
+                reply(c, reply);
+            }
+            default -> c.error("ERR unknown command '" + command.get(0) + "'");
+        }
+    }
+
+    private synchronized String xadd(String key, List<String> fields) {
+        List<StreamEntry> entries = streams.computeIfAbsent(key, k -> new ArrayList<>());
+        String id = System.currentTimeMillis() + "-" + entries.size();
+        entries.add(new StreamEntry(id, List.copyOf(fields)));
+        return id;
+    }
+
+    private synchronized List<StreamEntry> xread(String key, String after, int count) {
+        List<StreamEntry> read = new ArrayList<>();
+        for (StreamEntry entry : streams.getOrDefault(key, List.of())) {
+            if (read.size() < count && compareIds(entry.id(), after) > 0) {
+                read.add(entry);
+            }
+        }
+        return read;
+    }
+
+    private static int compareIds(String a, String b) {
+        String[] left = a.split("-");
+        String[] right = b.split("-");
+        int byTime = Long.compare(Long.parseLong(left[0]), Long.parseLong(right[0]));
+        return byTime != 0 ? byTime : Long.compare(Long.parseLong(left[1]), Long.parseLong(right[1]));
+    }
+
+    private synchronized long incrBy(String key, long delta) {
+        Value value = live(key);
+        long next = (value == null ? 0 : Long.parseLong(value.data)) + delta;
+        data.put(key, new Value(Long.toString(next), value == null ? Long.MAX_VALUE : value.expireAt));
+        return next;
+    }
+
+    private synchronized LuaValue eval(String script, List<String> keys, List<String> args) {
+        Globals globals = JsePlatform.standardGlobals();
+        globals.set("KEYS", strings(keys));
+        globals.set("ARGV", strings(args));
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs call) {
+                LuaValue reply = redisCall(call);
+                if (reply.istable() && !reply.get("err").isnil()) {
+                    throw new LuaError(reply.get("err").tojstring());
+                }
+                return reply;
+            }
+        });
+        redis.set("pcall", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs call) {
+                return redisCall(call);
+            }
+        });
+        redis.set("replicate_commands", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs call) {
+                return LuaValue.TRUE;
+            }
+        });
+        globals.set("redis", redis);
+        return globals.load(script, "@user_script").call();
+    }
+
+    /**
+     * Runs one {@code redis.call} against this server and reads its reply back as Redis hands it
+     * to Lua.
+     */
+    private LuaValue redisCall(Varargs call) {
+        List<String> command = new ArrayList<>();
+        for (int i = 1; i <= call.narg(); i++) {
+            command.add(call.arg(i).tojstring());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            execute(new Connection(null, out), command);
+            return toLua(new BufferedInputStream(new ByteArrayInputStream(out.toByteArray())));
+        } catch (IOException e) {
+            throw new LuaError(e);
+        }
+    }
+
+    private static LuaValue toLua(InputStream in) throws IOException {
+        String line = readLine(in);
+        String rest = line.substring(1);
+        switch (line.charAt(0)) {
+            case '+':
+                return LuaValue.tableOf(new LuaValue[]{LuaValue.valueOf("ok"), LuaValue.valueOf(rest)});
+            case '-':
+                return LuaValue.tableOf(new LuaValue[]{LuaValue.valueOf("err"), LuaValue.valueOf(rest)});
+            case ':':
+                return LuaValue.valueOf(Long.parseLong(rest));
+            case '$': {
+                int length = Integer.parseInt(rest);
+                if (length < 0) {
+                    return LuaValue.FALSE;
+                }
+                byte[] bytes = in.readNBytes(length + 2);
+                return LuaValue.valueOf(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+            default: {
+                int count = Integer.parseInt(rest);
+                if (count < 0) {
+                    return LuaValue.FALSE;
+                }
+                LuaTable table = new LuaTable();
+                for (int i = 1; i <= count; i++) {
+                    table.set(i, toLua(in));
+                }
+                return table;
+            }
+        }
+    }
+
+    private static void reply(Connection c, LuaValue value) throws IOException {
+        if (value.type() == LuaValue.TNUMBER) {
+            // Redis truncates Lua numbers to integers
+            c.integer((long) value.todouble());
+        } else if (value.type() == LuaValue.TSTRING) {
+            c.bulk(value.tojstring());
+        } else if (value.isboolean()) {
+            if (value.toboolean()) {
+                c.integer(1);
+            } else {
+                c.bulk(null);
+            }
+        } else if (value.istable()) {
+            if (!value.get("ok").isnil()) {
+                c.simple(value.get("ok").tojstring());
+            } else if (!value.get("err").isnil()) {
+                c.error(value.get("err").tojstring());
+            } else {
+                List<LuaValue> items = new ArrayList<>();
+                for (int i = 1; !value.get(i).isnil(); i++) {
+                    items.add(value.get(i));
+                }
+                c.header(items.size());
+                for (LuaValue item : items) {
+                    reply(c, item);
+                }
+            }
+        } else {
+            c.bulk(null);
+        }
+    }
+
+    private static LuaTable strings(List<String> values) {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, LuaValue.valueOf(values.get(i)));
+        }
+        return table;
+    }
+
+    private Value live(String key) {
+        Value value = data.get(key);
+        if (value != null && value.expireAt <= System.currentTimeMillis()) {
+            data.remove(key, value);
+            return null;
+        }
+        return value;
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        if (header.charAt(0) != '*') {
+            return List.of(header.trim().split("\\s+"));
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = in.readNBytes(length);
+            in.readNBytes(2);
+            args.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return args;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\r') {
+                in.read();
+                return sb.toString();
+            }
+            sb.append((char) b);
+        }
+        return null;
+    }
+
+    private record Value(String data, long expireAt) {
+    }
+
+    private record StreamEntry(String id, List<String> fields) {
+    }
+
+    private static final class Connection {
+        final OutputStream out;
+        private final Socket socket;
+
+        Connection(Socket socket, OutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        boolean socketClosed(Socket closed) {
+            return socket == closed;
+        }
+
+        void simple(String s) throws IOException {
+            write("+" + s + "\r\n");
+        }
+
+        void error(String s) throws IOException {
+            write("-" + s + "\r\n");
+        }
+
+        void integer(long n) throws IOException {
+            write(":" + n + "\r\n");
+        }
+
+        void bulk(String s) throws IOException {
+            if (s == null) {
+                write("$-1\r\n");
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            write("$" + bytes.length + "\r\n");
+            out.write(bytes);
+            write("\r\n");
+        }
+
+        void header(int count) throws IOException {
+            write("*" + count + "\r\n");
+        }
+
+        void integers(long... items) throws IOException {
+            write("*" + items.length + "\r\n");
+            for (long item : items) {
+                integer(item);
+            }
+        }
+
+        void array(String... items) throws IOException {
+            write("*" + items.length + "\r\n");
+            for (String item : items) {
+                bulk(item);
+            }
+        }
+
+        void subscription(String kind, String channel, long count) throws IOException {
+            write("*3\r\n");
+            bulk(kind);
+            bulk(channel);
+            integer(count);
+        }
+
+        private void write(String s) throws IOException {
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
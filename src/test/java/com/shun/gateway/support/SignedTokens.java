@@ -0,0 +1,70 @@
+package com.shun.gateway.support;
+
+import io.jsonwebtoken.Jwts;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * ES256 tokens shaped like the ones the gateway receives (kid, iss, aud, sub, uid, jti),
+ * signed with a key pair generated for the test run.
+ */
+public final class SignedTokens {
+
+    public static final String KID = "test-key";
+
+    private final KeyPair keyPair;
+    private final String kid;
+
+    public SignedTokens() {
+        this(KID);
+    }
+
+    public SignedTokens(String kid) {
+        this.kid = kid;
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            this.keyPair = generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    /**
+     * @return the public key in the PEM format expected by {@code publicKeyPem}
+     */
+    public String publicKeyPem() {
+        return "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.getMimeEncoder(64, "\n".getBytes()).encodeToString(keyPair.getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----\n";
+    }
+
+    public String token(long uid, String subject, String audience, Duration validFor) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .header().keyId(kid).and()
+                .issuer("com.shun")
+                .audience().add(audience).and()
+                .subject(subject)
+                .issuedAt(new Date(now))
+                .expiration(new Date(now + validFor.toMillis()))
+                .id(UUID.randomUUID().toString())
+                .claim("uid", Long.toString(uid))
+                .signWith(keyPair.getPrivate(), Jwts.SIG.ES256)
+                .compact();
+    }
+
+    public String token(long uid) {
+        return token(uid, "user" + uid, "pc", Duration.ofHours(1));
+    }
+}
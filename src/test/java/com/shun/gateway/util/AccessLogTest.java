@@ -0,0 +1,155 @@
+package com.shun.gateway.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shun.gateway.config.AccessLogProperties;
+import com.shun.gateway.filter.AccessLogFilter;
+import com.shun.gateway.filter.CheckTokenFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+class AccessLogTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AccessLogProperties properties = new AccessLogProperties();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesTheFiltersRecordsAsJsonLines() throws Exception {
+        properties.setEnabled(true);
+        properties.setPath(dir.resolve("access.log").toString());
+        AccessLog accessLog = new AccessLog(properties, meterRegistry);
+        AccessLogFilter filter = new AccessLogFilter(accessLog);
+        accessLog.start();
+
+        MockServerWebExchange passed = MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders/\"7\"/张"));
+        passed.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async().id("orders").uri("http://localhost")
+                .predicate(exchange -> true).build());
+        passed.getAttributes().put(CheckTokenFilter.TRACE_ID_ATTR, "4bf92f3577b34da6a3ce929d0e0e4736");
+        passed.getAttributes().put(CheckTokenFilter.VERDICT_ATTR, TokenVerdict.PASSED);
+        passed.getAttributes().put(CheckTokenFilter.IDENTITY_ATTR, new TokenIdentity("42", "bella", "pc", 0, null));
+        filter.filter(passed, exchange -> {
+            exchange.getResponse().setStatusCode(HttpStatus.OK);
+            return Mono.empty();
+        }).block();
+        MockServerWebExchange failed = MockServerWebExchange.from(MockServerHttpRequest.post("/api/orders")
+                .header(CheckTokenFilter.TRACE_ID, "abc"));
+        filter.filter(failed, exchange -> Mono.error(new IllegalStateException())).onErrorResume(e -> Mono.empty()).block();
+        accessLog.stop();
+
+        List<String> lines = Files.readAllLines(dir.resolve("access.log"));
+        assertEquals(2, lines.size());
+        JsonNode first = objectMapper.readTree(lines.get(0));
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", first.get("traceId").asText());
+        assertEquals("GET", first.get("method").asText());
+        assertEquals("/api/orders/%227%22/%E5%BC%A0", first.get("path").asText());
+        assertEquals("orders", first.get("route").asText());
+        assertEquals(200, first.get("status").asInt());
+        assertEquals("completed", first.get("outcome").asText());
+        assertEquals("42", first.get("user").asText());
+        assertEquals("passed", first.get("verdict").asText());
+        assertTrue(first.get("time").asLong() > 0);
+        assertTrue(first.get("micros").asLong() >= 0);
+        JsonNode second = objectMapper.readTree(lines.get(1));
+        assertEquals("abc", second.get("traceId").asText());
+        assertEquals("error", second.get("outcome").asText());
+        assertEquals(500, second.get("status").asInt());
+        assertFalse(second.has("user"));
+        assertEquals(2, meterRegistry.get("gateway.access.log.written").counter().count());
+    }
+
+    @Test
+    void rollsOverAndEscapes() throws Exception {
+        properties.setEnabled(true);
+        properties.setPath(dir.resolve("access.log").toString());
+        properties.setMaxFileSize(DataSize.ofBytes(1024));
+        properties.setMaxHistory(2);
+        properties.setBatchSize(4);
+        AccessLog accessLog = new AccessLog(properties, meterRegistry);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(accessLog.record(i, 1000, "trace-" + i, HttpMethod.GET, "/a\"b\\c\n😀" + i,
+                    null, 200, AccessLog.Outcome.COMPLETED, null, null));
+        }
+        accessLog.start();
+        accessLog.stop();
+
+        assertTrue(Files.exists(dir.resolve("access.log.1")));
+        assertTrue(Files.exists(dir.resolve("access.log.2")));
+        assertFalse(Files.exists(dir.resolve("access.log.3")));
+        List<String> lines = new ArrayList<>(Files.readAllLines(dir.resolve("access.log.2")));
+        lines.addAll(Files.readAllLines(dir.resolve("access.log.1")));
+        lines.addAll(Files.readAllLines(dir.resolve("access.log")));
+        for (int i = 0; i < lines.size(); i++) {
+            JsonNode record = objectMapper.readTree(lines.get(i));
+            int index = 100 - lines.size() + i;
+            assertEquals("/a\"b\\c\n😀" + index, record.get("path").asText());
+            assertEquals(index, record.get("time").asLong());
+        }
+        assertTrue(Files.size(dir.resolve("access.log.1")) <= 1024);
+    }
+
+    @Test
+    void samplesByTraceIdButKeepsErrorsAndSlowRequests() {
+        properties.setSampleRate(0.1);
+        properties.setBufferSize(1 << 16);
+        AccessLog accessLog = new AccessLog(properties, meterRegistry);
+
+        int sampled = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String traceId = TraceIds.newTraceId();
+            if (accessLog.sampled(traceId)) {
+                sampled++;
+            }
+            assertEquals(accessLog.sampled(traceId), record(accessLog, traceId, 200, 1_000));
+        }
+        assertTrue(sampled > 800 && sampled < 1200, "sampled " + sampled);
+        int kept = 0;
+        for (int i = 0; i < 100; i++) {
+            if (record(accessLog, "trace-" + i, 503, 1_000) && record(accessLog, "trace-" + i, 200, 2_000_000_000L)) {
+                kept++;
+            }
+        }
+        assertEquals(100, kept);
+    }
+
+    @Test
+    void dropsWhatTheFullBufferCannotTake() {
+        properties.setBufferSize(4);
+        AccessLog accessLog = new AccessLog(properties, meterRegistry);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(record(accessLog, "trace", 200, 0));
+        }
+        assertFalse(record(accessLog, "trace", 200, 0));
+        assertEquals(1, meterRegistry.get("gateway.access.log.dropped").counter().count());
+        assertEquals(2, accessLog.drain(2));
+        assertTrue(record(accessLog, "trace", 200, 0));
+        assertEquals(3, accessLog.drain(10));
+    }
+
+    private static boolean record(AccessLog accessLog, String traceId, int status, long elapsedNanos) {
+        return accessLog.record(0, elapsedNanos, traceId, HttpMethod.GET, "/", null, status,
+                AccessLog.Outcome.COMPLETED, null, null);
+    }
+}
@@ -0,0 +1,52 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.JwtKeyProperties;
+import com.shun.gateway.support.SignedTokens;
+import io.jsonwebtoken.security.SecurityException;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CheckTokenUtilTest {
+
+    private final SignedTokens defaultKey = new SignedTokens("CWS");
+    private final SignedTokens rotatedKey = new SignedTokens("2024-10");
+    private final JwtKeyProperties properties = new JwtKeyProperties();
+    private final MockEnvironment environment = new MockEnvironment().withProperty("publicKeyPem", defaultKey.publicKeyPem());
+    private final CheckTokenUtil checkTokenUtil = new CheckTokenUtil(properties, environment);
+
+    @Test
+    void picksTheParserByKid() throws Exception {
+        properties.setKeys(Map.of("2024-10", rotatedKey.publicKeyPem()));
+        checkTokenUtil.init();
+
+        assertThat(checkTokenUtil.check(defaultKey.token(1)).get("uid")).isEqualTo("1");
+        assertThat(checkTokenUtil.check(rotatedKey.token(2)).get("uid")).isEqualTo("2");
+    }
+
+    @Test
+    void swapsKeysOnRefresh() throws Exception {
+        checkTokenUtil.init();
+        String rotated = rotatedKey.token(2);
+        assertThatThrownBy(() -> checkTokenUtil.check(rotated)).isInstanceOf(SecurityException.class);
+
+        properties.setKeys(Map.of("2024-10", rotatedKey.publicKeyPem()));
+        checkTokenUtil.onRefresh();
+
+        assertThat(checkTokenUtil.check(rotated).get("uid")).isEqualTo("2");
+    }
+
+    @Test
+    void keepsPreviousKeysWhenRefreshFails() throws Exception {
+        checkTokenUtil.init();
+
+        properties.setKeys(Map.of("broken", "not a pem"));
+        checkTokenUtil.onRefresh();
+
+        assertThat(checkTokenUtil.check(defaultKey.token(1)).get("uid")).isEqualTo("1");
+    }
+}
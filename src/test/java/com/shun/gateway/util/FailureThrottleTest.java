@@ -0,0 +1,88 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.TokenPrecheckProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FailureThrottleTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void throttlesAClientWithTooManyFailuresInTheWindow() {
+        FailureThrottle throttle = new FailureThrottle(properties(0), meterRegistry, now::get);
+
+        for (int i = 0; i < 9; i++) {
+            throttle.failed(exchange("10.0.0.1"));
+        }
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isFalse();
+        throttle.failed(exchange("10.0.0.1"));
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isTrue();
+        assertThat(throttle.isThrottled(exchange("10.0.0.2"))).isFalse();
+
+        // half a window on, half of the previous window still counts
+        now.addAndGet(Duration.ofSeconds(90).toNanos());
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isFalse();
+        for (int i = 0; i < 4; i++) {
+            throttle.failed(exchange("10.0.0.1"));
+        }
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isFalse();
+        throttle.failed(exchange("10.0.0.1"));
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isTrue();
+
+        now.addAndGet(Duration.ofMinutes(2).toNanos());
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isFalse();
+        assertThat(meterRegistry.get("gateway.token.throttled").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void takesTheClientFromTrustedProxies() {
+        FailureThrottle throttle = new FailureThrottle(properties(1), meterRegistry, now::get);
+
+        for (int i = 0; i < 10; i++) {
+            throttle.failed(forwarded("203.0.113.7"));
+        }
+        assertThat(throttle.isThrottled(forwarded("203.0.113.7"))).isTrue();
+        assertThat(throttle.isThrottled(forwarded("203.0.113.8"))).isFalse();
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isFalse();
+    }
+
+    @Test
+    void isOffByDefault() {
+        FailureThrottle throttle = new FailureThrottle(new TokenPrecheckProperties(), meterRegistry, now::get);
+
+        for (int i = 0; i < 100; i++) {
+            throttle.failed(exchange("10.0.0.1"));
+        }
+        assertThat(throttle.isThrottled(exchange("10.0.0.1"))).isFalse();
+    }
+
+    private static TokenPrecheckProperties properties(int trustedProxies) {
+        TokenPrecheckProperties properties = new TokenPrecheckProperties();
+        properties.getThrottle().setEnabled(true);
+        properties.getThrottle().setMaxFailures(10);
+        properties.getThrottle().setWindow(Duration.ofMinutes(1));
+        properties.getThrottle().setTrustedProxies(trustedProxies);
+        return properties;
+    }
+
+    private static MockServerWebExchange exchange(String ip) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders")
+                .remoteAddress(new InetSocketAddress(ip, 40000)));
+    }
+
+    private static MockServerWebExchange forwarded(String client) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("/api/orders")
+                .remoteAddress(new InetSocketAddress("10.0.0.1", 40000))
+                .header("X-Forwarded-For", client));
+    }
+}
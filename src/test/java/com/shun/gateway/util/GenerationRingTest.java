@@ -0,0 +1,46 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.BloomFilterProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GenerationRingTest {
+
+    private final BloomFilterProperties properties = new BloomFilterProperties();
+
+    @Test
+    void keepsAGenerationStartedByAnEarlyRotation() {
+        properties.setMinInsertions(4);
+        GenerationRing<Long> ring = new GenerationRing<>(properties, Long::valueOf, Runnable::run);
+        GenerationRing.Generation<Long> first = ring.current();
+        for (int i = 0; i < 4; i++) {
+            ring.recordInsert();
+        }
+        GenerationRing.Generation<Long> early = ring.current();
+        assertThat(early).isNotSameAs(first);
+        assertThat(early.expectedInsertions()).isEqualTo(8);
+
+        // the fixed-rate tick lands right after the early rotation
+        ring.rotateIfOlderThan(properties.getWindow().dividedBy(2));
+
+        assertThat(ring.current()).isSameAs(early);
+        assertThat(ring.get(1)).isSameAs(first);
+    }
+
+    @Test
+    void rotatesAGenerationThatHasLivedItsWindow() {
+        GenerationRing<Long> ring = new GenerationRing<>(properties, Long::valueOf, Runnable::run);
+        long window = properties.getWindow().toMillis();
+        ring.restore(properties.getMinInsertions(), properties.getMinInsertions(), 10,
+                System.currentTimeMillis() - window);
+        GenerationRing.Generation<Long> old = ring.current();
+
+        ring.rotateIfOlderThan(Duration.ofMillis(window / 2));
+
+        assertThat(ring.current()).isNotSameAs(old);
+        assertThat(ring.get(1)).isSameAs(old);
+    }
+}
@@ -0,0 +1,191 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.filter.HedgeGatewayFilterFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.client.discovery.simple.reactive.SimpleReactiveDiscoveryClient;
+import org.springframework.cloud.client.discovery.simple.reactive.SimpleReactiveDiscoveryProperties;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+class HedgingTest {
+
+    private static final Route ROUTE = Route.async().id("catalog").uri("lb://catalog")
+            .predicate(exchange -> true).build();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+
+    @Test
+    void delayFollowsThePercentileOfTheLastWindow() {
+        AtomicLong now = new AtomicLong();
+        Hedging.RouteStats stats = new Hedging(meterRegistry, now::get)
+                .forRoute("catalog", 90, Duration.ofMillis(1), Duration.ofMillis(500));
+        assertEquals(Duration.ofMillis(500), stats.getDelay());
+
+        for (int i = 0; i < 100; i++) {
+            stats.record(Duration.ofMillis(i < 90 ? 10 : 300).toNanos());
+        }
+        assertEquals(Duration.ofMillis(500), stats.getDelay());
+        now.addAndGet(Hedging.WINDOW.toNanos());
+        stats.record(Duration.ofMillis(10).toNanos());
+        long delay = stats.getDelay().toMillis();
+        assertTrue(delay >= 10 && delay <= 12, "delay " + delay);
+
+        now.addAndGet(Hedging.WINDOW.toNanos());
+        for (int i = 0; i < Hedging.MIN_SAMPLES; i++) {
+            stats.record(100_000);
+        }
+        assertEquals(Duration.ofMillis(1), stats.getDelay());
+    }
+
+    @Test
+    void budgetCapsTheExtraRequests() {
+        Hedging.RouteStats stats = new Hedging(meterRegistry).forRoute("catalog", 95, Duration.ZERO, Duration.ofSeconds(1));
+        for (int i = 0; i < 100; i++) {
+            stats.onRequest(0.05);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertTrue(stats.trySend(Hedging.Reason.DELAY));
+        }
+        assertFalse(stats.trySend(Hedging.Reason.ERROR));
+
+        for (int i = 0; i < 10_000; i++) {
+            stats.onRequest(0.05);
+        }
+        int sent = 0;
+        while (stats.trySend(Hedging.Reason.DELAY)) {
+            sent++;
+        }
+        assertEquals(Hedging.BUDGET_BURST, sent);
+        assertEquals(15, meterRegistry.get("gateway.hedge.sent").tag("reason", "delay").counter().count());
+        assertEquals(2, meterRegistry.get("gateway.hedge.denied").counter().count());
+    }
+
+    @Test
+    void answersFromTheOtherInstanceWhenTheFirstIsSlow() {
+        GatewayFilter filter = filter(1);
+        GatewayFilterChain upstream = upstream(Map.of("slow", Duration.ofSeconds(2), "fast", Duration.ZERO));
+
+        MockServerWebExchange exchange = exchange();
+        long startedAt = System.nanoTime();
+        filter.filter(exchange, upstream).block(Duration.ofSeconds(5));
+
+        assertTrue(System.nanoTime() - startedAt < Duration.ofSeconds(1).toNanos());
+        MockServerHttpResponse response = exchange.getResponse();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("fast", response.getHeaders().getFirst("x-instance"));
+        assertEquals("from fast", response.getBodyAsString().block());
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(ROUTE, exchange.getAttribute(GATEWAY_ROUTE_ATTR));
+        assertEquals(1, meterRegistry.get("gateway.hedge.won").counter().count());
+    }
+
+    @Test
+    void waitsForTheFirstWhenTheBudgetIsSpent() {
+        GatewayFilter filter = filter(0);
+        GatewayFilterChain upstream = upstream(Map.of("slow", Duration.ofMillis(300), "fast", Duration.ZERO));
+
+        MockServerWebExchange exchange = exchange();
+        filter.filter(exchange, upstream).block(Duration.ofSeconds(5));
+
+        assertEquals("slow", exchange.getResponse().getHeaders().getFirst("x-instance"));
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1, meterRegistry.get("gateway.hedge.denied").counter().count());
+    }
+
+    @Test
+    void retriesAFailedRequestOnTheOtherInstance() {
+        GatewayFilter filter = filter(1);
+        GatewayFilterChain upstream = upstream(Map.of("fast", Duration.ZERO));
+
+        MockServerWebExchange exchange = exchange();
+        filter.filter(exchange, upstream).block(Duration.ofSeconds(5));
+
+        assertEquals("fast", exchange.getResponse().getHeaders().getFirst("x-instance"));
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(1, meterRegistry.get("gateway.hedge.sent").tag("reason", "error").counter().count());
+    }
+
+    @Test
+    void leavesRequestsWithABodyAlone() {
+        GatewayFilter filter = filter(1);
+        GatewayFilterChain upstream = upstream(Map.of("fast", Duration.ZERO));
+
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/catalog").body("{}"));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, ROUTE);
+        filter.filter(exchange, upstream).block(Duration.ofSeconds(5));
+
+        assertEquals("from fast", exchange.getResponse().getBodyAsString().block());
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(0, meterRegistry.get("gateway.hedge.requests").counter().count());
+    }
+
+    private GatewayFilter filter(double budget) {
+        SimpleReactiveDiscoveryProperties discovery = new SimpleReactiveDiscoveryProperties();
+        discovery.setInstances(Map.of("catalog", List.of(instance("slow", 8081), instance("fast", 8082))));
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("discoveryClient", new SimpleReactiveDiscoveryClient(discovery));
+
+        HedgeGatewayFilterFactory factory = new HedgeGatewayFilterFactory(new Hedging(meterRegistry),
+                beanFactory.getBeanProvider(ReactiveDiscoveryClient.class));
+        HedgeGatewayFilterFactory.Config config = new HedgeGatewayFilterFactory.Config();
+        config.setRouteId(ROUTE.getId());
+        config.setBudget(budget);
+        config.setMaxDelay(Duration.ofMillis(50));
+        return factory.apply(config);
+    }
+
+    private static DefaultServiceInstance instance(String id, int port) {
+        return new DefaultServiceInstance(id, "catalog", "localhost", port, false);
+    }
+
+    private static MockServerWebExchange exchange() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/catalog"));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, ROUTE);
+        return exchange;
+    }
+
+    /**
+     * Answers as the instance on the port of the route, failing for instances without a delay.
+     */
+    private GatewayFilterChain upstream(Map<String, Duration> delays) {
+        return exchange -> {
+            upstreamCalls.incrementAndGet();
+            Route route = exchange.getRequiredAttribute(GATEWAY_ROUTE_ATTR);
+            String instance = route.getUri().getPort() == 8081 ? "slow" : "fast";
+            Duration delay = delays.get(instance);
+            if (delay == null) {
+                return Mono.error(new IllegalStateException(instance + " is down"));
+            }
+            return Mono.delay(delay).then(Mono.defer(() -> {
+                exchange.getResponse().setStatusCode(HttpStatus.OK);
+                exchange.getResponse().getHeaders().set("x-instance", instance);
+                byte[] body = ("from " + instance).getBytes(StandardCharsets.UTF_8);
+                return exchange.getResponse().writeWith(Mono.just(DefaultDataBufferFactory.sharedInstance.wrap(body)));
+            }));
+        };
+    }
+}
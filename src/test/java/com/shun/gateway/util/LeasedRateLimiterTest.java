@@ -0,0 +1,243 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.RateLimiterProperties;
+import com.shun.gateway.support.MiniRedisServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.ratelimit.RateLimiter;
+import org.springframework.cloud.gateway.filter.ratelimit.RedisRateLimiter;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LeasedRateLimiterTest {
+
+    private static final String ROUTE = "route";
+
+    private MiniRedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new MiniRedisServer();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", server.getPort()));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connectionFactory.destroy();
+        server.close();
+    }
+
+    @Test
+    void admitsAboutAsManyAsRedisRateLimiterAcrossReplicas() throws InterruptedException {
+        int burst = 200;
+        int lease = 10;
+        RedisRateLimiter reference = redisRateLimiter(1, burst);
+        List<LeasedRateLimiter> replicas = List.of(limiter(1, burst, lease), limiter(1, burst, lease),
+                limiter(1, burst, lease), limiter(1, burst, lease));
+
+        long start = System.nanoTime();
+        int referenceAllowed = 0;
+        int leasedAllowed = 0;
+        for (int i = 0; i < 4 * burst; i++) {
+            referenceAllowed += allowed(reference, "user-1");
+            leasedAllowed += allowed(replicas.get(i % replicas.size()), "user-1");
+            Thread.sleep(1);
+        }
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+
+        // both refill one permit per second while the test runs
+        assertThat(referenceAllowed).isBetween(burst, burst + 10);
+        assertThat(leasedAllowed).isBetween(burst, burst + (int) seconds + 1);
+    }
+
+    @Test
+    void staysWithinBurstPlusRateAcrossRefills() throws InterruptedException {
+        int rate = 20;
+        int burst = 10;
+        List<LeasedRateLimiter> replicas = List.of(limiter(rate, burst, 2), limiter(rate, burst, 2));
+
+        List<Long> allowedAt = new ArrayList<>();
+        hammer(replicas, allowedAt, 600);
+        // long enough for Redis to refill the whole burst while the replicas still hold permits
+        Thread.sleep(700);
+        hammer(replicas, allowedAt, 600);
+
+        assertThat(allowedAt.size()).isGreaterThan(2 * burst + rate);
+        for (int i = 0; i < allowedAt.size(); i++) {
+            for (int j = i; j < allowedAt.size(); j++) {
+                double seconds = (allowedAt.get(j) - allowedAt.get(i)) / 1e9;
+                // one permit of slack for when the test saw the answer rather than when it was given
+                assertThat(j - i + 1).as("permits within %.3fs", seconds).isLessThanOrEqualTo((int) (burst + rate * seconds) + 1);
+            }
+        }
+    }
+
+    @Test
+    void answersWithoutWaitingForRedis() {
+        RedisRateLimiter reference = redisRateLimiter(1, 10_000);
+        LeasedRateLimiter leased = limiter(1, 10_000, 100);
+        // connect before slowing Redis down
+        allowed(reference, "user-1");
+        allowed(leased, "user-1");
+        server.setLatencyMillis(5);
+
+        long[] referenceNanos = new long[40];
+        long[] leasedNanos = new long[40];
+        for (int i = 0; i < referenceNanos.length; i++) {
+            long start = System.nanoTime();
+            allowed(reference, "user-1");
+            referenceNanos[i] = System.nanoTime() - start;
+            start = System.nanoTime();
+            allowed(leased, "user-1");
+            leasedNanos[i] = System.nanoTime() - start;
+        }
+
+        assertThat(median(referenceNanos)).isGreaterThanOrEqualTo(Duration.ofMillis(5).toNanos());
+        assertThat(median(leasedNanos)).isLessThan(Duration.ofMillis(1).toNanos());
+    }
+
+    @Test
+    void limitsLocallyWhenRedisIsDown() throws Exception {
+        int burst = 20;
+        LeasedRateLimiter leased = limiter(1, burst, 5);
+        server.close();
+
+        int allowed = allowed(leased, "user-1");
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (leased.isAvailable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(leased.isAvailable()).isFalse();
+        for (int i = 0; i < 2 * burst; i++) {
+            allowed += allowed(leased, "user-1");
+        }
+
+        // the local bucket starts full and refills one permit per second
+        assertThat(allowed).isBetween(burst, burst + 1);
+    }
+
+    @Test
+    void keepsALeaseThatLandsAfterItsBucketWasEvicted() throws Exception {
+        LeasedRateLimiter leased = limiter(1, 10, 5, 1);
+        // connect before slowing Redis down
+        allowed(leased, "user-0");
+        server.setLatencyMillis(50);
+
+        CompletableFuture<RateLimiter.Response> first = leased.isAllowed(ROUTE, "user-1").toFuture();
+        // takes the only slot while the lease of user-1 is out
+        leased.isAllowed(ROUTE, "user-2").subscribe();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).isAllowed()).isTrue();
+    }
+
+    @Test
+    void deniesRequestsLargerThanTheBurst() {
+        LeasedRateLimiter leased = limiter(1, 5, 1);
+        leased.getConfig().get(ROUTE).setRequestedTokens(6);
+
+        assertThat(allowed(leased, "user-1")).isZero();
+    }
+
+    @Test
+    void keepsTheBucketInRedisAsItsTheoreticalArrivalTime() {
+        LeasedRateLimiter leased = limiter(1, 10, 5);
+        long before = System.currentTimeMillis();
+
+        assertThat(allowed(leased, "user-1")).isOne();
+
+        // a full bucket granted the whole lease, 5 permits at 1 per second
+        double tat = Double.parseDouble(server.get("gateway:rate:" + ROUTE + ":user-1"));
+        assertThat(tat).isBetween(before + 5000.0, System.currentTimeMillis() + 5000.0);
+    }
+
+    @Test
+    void sendsTheHeadersOfRedisRateLimiter() {
+        LeasedRateLimiter leased = limiter(1, 10, 5);
+        leased.setIncludeHeaders(false);
+        assertThat(leased.isAllowed(ROUTE, "user-1").block().getHeaders()).isEmpty();
+
+        leased.setIncludeHeaders(true);
+        RateLimiter.Response response = leased.isAllowed(ROUTE, "user-1").block();
+        assertThat(response.getHeaders())
+                .containsEntry(RedisRateLimiter.REPLENISH_RATE_HEADER, "1")
+                .containsEntry(RedisRateLimiter.BURST_CAPACITY_HEADER, "10")
+                .containsEntry(RedisRateLimiter.REQUESTED_TOKENS_HEADER, "1")
+                .containsKey(RedisRateLimiter.REMAINING_HEADER);
+        assertThat(Long.parseLong(response.getHeaders().get(RedisRateLimiter.REMAINING_HEADER))).isBetween(0L, 4L);
+    }
+
+    private LeasedRateLimiter limiter(int replenishRate, int burstCapacity, int leaseSize) {
+        return limiter(replenishRate, burstCapacity, leaseSize, 200_000);
+    }
+
+    private LeasedRateLimiter limiter(int replenishRate, int burstCapacity, int leaseSize, long maximumKeys) {
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.setLeaseSize(leaseSize);
+        properties.setMaximumKeys(maximumKeys);
+        properties.setTimeout(Duration.ofMillis(500));
+        LeasedRateLimiter limiter = new LeasedRateLimiter(redisTemplate, properties, null);
+        LeasedRateLimiter.Config config = new LeasedRateLimiter.Config();
+        config.setReplenishRate(replenishRate);
+        config.setBurstCapacity(burstCapacity);
+        limiter.getConfig().put(ROUTE, config);
+        return limiter;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private RedisRateLimiter redisRateLimiter(int replenishRate, int burstCapacity) {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("META-INF/scripts/request_rate_limiter.lua")));
+        script.setResultType(List.class);
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(ReactiveStringRedisTemplate.class, () -> redisTemplate);
+        context.registerBean(RedisRateLimiter.REDIS_SCRIPT_NAME, RedisScript.class, () -> script);
+        context.refresh();
+        RedisRateLimiter limiter = new RedisRateLimiter(replenishRate, burstCapacity);
+        limiter.setApplicationContext(context);
+        return limiter;
+    }
+
+    private static int allowed(RateLimiter<?> limiter, String id) {
+        return limiter.isAllowed(ROUTE, id).block().isAllowed() ? 1 : 0;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Sends requests to the replicas in turn for the given time and notes when each was allowed.
+     */
+    private static void hammer(List<LeasedRateLimiter> replicas, List<Long> allowedAt, long millis) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (int i = 0; System.nanoTime() < end; i++) {
+            if (allowed(replicas.get(i % replicas.size()), "user-1") == 1) {
+                allowedAt.add(System.nanoTime());
+            }
+            LockSupport.parkNanos(200_000);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.TokenCacheProperties;
+import com.shun.gateway.support.MiniRedisServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RedisVerdictStoreTest {
+
+    private MiniRedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private TokenCacheProperties properties;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new MiniRedisServer();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", server.getPort()));
+        connectionFactory.afterPropertiesSet();
+        properties = new TokenCacheProperties();
+        properties.getRedis().setEnabled(true);
+        properties.getRedis().setTimeout(Duration.ofMillis(200));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connectionFactory.destroy();
+        server.close();
+    }
+
+    @Test
+    void sharesPassedVerdictWithPeer() {
+        Node writer = new Node();
+        Node reader = new Node();
+        TokenDigest digest = TokenDigest.of("passed-token");
+        TokenIdentity identity = new TokenIdentity("42", "bella", "pc", System.currentTimeMillis() + 60_000,
+                TokenDigest.of("jti-42"));
+        try {
+            writer.store.offer(digest, writer.cache.putPassed(digest, identity));
+            writer.store.flush().block();
+
+            assertThat(reader.store.lookup(digest).block()).isEqualTo(TokenVerdictCache.Entry.passed(identity));
+            assertThat(reader.cache.get(digest)).isEqualTo(TokenVerdictCache.Entry.passed(identity));
+            assertThat(reader.store.lookup(TokenDigest.of("other-token")).block()).isNull();
+        } finally {
+            writer.store.stop();
+            reader.store.stop();
+        }
+    }
+
+    @Test
+    void ignoresVerdictsOfTheFormatWithoutJti() {
+        Node node = new Node();
+        TokenDigest digest = TokenDigest.of("passed-token");
+        // as written by a replica that predates revocation
+        String old = "{\"v\":\"PASSED\",\"w\":" + System.currentTimeMillis() + ",\"e\":"
+                + (System.currentTimeMillis() + 60_000) + ",\"u\":\"42\",\"n\":\"bella\",\"a\":\"pc\"}";
+        new ReactiveStringRedisTemplate(connectionFactory).opsForValue()
+                .set(properties.getRedis().getKeyPrefix() + digest.toHex(), old).block();
+        try {
+            assertThat(node.store.lookup(digest).block()).isNull();
+            assertThat(node.cache.get(digest)).isNull();
+        } finally {
+            node.store.stop();
+        }
+    }
+
+    @Test
+    void pushesStoppedVerdictToPeers() throws InterruptedException {
+        Node writer = new Node();
+        Node peer = new Node();
+        peer.store.start();
+        TokenDigest digest = TokenDigest.of("forged-token");
+        try {
+            // the peer subscribes asynchronously, keep publishing until it has heard
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (peer.filter.lookup(digest) != TokenVerdict.STOPPED && System.currentTimeMillis() < deadline) {
+                writer.store.offer(digest, TokenVerdictCache.Entry.rejected(TokenVerdict.STOPPED));
+                writer.store.flush().block();
+                Thread.sleep(50);
+            }
+            assertThat(peer.filter.lookup(digest)).isEqualTo(TokenVerdict.STOPPED);
+        } finally {
+            writer.store.stop();
+            peer.store.stop();
+        }
+    }
+
+    @Test
+    void degradesToLocalOnlyWhenRedisIsSlow() {
+        Node node = new Node();
+        // connect first, the connection is shared and set up once
+        assertThat(node.store.lookup(TokenDigest.of("warm-up")).block()).isNull();
+        server.setLatencyMillis(1_000);
+        long start = System.nanoTime();
+
+        assertThat(node.store.lookup(TokenDigest.of("token")).block()).isNull();
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(900));
+        assertThat(node.store.isAvailable()).isFalse();
+        long served = server.getCommandCount();
+        assertThat(node.store.lookup(TokenDigest.of("token")).block()).isNull();
+        assertThat(server.getCommandCount()).isEqualTo(served);
+        node.store.stop();
+    }
+
+    private class Node {
+        final TokenVerdictCache cache = new TokenVerdictCache(properties);
+        final GenerationalVerdictFilter filter = new GenerationalVerdictFilter();
+        final RedisVerdictStore store = new RedisVerdictStore(new ReactiveStringRedisTemplate(connectionFactory),
+                connectionFactory, cache, filter, properties);
+    }
+}
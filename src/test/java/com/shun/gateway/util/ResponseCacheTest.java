@@ -0,0 +1,166 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.ResponseCacheProperties;
+import com.shun.gateway.filter.ResponseCacheGatewayFilterFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientResponse;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+class ResponseCacheTest {
+
+    private static final Route ROUTE = Route.async().id("catalog").uri("http://localhost:8080")
+            .predicate(exchange -> true).build();
+
+    private final AtomicLong now = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ResponseCache responseCache = new ResponseCache(new ResponseCacheProperties(), meterRegistry, now::get);
+    private final ResponseCacheGatewayFilterFactory factory = new ResponseCacheGatewayFilterFactory(responseCache);
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+
+    @Test
+    void answersRepeatsFromMemoryUntilStale() {
+        GatewayFilter filter = filter(List.of());
+        GatewayFilterChain upstream = upstream(Map.of(HttpHeaders.CACHE_CONTROL, "max-age=10"), Duration.ZERO);
+
+        assertEquals("catalog-1", get(filter, upstream, "/catalog?page=1").getBodyAsString().block());
+        now.addAndGet(Duration.ofSeconds(3).toNanos());
+        MockServerHttpResponse hit = get(filter, upstream, "/catalog?page=1");
+        assertEquals("catalog-1", hit.getBodyAsString().block());
+        assertEquals("3", hit.getHeaders().getFirst(HttpHeaders.AGE));
+        assertEquals(9, hit.getHeaders().getContentLength());
+        assertEquals(1, upstreamCalls.get());
+
+        get(filter, upstream, "/catalog?page=2");
+        assertEquals(2, upstreamCalls.get());
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertEquals("catalog-3", get(filter, upstream, "/catalog?page=1").getBodyAsString().block());
+        assertEquals(3, upstreamCalls.get());
+        assertEquals(1, meterRegistry.get("gateway.response.cache.requests").tag("result", "hit").counter().count());
+        assertEquals(3, meterRegistry.get("gateway.response.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void collapsesConcurrentMisses() {
+        GatewayFilter filter = filter(List.of());
+        GatewayFilterChain upstream = upstream(Map.of(), Duration.ofMillis(100));
+
+        List<String> bodies = Flux.range(0, 10)
+                .flatMap(i -> {
+                    MockServerWebExchange exchange = exchange("/catalog", Map.of());
+                    return filter.filter(exchange, upstream).then(Mono.defer(() -> exchange.getResponse().getBodyAsString()));
+                })
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(10, bodies.size());
+        bodies.forEach(body -> assertEquals("catalog-1", body));
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(9, meterRegistry.get("gateway.response.cache.requests").tag("result", "coalesced").counter().count());
+    }
+
+    @Test
+    void keepsOnlyWhatASharedCacheMay() {
+        GatewayFilter filter = filter(List.of("Accept-Language"));
+
+        assertUpstreamCalls(2, filter, upstream(Map.of(HttpHeaders.CACHE_CONTROL, "private, max-age=60"), Duration.ZERO), Map.of());
+        assertUpstreamCalls(2, filter, upstream(Map.of(HttpHeaders.CACHE_CONTROL, "no-store"), Duration.ZERO), Map.of());
+        assertUpstreamCalls(2, filter, upstream(Map.of(HttpHeaders.SET_COOKIE, "session=1"), Duration.ZERO), Map.of());
+        assertUpstreamCalls(2, filter, upstream(Map.of(HttpHeaders.VARY, "Accept-Encoding"), Duration.ZERO), Map.of());
+        assertUpstreamCalls(1, filter, upstream(Map.of(HttpHeaders.VARY, "accept-language"), Duration.ZERO), Map.of());
+        // a response to a request with a token needs to be public
+        Map<String, String> token = Map.of(HttpHeaders.AUTHORIZATION, "Bearer x");
+        assertUpstreamCalls(2, filter, upstream(Map.of(HttpHeaders.CACHE_CONTROL, "max-age=60"), Duration.ZERO), token);
+        assertUpstreamCalls(1, filter, upstream(Map.of(HttpHeaders.CACHE_CONTROL, "public, max-age=60"), Duration.ZERO), token);
+    }
+
+    @Test
+    void keysByTheKeyHeaders() {
+        GatewayFilter filter = filter(List.of("Accept-Language"));
+        GatewayFilterChain upstream = upstream(Map.of(HttpHeaders.VARY, "Accept-Language"), Duration.ZERO);
+
+        filter.filter(exchange("/catalog", Map.of("Accept-Language", "zh")), upstream).block();
+        filter.filter(exchange("/catalog", Map.of("Accept-Language", "en")), upstream).block();
+        filter.filter(exchange("/catalog", Map.of("Accept-Language", "zh")), upstream).block();
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    private void assertUpstreamCalls(int expected, GatewayFilter filter, GatewayFilterChain upstream,
+                                     Map<String, String> headers) {
+        upstreamCalls.set(0);
+        String path = "/catalog/" + System.nanoTime();
+        for (int i = 0; i < 2; i++) {
+            filter.filter(exchange(path, headers), upstream).block();
+        }
+        assertEquals(expected, upstreamCalls.get());
+    }
+
+    private GatewayFilter filter(List<String> keyHeaders) {
+        ResponseCacheGatewayFilterFactory.Config config = new ResponseCacheGatewayFilterFactory.Config();
+        config.setKeyHeaders(keyHeaders);
+        return factory.apply(config);
+    }
+
+    private static MockServerHttpResponse get(GatewayFilter filter, GatewayFilterChain upstream, String uri) {
+        MockServerWebExchange exchange = exchange(uri, Map.of());
+        filter.filter(exchange, upstream).block();
+        return exchange.getResponse();
+    }
+
+    private static MockServerWebExchange exchange(String uri, Map<String, String> headers) {
+        MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get(uri);
+        headers.forEach(request::header);
+        MockServerWebExchange exchange = MockServerWebExchange.from(request);
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, ROUTE);
+        return exchange;
+    }
+
+    /**
+     * What NettyRoutingFilter leaves behind: the client response as an attribute, and its status,
+     * headers and body copied into the gateway's response.
+     */
+    private GatewayFilterChain upstream(Map<String, String> headers, Duration delay) {
+        return exchange -> Mono.delay(delay).then(Mono.defer(() -> {
+            byte[] body = ("catalog-" + upstreamCalls.incrementAndGet()).getBytes(StandardCharsets.UTF_8);
+            DefaultHttpHeaders upstreamHeaders = new DefaultHttpHeaders();
+            headers.forEach(upstreamHeaders::add);
+            upstreamHeaders.add(HttpHeaders.CONTENT_LENGTH, body.length);
+            exchange.getAttributes().put(CLIENT_RESPONSE_ATTR, clientResponse(upstreamHeaders));
+            exchange.getResponse().setStatusCode(HttpStatus.OK);
+            headers.forEach(exchange.getResponse().getHeaders()::add);
+            return exchange.getResponse().writeWith(Mono.just(exchange.getResponse().bufferFactory().wrap(body)));
+        }));
+    }
+
+    private static HttpClientResponse clientResponse(DefaultHttpHeaders headers) {
+        return (HttpClientResponse) Proxy.newProxyInstance(ResponseCacheTest.class.getClassLoader(),
+                new Class<?>[]{HttpClientResponse.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "status" -> HttpResponseStatus.OK;
+                    case "responseHeaders" -> headers;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
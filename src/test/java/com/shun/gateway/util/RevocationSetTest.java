@@ -0,0 +1,97 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.RevocationProperties;
+import com.shun.gateway.config.RevokedTokensProperties;
+import com.shun.gateway.support.MiniRedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RevocationSetTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final RevocationProperties properties = new RevocationProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RevocationSet revocations = new RevocationSet(properties, meterRegistry, now::get);
+
+    @Test
+    void growsAndKeepsEveryRevocation() {
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(revocations.revoke(TokenDigest.of("jti-" + i), now.get() + 60_000));
+        }
+        assertFalse(revocations.revoke(TokenDigest.of("jti-0"), now.get() + 60_000));
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(revocations.contains(TokenDigest.of("jti-" + i), now.get()));
+            assertFalse(revocations.contains(TokenDigest.of("other-" + i), now.get()));
+        }
+        assertEquals(10_000, meterRegistry.get("gateway.token.revocations").gauge().value());
+    }
+
+    @Test
+    void dropsRevocationsAtTheirExp() {
+        TokenDigest shortLived = TokenDigest.of("short-lived");
+        TokenDigest longLived = TokenDigest.of("long-lived");
+        revocations.revoke(shortLived, now.get() + 1_000);
+        revocations.revoke(longLived, now.get() + 60_000);
+        assertFalse(revocations.revoke(TokenDigest.of("expired"), now.get()));
+
+        now.addAndGet(1_000);
+        assertFalse(revocations.contains(shortLived, now.get()));
+        assertTrue(revocations.contains(longLived, now.get()));
+        assertEquals(2, revocations.size());
+
+        revocations.sweep();
+        assertEquals(1, revocations.size());
+        assertTrue(revocations.contains(longLived, now.get()));
+        assertTrue(revocations.isRevoked(new TokenIdentity("42", "bella", "pc", now.get() + 60_000, longLived)));
+        assertFalse(revocations.isRevoked(new TokenIdentity("42", "bella", "pc", now.get() + 60_000, null)));
+        assertEquals(1, meterRegistry.get("gateway.token.revoked").counter().count());
+    }
+
+    @Test
+    void followsTheConfigAndTheStream() throws Exception {
+        long exp = System.currentTimeMillis() / 1000 + 3600;
+        RevocationSet live = new RevocationSet(properties, meterRegistry);
+        RevokedTokensProperties listed = new RevokedTokensProperties();
+        listed.setJti(Map.of("listed-jti", exp));
+        properties.getStream().setTimeout(Duration.ofSeconds(1));
+        properties.getStream().setBatchSize(2);
+        try (MiniRedisServer server = new MiniRedisServer()) {
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                    new RedisStandaloneConfiguration("127.0.0.1", server.getPort()));
+            connectionFactory.afterPropertiesSet();
+            try {
+                ReactiveStringRedisTemplate redisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+                RevocationFeed feed = new RevocationFeed(live, properties, listed, redisTemplate, new RotationScheduler());
+                feed.loadListed();
+                assertTrue(live.contains(TokenDigest.of("listed-jti"), System.currentTimeMillis()));
+
+                for (int i = 0; i < 5; i++) {
+                    redisTemplate.opsForStream().add("gateway:token:revoked",
+                            Map.of("jti", "streamed-" + i, "exp", Long.toString(exp))).block();
+                }
+                feed.poll().block();
+                redisTemplate.opsForStream().add("gateway:token:revoked", Map.of("jti", "streamed-5")).block();
+                feed.poll().block();
+
+                for (int i = 0; i < 6; i++) {
+                    assertTrue(live.contains(TokenDigest.of("streamed-" + i), System.currentTimeMillis()));
+                }
+                assertEquals(7, live.size());
+            } finally {
+                connectionFactory.destroy();
+            }
+        }
+    }
+}
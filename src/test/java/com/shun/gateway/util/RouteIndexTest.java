@@ -0,0 +1,146 @@
+package com.shun.gateway.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.handler.AsyncPredicate;
+import org.springframework.cloud.gateway.handler.predicate.HostRoutePredicateFactory;
+import org.springframework.cloud.gateway.handler.predicate.MethodRoutePredicateFactory;
+import org.springframework.cloud.gateway.handler.predicate.PathRoutePredicateFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouteIndexTest {
+
+    private static final PathRoutePredicateFactory PATH = new PathRoutePredicateFactory();
+    private static final HostRoutePredicateFactory HOST = new HostRoutePredicateFactory();
+    private static final MethodRoutePredicateFactory METHOD = new MethodRoutePredicateFactory();
+
+    private static final List<String> PATHS = List.of(
+            "", "/", "//a", "/a", "/a/", "/a/b", "/a/b/c", "/b", "/b/x", "/svc-1/x", "/svc-2", "/svc-2/",
+            "/a%2Fb", "/a;v=1/b", "/A/b", "/a b/c", "/a%20b/c", "/test/x", "/other", "/x/y");
+
+    private static final List<String> HOSTS = List.of(
+            "", "api.demo.com", "api.demo.com:9000", "api..demo.com", "api.demo.com.", "x.demo.com", "other.com", "API.demo.com");
+
+    @Test
+    void picksTheRouteAWalkOverAllRoutesPicks() {
+        List<Route> routes = new ArrayList<>();
+        routes.add(route("method-only", method(HttpMethod.DELETE)));
+        routes.add(route("svc-1", path("/svc-1/**")));
+        routes.add(route("host", host("api.demo.com")));
+        routes.add(route("a-b", path("/a/b")));
+        routes.add(route("a-or-b", path("/a/**", "/b/**")));
+        routes.add(route("svc-2-get", path("/svc-2/**").and(method(HttpMethod.GET))));
+        routes.add(route("wildcard-host", host("*.demo.com")));
+        routes.add(route("template", path("/{segment}/x")));
+        routes.add(route("host-and-path", host("other.com").and(path("/other"))));
+        routes.add(route("host-then-path", host("other.com", "api.demo.com").and(path("/x/**"))));
+        routes.add(route("encoded", path("/a b/**")));
+        routes.add(route("test", path("/test/{segment}")));
+        routes.add(route("catch-all", path("/**")));
+        assertEquivalent(routes, Set.of());
+        assertEquivalent(routes.subList(1, routes.size() - 1), Set.of());
+    }
+
+    @Test
+    void neverFilesOpaqueRoutes() {
+        List<Route> routes = List.of(
+                route("or", path("/a/**").or(path("/b/**"))),
+                route("not", path("/a/**").negate()),
+                route("svc", path("/svc-1/**")));
+        RouteIndex index = RouteIndex.build(routes, Set.of("or", "not"));
+        assertArrayEquals(new int[]{1, 0, 2}, index.counts());
+        assertEquivalent(routes, Set.of("or", "not"));
+    }
+
+    @Test
+    void filesDiscoveryRoutesBySegment() {
+        List<Route> routes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            routes.add(route("svc-" + i, path("/svc-" + i + "/**")));
+        }
+        RouteIndex index = RouteIndex.build(routes, Set.of());
+        assertArrayEquals(new int[]{1000, 0, 0}, index.counts());
+        Route[] candidates = index.candidates(exchange("/svc-999/orders", null).getRequest().getPath(), null);
+        assertEquals(1, candidates.length);
+        assertEquals("svc-999", candidates[0].getId());
+        assertEquals(0, index.candidates(exchange("/unknown", null).getRequest().getPath(), null).length);
+    }
+
+    @Test
+    void recognisesTheRoutesItWasBuiltFrom() {
+        List<Route> routes = List.of(route("a", path("/a/**")), route("b", path("/b/**")));
+        RouteIndex index = RouteIndex.build(routes, Set.of());
+        assertTrue(index.isBuiltFrom(new ArrayList<>(routes)));
+        assertFalse(index.isBuiltFrom(List.of(routes.get(0), route("b", path("/b/**")))));
+        assertFalse(index.isBuiltFrom(List.of(routes.get(1), routes.get(0))));
+    }
+
+    private static void assertEquivalent(List<Route> routes, Set<String> opaqueIds) {
+        RouteIndex index = RouteIndex.build(routes, opaqueIds);
+        for (String path : PATHS) {
+            for (String host : HOSTS) {
+                for (HttpMethod method : List.of(HttpMethod.GET, HttpMethod.DELETE)) {
+                    ServerWebExchange exchange = exchange(path, host, method);
+                    String hostName = exchange.getRequest().getHeaders().getHost() == null
+                            ? null : exchange.getRequest().getHeaders().getHost().getHostName();
+                    Route[] candidates = index.candidates(exchange.getRequest().getPath().pathWithinApplication(), hostName);
+                    assertEquals(firstMatch(routes, exchange), firstMatch(Arrays.asList(candidates), exchange),
+                            () -> method + " " + path + " on " + host);
+                }
+            }
+        }
+    }
+
+    private static String firstMatch(List<Route> routes, ServerWebExchange exchange) {
+        for (Route route : routes) {
+            if (Boolean.TRUE.equals(Mono.from(route.getPredicate().apply(exchange)).block())) {
+                return route.getId();
+            }
+        }
+        return null;
+    }
+
+    private static ServerWebExchange exchange(String path, String host) {
+        return exchange(path, host, HttpMethod.GET);
+    }
+
+    private static ServerWebExchange exchange(String path, String host, HttpMethod method) {
+        MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.method(method, URI.create("http://localhost" + path.replace(" ", "%20")));
+        if (host != null && !host.isEmpty()) {
+            request.header(HttpHeaders.HOST, host);
+        }
+        return MockServerWebExchange.from(request);
+    }
+
+    private static Route route(String id, AsyncPredicate<ServerWebExchange> predicate) {
+        return Route.async().id(id).uri("http://localhost:8080").asyncPredicate(predicate).build();
+    }
+
+    private static AsyncPredicate<ServerWebExchange> path(String... patterns) {
+        return PATH.applyAsync(config -> config.setPatterns(List.of(patterns)));
+    }
+
+    private static AsyncPredicate<ServerWebExchange> host(String... patterns) {
+        return HOST.applyAsync(config -> config.setPatterns(List.of(patterns)));
+    }
+
+    private static AsyncPredicate<ServerWebExchange> method(HttpMethod method) {
+        return METHOD.applyAsync(config -> config.setMethods(method));
+    }
+}
@@ -0,0 +1,104 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.support.SignedTokens;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.jackson.io.JacksonDeserializer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TokenParseTest {
+
+    private static final String HEADER = "eyJraWQiOiJFRjRGMjJDMC01Q0IwLTQzNDgtOTY3Qi0wMjY0OTVFN0VGQzgiLCJhbGciOiJFUzI1NiJ9";
+
+    private static final String PRODUCTION_SHAPED = HEADER + ".eyJpc3MiOiJjb20uemhpaHVpc2h1IiwiYXVkIjoicGMiLCJzdWIiOiJCZWxsYSIsImlhdCI6MTY0MDc1ODMyMywiZXhwIjoxNjQwNzY1NTIzLCJqdGkiOiJmN2UwOWNkYi1hYjI2LTQwYWMtOGUzNC1kODYwZGI4ZmM2YTkiLCJ1aWQiOjE4NzUwMTY2NDgsInJvbGUiOiJhZG1pbiJ9.SW1ufWDK7esUOs0kfEx1M9G4N7L8yszAqDtgun1u3ELZ3nlKCvI_sl0wA_wWBUYldMvm7QuwnZGQzz5INbPm9Q";
+
+    private final TokenParse tokenParse = new TokenParse();
+
+    @Test
+    void matchesFullParseOnFixtures() {
+        SignedTokens tokens = new SignedTokens();
+        List<String> fixtures = new ArrayList<>(List.of(
+                PRODUCTION_SHAPED,
+                tokens.token(42),
+                tokens.token(7, "张三 <ops@example.com>", "app", Duration.ofMinutes(5)),
+                tokens.token(Long.MAX_VALUE, "", "pc", Duration.ofDays(30)),
+                unsigned("{\"uid\":12345678901234567890,\"aud\":[\"web\",\"pc\"],\"sub\":\"a\\\"b\\u00e9\",\"exp\":1700000000}"),
+                unsigned("{\"ext\":{\"sub\":\"nested\",\"aud\":[1,{\"x\":[]}]},\"uid\":\"9\",\"exp\":1700000000}"),
+                unsigned("{\"uid\":1,\"sub\":\"" + "x".repeat(4000) + "\"}"),
+                unsigned("{\"uid\":true}")));
+        for (int i = 0; i < 16; i++) {
+            fixtures.add(tokens.token(i, "user-" + "ü".repeat(i), "aud" + i, Duration.ofSeconds(i + 1)));
+        }
+        for (String token : fixtures) {
+            assertEquals(TokenIdentity.from(fullParse(token)), TokenIdentity.from(tokenParse.parseToken(token)), token);
+        }
+    }
+
+    @Test
+    void readsClaimsWithoutVerifying() {
+        TokenClaims claims = tokenParse.parseToken(PRODUCTION_SHAPED);
+
+        assertEquals("1875016648", claims.uid());
+        assertEquals("Bella", claims.subject());
+        assertEquals("pc", claims.audience());
+        assertEquals(1640765523000L, claims.expiresAt());
+        assertEquals("f7e09cdb-ab26-40ac-8e34-d860db8fc6a9", claims.jti());
+    }
+
+    // jjwt drops it, the full parse cannot be compared
+    @Test
+    void keepsTheFractionOfExp() {
+        TokenClaims claims = tokenParse.parseToken(unsigned("{\"exp\":1700000000.75}"));
+
+        assertEquals(1700000000750L, claims.expiresAt());
+    }
+
+    @Test
+    void absentClaims() {
+        TokenClaims claims = tokenParse.parseToken(unsigned("{\"aud\":[],\"exp\":null}"));
+
+        assertNull(claims.uid());
+        assertNull(claims.subject());
+        assertNull(claims.audience());
+        assertEquals(Long.MAX_VALUE, claims.expiresAt());
+        assertNull(claims.jti());
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertThrows(MalformedJwtException.class, () -> tokenParse.parseToken("no-periods"));
+        assertThrows(MalformedJwtException.class, () -> tokenParse.parseToken(HEADER + ".only-one"));
+        assertThrows(MalformedJwtException.class, () -> tokenParse.parseToken(HEADER + ".ey+J9.sig"));
+        assertThrows(MalformedJwtException.class, () -> tokenParse.parseToken(unsigned("{\"uid\":}")));
+        assertNull(tokenParse.parseToken(unsigned("[1,2]")));
+        assertNull(tokenParse.parseToken(HEADER + "..sig"));
+    }
+
+    private static String unsigned(String payload) {
+        return HEADER + "." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".sig";
+    }
+
+    /**
+     * What {@code parseToken} used to do: decode the whole payload into a claims map.
+     */
+    private static Claims fullParse(String token) {
+        String payload = token.split("\\.")[1];
+        Map<String, ?> map = new JacksonDeserializer<Map<String, ?>>()
+                .deserialize(Decoders.BASE64URL.decode(payload));
+        return new DefaultClaims(map);
+    }
+}
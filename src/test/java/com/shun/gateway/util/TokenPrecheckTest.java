@@ -0,0 +1,62 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.JwtKeyProperties;
+import com.shun.gateway.config.TokenPrecheckProperties;
+import com.shun.gateway.support.SignedTokens;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenPrecheckTest {
+
+    private final SignedTokens signedTokens = new SignedTokens();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private TokenPrecheck precheck;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        JwtKeyProperties keys = new JwtKeyProperties();
+        keys.setKeys(Map.of(SignedTokens.KID, signedTokens.publicKeyPem()));
+        CheckTokenUtil checkTokenUtil = new CheckTokenUtil(keys, new MockEnvironment());
+        checkTokenUtil.init();
+        precheck = new TokenPrecheck(new TokenPrecheckProperties(), checkTokenUtil, meterRegistry);
+    }
+
+    @Test
+    void letsSignedTokensThrough() {
+        assertThat(precheck.check(signedTokens.token(42))).isNull();
+        // a well-formed token with a wrong signature still needs verifying to be told apart
+        assertThat(precheck.check(new SignedTokens().token(42))).isNull();
+    }
+
+    @Test
+    void rejectsWhatCannotBeAToken() {
+        String token = signedTokens.token(42);
+        String payload = token.substring(token.indexOf('.') + 1, token.lastIndexOf('.'));
+
+        assertThat(precheck.check(token + "A".repeat(4096))).isEqualTo(TokenPrecheck.Rejection.LENGTH);
+        assertThat(precheck.check("random-garbage")).isEqualTo(TokenPrecheck.Rejection.SEGMENTS);
+        assertThat(precheck.check(token + ".x")).isEqualTo(TokenPrecheck.Rejection.SEGMENTS);
+        assertThat(precheck.check(token.substring(0, token.lastIndexOf('.') + 1))).isEqualTo(TokenPrecheck.Rejection.SEGMENTS);
+        assertThat(precheck.check(token.substring(0, token.length() - 1) + "=")).isEqualTo(TokenPrecheck.Rejection.ENCODING);
+        assertThat(precheck.check(token.replace('.', '!'))).isEqualTo(TokenPrecheck.Rejection.ENCODING);
+        assertThat(precheck.check(header("{\"alg\":\"none\",\"kid\":\"test-key\"}") + "." + payload + ".c2ln"))
+                .isEqualTo(TokenPrecheck.Rejection.ALGORITHM);
+        assertThat(precheck.check(header("{\"alg\":\"HS256\",\"kid\":\"test-key\"}") + "." + payload + ".c2ln"))
+                .isEqualTo(TokenPrecheck.Rejection.ALGORITHM);
+        assertThat(precheck.check(new SignedTokens("other-key").token(42))).isEqualTo(TokenPrecheck.Rejection.KID);
+        assertThat(meterRegistry.get("gateway.token.precheck.rejected").tag("reason", "segments").counter().count())
+                .isEqualTo(3.0);
+    }
+
+    private static String header(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
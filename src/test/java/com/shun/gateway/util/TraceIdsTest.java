@@ -0,0 +1,40 @@
+package com.shun.gateway.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TraceIdsTest {
+
+    @Test
+    void makesW3cTraceIds() {
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String traceId = TraceIds.newTraceId();
+            assertTrue(traceId.matches("[0-9a-f]{32}"), traceId);
+            assertTrue(seen.add(traceId));
+
+            String traceparent = TraceIds.traceparent(traceId);
+            assertTrue(traceparent.matches("00-" + traceId + "-[0-9a-f]{16}-01"), traceparent);
+            assertEquals(traceId, TraceIds.fromTraceparent(traceparent));
+        }
+        long epochSecond = Long.parseLong(TraceIds.newTraceId().substring(0, 8), 16);
+        assertTrue(Math.abs(epochSecond - System.currentTimeMillis() / 1000) <= 1);
+    }
+
+    @Test
+    void readsOnlyWellFormedTraceparents() {
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736",
+                TraceIds.fromTraceparent("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+        assertNull(TraceIds.fromTraceparent(null));
+        assertNull(TraceIds.fromTraceparent("00-4bf92f3577b34da6a3ce929d0e0e4736"));
+        assertNull(TraceIds.fromTraceparent("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01"));
+        assertNull(TraceIds.fromTraceparent("00-00000000000000000000000000000000-00f067aa0ba902b7-01"));
+        assertNull(TraceIds.fromTraceparent("ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+    }
+}
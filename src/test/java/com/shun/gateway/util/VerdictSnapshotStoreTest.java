@@ -0,0 +1,81 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.BloomFilterProperties;
+import com.shun.gateway.config.TokenCacheProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VerdictSnapshotStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final RotationScheduler scheduler = new RotationScheduler();
+    private final BloomFilterProperties bloomFilterProperties = new BloomFilterProperties();
+    private TokenCacheProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new TokenCacheProperties();
+        properties.getSnapshot().setEnabled(true);
+        properties.getSnapshot().setPath(dir.resolve("verdicts.snapshot").toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void restoresEntriesAndGenerations() throws Exception {
+        TokenVerdictCache cache = new TokenVerdictCache(properties);
+        GenerationalVerdictFilter filter = new GenerationalVerdictFilter(bloomFilterProperties, null);
+        TokenDigest passed = TokenDigest.of("passed-token");
+        TokenDigest stopped = TokenDigest.of("stopped-token");
+        TokenIdentity identity = new TokenIdentity("42", "%E6%98%A5", null, System.currentTimeMillis() + 60_000,
+                TokenDigest.of("jti-42"));
+        cache.putPassed(passed, identity);
+        filter.put(stopped, TokenVerdict.STOPPED);
+        newStore(cache, filter).save();
+
+        TokenVerdictCache restoredCache = new TokenVerdictCache(properties);
+        GenerationalVerdictFilter restoredFilter = new GenerationalVerdictFilter(bloomFilterProperties, null);
+        newStore(restoredCache, restoredFilter).load();
+
+        assertThat(restoredCache.get(passed)).isEqualTo(TokenVerdictCache.Entry.passed(identity));
+        assertThat(restoredFilter.lookup(stopped)).isEqualTo(TokenVerdict.STOPPED);
+        assertThat(restoredFilter.lookup(passed)).isEqualTo(TokenVerdict.UNKNOWN);
+    }
+
+    @Test
+    void skipsCorruptFile() throws Exception {
+        TokenVerdictCache cache = new TokenVerdictCache(properties);
+        GenerationalVerdictFilter filter = new GenerationalVerdictFilter(bloomFilterProperties, null);
+        TokenDigest passed = TokenDigest.of("passed-token");
+        cache.putPassed(passed, new TokenIdentity("42", "bella", "pc", Long.MAX_VALUE, null));
+        newStore(cache, filter).save();
+
+        Path file = Path.of(properties.getSnapshot().getPath());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[20] ^= 0x1;
+        Files.write(file, bytes);
+
+        TokenVerdictCache restoredCache = new TokenVerdictCache(properties);
+        VerdictSnapshotStore store = newStore(restoredCache, new GenerationalVerdictFilter(bloomFilterProperties, null));
+        store.start();
+        store.stop();
+
+        assertThat(restoredCache.get(passed)).isNull();
+    }
+
+    private VerdictSnapshotStore newStore(TokenVerdictCache cache, GenerationalVerdictFilter filter) {
+        return new VerdictSnapshotStore(cache, filter, properties, bloomFilterProperties, scheduler);
+    }
+}
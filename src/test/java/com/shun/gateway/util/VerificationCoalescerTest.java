@@ -0,0 +1,60 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.VerificationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VerificationCoalescerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final VerificationCoalescer coalescer = new VerificationCoalescer(new VerificationProperties(), meterRegistry);
+
+    @Test
+    void concurrentRequestsShareOneVerification() {
+        TokenDigest digest = TokenDigest.of("fresh-token");
+        TokenVerdictCache.Entry passed = TokenVerdictCache.Entry.passed(new TokenIdentity("42", "bella", "pc", Long.MAX_VALUE, null));
+        Sinks.One<TokenVerdictCache.Entry> verification = Sinks.one();
+        AtomicInteger verifications = new AtomicInteger();
+
+        List<Mono<TokenVerdictCache.Entry>> requests = Flux.range(0, 20)
+                .map(i -> coalescer.resolve(digest, () -> {
+                    verifications.incrementAndGet();
+                    return verification.asMono();
+                }))
+                .collectList()
+                .block();
+        Mono<List<TokenVerdictCache.Entry>> results = Flux.merge(requests).collectList().cache();
+        results.subscribe();
+        assertThat(meterRegistry.get("gateway.token.verify.in.flight").gauge().value()).isEqualTo(1.0);
+
+        verification.tryEmitValue(passed);
+
+        assertThat(results.block()).hasSize(20).containsOnly(passed);
+        assertThat(verifications).hasValue(1);
+        assertThat(meterRegistry.get("gateway.token.verify.coalesced").counter().count()).isEqualTo(19.0);
+        assertThat(meterRegistry.get("gateway.token.verify.in.flight").gauge().value()).isZero();
+    }
+
+    @Test
+    void verifiesAgainOnceTheFirstVerificationCompleted() {
+        TokenDigest digest = TokenDigest.of("token");
+        AtomicInteger verifications = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            coalescer.resolve(digest, () -> Mono.fromCallable(() -> {
+                verifications.incrementAndGet();
+                return TokenVerdictCache.Entry.rejected(TokenVerdict.STOPPED);
+            })).block();
+        }
+
+        assertThat(verifications).hasValue(2);
+    }
+}
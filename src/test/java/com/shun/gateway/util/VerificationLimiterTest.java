@@ -0,0 +1,144 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.VerificationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VerificationLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final VerificationLimiter limiter = new VerificationLimiter(properties(8, 2, 16), meterRegistry, now::get);
+
+    @Test
+    void followsTheWaitForAThread() {
+        List<Disposable> busy = hold(4);
+        verify(100, Duration.ZERO, Duration.ofMillis(1));
+        int grown = limiter.getLimit();
+        assertThat(grown).isGreaterThan(8);
+        busy.forEach(Disposable::dispose);
+
+        verify(30, Duration.ofMillis(5), Duration.ofMillis(1));
+        assertThat(limiter.getLimit()).isEqualTo(2);
+
+        verify(20, Duration.ZERO, Duration.ofMillis(1));
+        assertThat(limiter.getLimit()).isGreaterThan(2);
+        assertThat(meterRegistry.get("gateway.token.verify.limit").gauge().value()).isEqualTo(limiter.getLimit());
+    }
+
+    @Test
+    void keepsTheLimitWhenVerificationOnlyGetsSlower() {
+        List<Disposable> busy = hold(4);
+        verify(50, Duration.ofNanos(500_000), Duration.ofMillis(1));
+        // a starved CPU: every verification takes five times longer, the queue stays as short
+        verify(50, Duration.ofMillis(1), Duration.ofMillis(5));
+        assertThat(limiter.getLimit()).isGreaterThanOrEqualTo(8);
+        busy.forEach(Disposable::dispose);
+    }
+
+    @Test
+    void ridesOutJitter() {
+        List<Disposable> busy = hold(4);
+        for (int i = 0; i < 50; i++) {
+            // waits of 1.5 verifications on average, some of them over twice as long
+            verify(1, Duration.ZERO, Duration.ofMillis(1));
+            verify(1, Duration.ofMillis(3), Duration.ofMillis(1));
+            verify(1, Duration.ofMillis(1), Duration.ofMillis(1));
+            verify(1, Duration.ofMillis(2), Duration.ofMillis(1));
+        }
+        assertThat(limiter.getLimit()).isGreaterThanOrEqualTo(8);
+        busy.forEach(Disposable::dispose);
+    }
+
+    @Test
+    void takesTheTimingsFromTheScheduler() throws Exception {
+        VerificationProperties properties = properties(8, 2, 16);
+        properties.setThreads(1);
+        VerificationScheduler scheduler = new VerificationScheduler(properties, meterRegistry);
+        CountDownLatch release = new CountDownLatch(1);
+        Mono<Boolean> first = scheduler.run(() -> release.await(5, TimeUnit.SECONDS)).cache();
+        first.subscribe();
+        AtomicLong waited = new AtomicLong();
+        AtomicLong took = new AtomicLong();
+        Mono<String> second = scheduler.run(() -> "claims")
+                .contextWrite(Context.of(VerificationScheduler.TIMING, (VerificationScheduler.Timing) (wait, service) -> {
+                    waited.set(wait);
+                    took.set(service);
+                }))
+                .cache();
+        second.subscribe();
+        Thread.sleep(50);
+        release.countDown();
+
+        assertThat(second.block()).isEqualTo("claims");
+        assertThat(waited.get()).isGreaterThanOrEqualTo(Duration.ofMillis(50).toNanos());
+        assertThat(took.get()).isLessThan(waited.get());
+        scheduler.shutdown();
+    }
+
+    @Test
+    void isOffByDefault() {
+        VerificationLimiter off = new VerificationLimiter(new VerificationProperties(), meterRegistry, now::get);
+        List<Disposable> busy = IntStream.range(0, 2000).mapToObj(i -> off.run(Mono::never).subscribe()).toList();
+
+        assertThat(off.run(() -> Mono.just("claims")).block()).isEqualTo("claims");
+        busy.forEach(Disposable::dispose);
+    }
+
+    @Test
+    void shedsOverTheLimit() {
+        List<Disposable> busy = hold(8);
+
+        assertThatThrownBy(() -> limiter.run(() -> Mono.just("claims")).block())
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(meterRegistry.get("gateway.token.verify.shed").counter().count()).isEqualTo(1.0);
+
+        // a rejection by the verification pool cuts the limit like a slow verification
+        busy.get(0).dispose();
+        assertThatThrownBy(() -> limiter.run(() -> Mono.error(new RejectedExecutionException())).block())
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(limiter.getLimit()).isEqualTo(7);
+        busy.forEach(Disposable::dispose);
+    }
+
+    private List<Disposable> hold(int verifications) {
+        return IntStream.range(0, verifications)
+                .mapToObj(i -> limiter.run(Mono::never).subscribe())
+                .toList();
+    }
+
+    private void verify(int times, Duration wait, Duration service) {
+        for (int i = 0; i < times; i++) {
+            now.addAndGet(wait.toNanos() + service.toNanos());
+            Mono<String> verification = Mono.deferContextual(context -> {
+                context.<VerificationScheduler.Timing>get(VerificationScheduler.TIMING)
+                        .record(wait.toNanos(), service.toNanos());
+                return Mono.just("claims");
+            });
+            assertThat(limiter.run(() -> verification).block()).isEqualTo("claims");
+        }
+    }
+
+    private static VerificationProperties properties(int initialLimit, int minLimit, int maxLimit) {
+        VerificationProperties properties = new VerificationProperties();
+        properties.getLimit().setEnabled(true);
+        properties.getLimit().setInitialLimit(initialLimit);
+        properties.getLimit().setMinLimit(minLimit);
+        properties.getLimit().setMaxLimit(maxLimit);
+        return properties;
+    }
+}
@@ -0,0 +1,88 @@
+package com.shun.gateway.util;
+
+import com.shun.gateway.config.MyFilterConfiguration;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.RequestPath;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhitePathIndexTest {
+
+    private static final List<String> PATTERNS = List.of(
+            "/health", "/a", "/a/b", "/a/*", "/a/**", "/**", "/*", "/a/*/c", "/*/b/**", "/a b", "/a%20b",
+            "/actuator/**", "/public/*/info", "/a/{id}", "/a/b*", "/a/?", "/a/{*rest}", "a/b", "/", "/A/**");
+
+    private static final List<String> PATHS = List.of(
+            "", "/", "//", "/a", "/a/", "/a//", "//a", "/a/b", "/a/b/", "/a/b//", "/a/b/c", "/a/x/c", "/a/x/c/",
+            "/a/x/c/d", "/a//c", "/a b", "/a%20b", "/a;v=1/b", "/a/b;jsessionid=1", "/A/b", "/ab", "/health",
+            "/health/", "/healthz", "/actuator", "/actuator/prometheus", "/public/x/info", "/public//info",
+            "/x/b", "/x/b/y/z", "/x/c", "/a/bc", "/a/x", "/a/;v=1", "/a/;v=1/c", "/;v=1", "/a/x/", "/a/x//c");
+
+    @Test
+    void matchesLikePathPatternOnEachPattern() {
+        for (String pattern : PATTERNS) {
+            assertEquivalent(List.of(pattern));
+        }
+    }
+
+    @Test
+    void matchesLikePathPatternOnWholeList() {
+        assertEquivalent(PATTERNS);
+        assertEquivalent(List.of("/health", "/a/*/c", "/public/*/info", "/a/{id}"));
+        assertEquivalent(List.of());
+    }
+
+    @Test
+    void swapsSnapshotOnRefresh() {
+        MyFilterConfiguration configuration = new MyFilterConfiguration();
+        configuration.setWhiteList(List.of("/public/**"));
+        WhitePathIndex index = new WhitePathIndex(configuration);
+        index.init();
+        assertTrue(index.matches(path("/public/x")));
+
+        configuration.setWhiteList(List.of("/health"));
+        index.onRefresh();
+        assertFalse(index.matches(path("/public/x")));
+        assertTrue(index.matches(path("/health")));
+
+        configuration.setWhiteList(null);
+        index.onRefresh();
+        assertFalse(index.matches(path("/health")));
+    }
+
+    @Test
+    void keepsPreviousSnapshotWhenRefreshFails() {
+        MyFilterConfiguration configuration = new MyFilterConfiguration();
+        configuration.setWhiteList(List.of("/health"));
+        WhitePathIndex index = new WhitePathIndex(configuration);
+        index.init();
+
+        configuration.setWhiteList(List.of("/public/**/x"));
+        index.onRefresh();
+
+        assertTrue(index.matches(path("/health")));
+    }
+
+    private static void assertEquivalent(List<String> patterns) {
+        PathPatternParser parser = new PathPatternParser();
+        List<PathPattern> parsed = patterns.stream().map(parser::parse).toList();
+        WhitePathIndex.Snapshot snapshot = WhitePathIndex.Snapshot.compile(patterns);
+        for (String raw : PATHS) {
+            RequestPath path = path(raw);
+            boolean expected = parsed.stream().anyMatch(pattern -> pattern.matches(path));
+            assertEquals(expected, snapshot.matches(path), patterns + " on '" + raw + "'");
+        }
+    }
+
+    private static RequestPath path(String raw) {
+        return RequestPath.parse(URI.create("http://localhost" + raw.replace(" ", "%20")).getRawPath(), null);
+    }
+}